@@ -1,11 +1,14 @@
 package com.crossover.trial.weather;
 
 import com.crossover.trial.weather.lib.CsvSplitter;
+import com.google.gson.Gson;
 
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.InvocationCallback;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.BufferedReader;
 import java.io.File;
@@ -13,23 +16,83 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
- * A simple airport loader which reads a file from disk and sends entries to the webservice
+ * An airport loader which reads a file from disk and sends the entries to the webservice.
  * <p>
- * TODO: Implement the Airport Loader
+ * Rows are gathered into batches for the airport batch endpoint and up to {@code maxInFlight} batches are sent
+ * concurrently, so parsing the file overlaps with the server adding the previous batches. Progress is reported per
+ * completed batch, rejected rows are reported with their line number.
  */
 public class AirportLoader {
 
+    private static final int DEFAULT_BATCH_SIZE = 500;
+
+    private static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
     private final CsvSplitter csvSplitter = new CsvSplitter();
+
+    private final Gson gson = new Gson();
+
     /**
      * end point to supply updates
      */
     private WebTarget collect;
 
+    private final int batchSize;
+
+    private final int maxInFlight;
+
+    /**
+     * one permit per batch which may be sent before the oldest one completed
+     */
+    private final Semaphore inFlight;
+
+    private int sentRows;
+
+    private int acceptedRows;
+
+    private int rejectedRows;
+
+    /**
+     * the json body of the airport batch endpoint and the source line of each record
+     */
+    private static class Batch {
+        private final StringBuilder body = new StringBuilder();
+        private final String[] iataCodes;
+        private final int[] lineNumbers;
+        private int size;
+
+        Batch(int capacity) {
+            iataCodes = new String[capacity];
+            lineNumbers = new int[capacity];
+        }
+    }
+
+    /**
+     * the response of the airport batch endpoint
+     */
+    private static class BatchResult {
+        private int[] statuses;
+        private String error;
+    }
+
     public AirportLoader(String baseUrl) {
+        this(baseUrl, DEFAULT_BATCH_SIZE, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @param batchSize   the number of airports per request
+     * @param maxInFlight the number of requests sent without waiting for their response
+     */
+    public AirportLoader(String baseUrl, int batchSize, int maxInFlight) {
         Client client = ClientBuilder.newClient();
         collect = client.target(baseUrl + "/collect");
+        this.batchSize = batchSize;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
     }
 
     public static void main(String args[]) throws IOException {
@@ -44,53 +107,146 @@ public class AirportLoader {
         System.exit(0);
     }
 
+    /**
+     * Sends all airports of the file and returns once the server answered every request.
+     */
     public void upload(File airportDataFile) throws IOException {
+        final long start = System.nanoTime();
+        synchronized (this) {
+            sentRows = 0;
+            acceptedRows = 0;
+            rejectedRows = 0;
+        }
+
         try (InputStream airportDataStream = new FileInputStream(airportDataFile);
              BufferedReader reader = new BufferedReader(new InputStreamReader(airportDataStream, "UTF-8"))) {
-            String line = null;
+            Batch batch = new Batch(batchSize);
+            String line;
+            int lineNumber = 0;
             while ((line = reader.readLine()) != null) {
-                processLine(line);
+                if (processLine(++lineNumber, line, batch) && batch.size == batchSize) {
+                    send(batch);
+                    batch = new Batch(batchSize);
+                }
+            }
+            if (batch.size > 0) {
+                send(batch);
             }
+        } finally {
+            inFlight.acquireUninterruptibly(maxInFlight);
+            inFlight.release(maxInFlight);
         }
-    }
 
-    private void processLine(String line) {
-        String[] columns = csvSplitter.split(line);
-        if (columns.length <= 7) {
-            return;
+        synchronized (this) {
+            System.out.println("Loaded " + acceptedRows + " airports in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms, " + rejectedRows + " rejected");
         }
+    }
 
-        String iataCode = extractIataCode(columns);
-        String path = extractRequestPath(columns);
-
-        Response post = collect.path(path).request().post(Entity.text(""));
+    /**
+     * @return {@code true} if the line was added to the batch
+     */
+    private boolean processLine(int lineNumber, String line, Batch batch) {
+        int columnCount = csvSplitter.tokenize(line);
+        if (columnCount <= 7) {
+            synchronized (this) {
+                rejectedRows++;
+                System.out.println("ERROR in line " + lineNumber + ": expected at least 8 columns, found " + columnCount);
+            }
+            return false;
+        }
 
-        processResultStatus(iataCode, post);
+        String iataCode = csvSplitter.column(4);
+        batch.body.append("{\"iata\":").append(gson.toJson(iataCode))
+                .append(",\"latitude\":").append(gson.toJson(csvSplitter.column(6)))
+                .append(",\"longitude\":").append(gson.toJson(csvSplitter.column(7)))
+                .append("}\n");
+        batch.iataCodes[batch.size] = iataCode;
+        batch.lineNumbers[batch.size] = lineNumber;
+        batch.size++;
+        return true;
     }
 
-    private String extractIataCode(String[] columns) {
-        return columns[4].replace("\"", "");
+    /**
+     * Sends the batch asynchronously once fewer than {@code maxInFlight} batches are pending.
+     */
+    private void send(Batch batch) {
+        inFlight.acquireUninterruptibly();
+        try {
+            collect.path("/airports/batch")
+                    .request(MediaType.APPLICATION_JSON)
+                    .async()
+                    .post(Entity.entity(batch.body.toString(), MediaType.APPLICATION_JSON), new InvocationCallback<Response>() {
+                        @Override
+                        public void completed(Response response) {
+                            try {
+                                processResult(batch, response);
+                            } finally {
+                                inFlight.release();
+                            }
+                        }
+
+                        @Override
+                        public void failed(Throwable throwable) {
+                            try {
+                                processResult(batch, null, throwable.toString());
+                            } finally {
+                                inFlight.release();
+                            }
+                        }
+                    });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
     }
 
-    private String extractRequestPath(String[] columns) {
-        String iataCode = extractIataCode(columns);
-        String latitude = columns[6];
-        String longitude = columns[7];
-
-        return "/airport/" + iataCode + "/" + latitude + "/" + longitude;
+    private void processResult(Batch batch, Response response) {
+        try {
+            final String entity = response.readEntity(String.class);
+            final BatchResult result = gson.fromJson(entity, BatchResult.class);
+            if (result == null || result.statuses == null) {
+                processResult(batch, null, response.getStatus() + " " + response.getStatusInfo());
+            } else {
+                processResult(batch, result.statuses, result.error);
+            }
+        } catch (RuntimeException e) {
+            processResult(batch, null, response.getStatus() + " " + response.getStatusInfo() + ": " + e);
+        } finally {
+            response.close();
+        }
     }
 
-    private void processResultStatus(String iataCode, Response post) {
-        switch (post.getStatus()) {
-            case 200:
-                break;
-
-            case 403:
-                System.out.println("Warning: airport entry '" + iataCode + "' already exists");
-                break;
-
-            default:
-                System.out.println("ERROR when adding airport '" + iataCode + "': " + post.getStatus() + " " + post.getStatusInfo());
+    /**
+     * Reports the rows the server did not accept, rows without a status failed with {@code error}.
+     */
+    private synchronized void processResult(Batch batch, int[] statuses, String error) {
+        for (int i = 0; i < batch.size; i++) {
+            final int status = statuses != null && i < statuses.length ? statuses[i] : -1;
+            switch (status) {
+                case 200:
+                    acceptedRows++;
+                    break;
+
+                case 403:
+                    rejectedRows++;
+                    System.out.println("Warning: airport entry '" + batch.iataCodes[i] + "' already exists");
+                    break;
+
+                case -1:
+                    rejectedRows++;
+                    System.out.println("ERROR when adding airport '" + batch.iataCodes[i] + "' in line "
+                            + batch.lineNumbers[i] + ": " + error);
+                    break;
+
+                default:
+                    rejectedRows++;
+                    System.out.println("ERROR when adding airport '" + batch.iataCodes[i] + "' in line "
+                            + batch.lineNumbers[i] + ": " + status + " " + Response.Status.fromStatusCode(status));
+            }
         }
+
+        sentRows += batch.size;
+        System.out.println("Progress: " + sentRows + " rows sent, " + acceptedRows + " airports added");
     }
 }
@@ -12,6 +12,9 @@ import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.Response;
 import java.util.ServiceLoader;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A reference implementation for the weather client. Consumers of the REST API can look at WeatherClient
@@ -23,6 +26,14 @@ public class WeatherClient {
 
     private static final String BASE_URI = "http://localhost:9090";
 
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    /**
+     * upper bound of the pending batch in characters, the oldest updates are dropped beyond it while the server does
+     * not accept batches
+     */
+    private static final int MAX_PENDING_CHARS = 1 << 22;
+
     private final Gson gson;
 
     /**
@@ -35,6 +46,22 @@ public class WeatherClient {
      */
     private WebTarget collect;
 
+    /**
+     * pending batch records as json lines, {@code null} unless batching is enabled
+     */
+    private StringBuilder batch;
+
+    private int batchSize;
+
+    private int maxBatchSize;
+
+    /**
+     * set while the pending batch is kept for a retry by the batch flusher
+     */
+    private boolean retrying;
+
+    private ScheduledExecutorService batchFlusher;
+
     public WeatherClient() {
         Client client = ClientBuilder.newClient();
         gson = gsonBuilder();
@@ -61,14 +88,110 @@ public class WeatherClient {
     }
 
     public void populate(String pointType, int first, int last, int mean, int median, int count) {
-        WebTarget path = collect.path("/weather/BOS/" + pointType);
+        populate("BOS", pointType, first, last, mean, median, count);
+    }
+
+    public synchronized void populate(String iataCode, String pointType, int first, int last, int mean, int median, int count) {
         DataPoint data = ImmutableDataPoint.builder()
                 .first(first).last(last).mean(mean).median(median).count(count)
                 .build();
-        path.request().post(Entity.entity(gson.toJson(data), "application/json"));
+
+        if (batch == null) {
+            WebTarget path = collect.path("/weather/" + iataCode + "/" + pointType);
+            path.request().post(Entity.entity(gson.toJson(data), "application/json"));
+            return;
+        }
+
+        batch.append("{\"iata\":").append(gson.toJson(iataCode))
+                .append(",\"pointType\":").append(gson.toJson(pointType))
+                .append(",\"dataPoint\":").append(gson.toJson(data))
+                .append("}\n");
+        batchSize++;
+        if (batch.length() > MAX_PENDING_CHARS) {
+            dropOldest();
+        }
+        if (batchSize >= maxBatchSize && !retrying) {
+            flush();
+        }
+    }
+
+    /**
+     * Gathers subsequent {@link #populate} calls and sends them to the batch endpoint once {@code maxBatchSize}
+     * updates are pending, and at least every {@code maxDelayMillis} otherwise. While the server answers
+     * {@code 429} or {@code 503}, or cannot be reached, the updates stay pending and only the flusher retries them.
+     */
+    public synchronized void enableBatching(int maxBatchSize, long maxDelayMillis) {
+        if (batch != null) {
+            flush();
+            batchFlusher.shutdown();
+        } else {
+            this.batch = new StringBuilder();
+        }
+
+        this.maxBatchSize = maxBatchSize;
+        this.batchFlusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "weather-client-batch-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        batchFlusher.scheduleWithFixedDelay(this::flushPending, maxDelayMillis, maxDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends all pending batched updates. They stay pending if the server is overloaded or cannot be reached and are
+     * dropped if it rejects them otherwise.
+     */
+    public synchronized void flush() {
+        if (batch == null || batchSize == 0) {
+            return;
+        }
+
+        retrying = true;
+        WebTarget path = collect.path("/weather/batch");
+        Response response = path.request().post(Entity.entity(batch.toString(), "application/json"));
+        int status = response.getStatus();
+        System.out.println("collect.weather.batch: " + batchSize + " updates, " + status + " " + response.readEntity(String.class));
+
+        if (status == TOO_MANY_REQUESTS || status == Response.Status.SERVICE_UNAVAILABLE.getStatusCode()) {
+            return;
+        }
+        if (status >= 400) {
+            System.err.println("collect.weather.batch rejected, dropping " + batchSize + " updates");
+        }
+        batch.setLength(0);
+        batchSize = 0;
+        retrying = false;
+    }
+
+    /**
+     * Drops the oldest pending updates until the batch is at most half of {@link #MAX_PENDING_CHARS} long.
+     */
+    private void dropOldest() {
+        int end = 0;
+        int dropped = 0;
+        while (batch.length() - end > MAX_PENDING_CHARS / 2) {
+            end = batch.indexOf("\n", end) + 1;
+            dropped++;
+        }
+        batch.delete(0, end);
+        batchSize -= dropped;
+        System.err.println("collect.weather.batch pending for too long, dropped " + dropped + " updates");
+    }
+
+    /**
+     * Flushes from the batch flusher, which would stop for good after a task failed. The updates of a failed flush
+     * stay pending and are sent with the next one.
+     */
+    private void flushPending() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            System.err.println("collect.weather.batch failed, retrying in the next flush: " + e);
+        }
     }
 
     public void exit() {
+        flush();
         try {
             collect.path("/exit").request().get();
         } catch (Throwable t) {
@@ -5,10 +5,12 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.TypeAdapterFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 import java.util.ServiceLoader;
 
 @Configuration
+@EnableScheduling
 public class WeatherServerConfiguration {
 
     @Bean
@@ -0,0 +1,23 @@
+package com.crossover.trial.weather.domain.gis;
+
+import org.immutables.value.Value;
+
+/**
+ * A latitude/longitude aligned box in degrees. Longitudes are normalized to [-180, 180); a box crossing the
+ * antimeridian has a {@code minLongitude} greater than its {@code maxLongitude}.
+ */
+@Value.Immutable
+public interface BoundingBox {
+
+    double minLatitude();
+
+    double minLongitude();
+
+    double maxLatitude();
+
+    double maxLongitude();
+
+    default boolean crossesAntimeridian() {
+        return minLongitude() > maxLongitude();
+    }
+}
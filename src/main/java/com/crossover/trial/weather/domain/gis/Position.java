@@ -0,0 +1,18 @@
+package com.crossover.trial.weather.domain.gis;
+
+import org.immutables.value.Value;
+
+/**
+ * A {@link Point} which is not an airport, e.g. the center of a query.
+ */
+@Value.Immutable
+public interface Position extends Point {
+
+    @Value.Parameter
+    @Override
+    double latitude();
+
+    @Value.Parameter
+    @Override
+    double longitude();
+}
@@ -10,5 +10,23 @@ public enum DataPointType {
     HUMIDITY,
     PRESSURE,
     CLOUDCOVER,
-    PRECIPITATION
+    PRECIPITATION;
+
+    private static final DataPointType[] VALUES = values();
+
+    /**
+     * Case insensitive lookup which, unlike {@code valueOf(name.toUpperCase())}, does not allocate.
+     *
+     * @param name the name of the type in any case
+     * @return the matching type
+     * @throws IllegalArgumentException if there is no type with this name
+     */
+    public static DataPointType fromName(String name) {
+        for (DataPointType type : VALUES) {
+            if (type.name().equalsIgnoreCase(name)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("unknown data point type '" + name + "'");
+    }
 }
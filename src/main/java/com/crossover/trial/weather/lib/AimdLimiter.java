@@ -0,0 +1,124 @@
+package com.crossover.trial.weather.lib;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the number of calls in flight, adapting the limit to their latency in the manner of TCP congestion
+ * control: a call slower than the latency target cuts the limit by {@code backoffRatio}, a call within the target
+ * raises it by one while at least half of the limit is in use. The limit stays between {@code minLimit} and
+ * {@code maxLimit} and starts at {@code maxLimit}, so calls are only turned away once they became slow.
+ * <p>
+ * Like TCP cuts its window once per round trip, only a slow call which started after the latest cut cuts the limit
+ * again. A burst of slow calls in flight together therefore cuts it once instead of once per call.
+ * <p>
+ * Acquiring and releasing are lock free, a call over the limit is rejected at once instead of waiting.
+ */
+public class AimdLimiter {
+    private static final long NEVER = Long.MIN_VALUE;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final long latencyTargetNanos;
+
+    private final double backoffRatio;
+
+    private final AtomicInteger limit;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * when the limit was cut the last time, in {@link System#nanoTime()}, {@link #NEVER} before the first cut
+     */
+    private final AtomicLong lastDecrease = new AtomicLong(NEVER);
+
+    /**
+     * @param backoffRatio the factor the limit is multiplied with after a slow call, in {@code (0, 1)}
+     */
+    public AimdLimiter(int minLimit, int maxLimit, long latencyTargetNanos, double backoffRatio) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("limits must be at least 1 and ordered, were " + minLimit + " and " + maxLimit);
+        }
+        if (!(backoffRatio > 0.0 && backoffRatio < 1.0)) {
+            throw new IllegalArgumentException("backoffRatio must be between 0 and 1, was " + backoffRatio);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTargetNanos = latencyTargetNanos;
+        this.backoffRatio = backoffRatio;
+        this.limit = new AtomicInteger(maxLimit);
+    }
+
+    /**
+     * @return {@code true} if the call may proceed, it must be {@link #release released} when it completed
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            final int current = inFlight.get();
+            if (current >= limit.get()) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Completes an acquired call and adapts the limit to its latency.
+     *
+     * @param startNanos when the call was acquired, in {@link System#nanoTime()}
+     * @param endNanos   when the call completed, in {@link System#nanoTime()}
+     */
+    public void release(long startNanos, long endNanos) {
+        final int inFlightBefore = inFlight.getAndDecrement();
+        final boolean slow = endNanos - startNanos > latencyTargetNanos;
+        if (slow && !claimDecrease(startNanos, endNanos)) {
+            return;
+        }
+
+        while (true) {
+            final int current = limit.get();
+            final int next;
+            if (slow) {
+                next = Math.max(minLimit, (int) (current * backoffRatio));
+            } else if (inFlightBefore * 2 >= current) {
+                next = Math.min(maxLimit, current + 1);
+            } else {
+                return;
+            }
+            if (next == current || limit.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the call started after the latest cut and the cut at its end is the latest now
+     */
+    private boolean claimDecrease(long startNanos, long endNanos) {
+        final long decreased = lastDecrease.get();
+        return (decreased == NEVER || startNanos - decreased > 0) && lastDecrease.compareAndSet(decreased, endNanos);
+    }
+
+    public int limit() {
+        return limit.get();
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return the number of calls rejected for being over the limit
+     */
+    public long rejectedCount() {
+        return rejected.sum();
+    }
+}
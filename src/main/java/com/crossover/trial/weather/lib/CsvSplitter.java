@@ -1,7 +1,122 @@
 package com.crossover.trial.weather.lib;
 
+import java.util.Arrays;
+
+/**
+ * Single pass tokenizer for comma separated lines such as those of {@code airports.dat}.
+ * <p>
+ * A comma separates columns unless it is inside double quotes, a doubled quote inside a quoted column is an escaped
+ * quote. {@link #tokenize(CharSequence)} only records where the columns of a line start and end, columns are
+ * materialized on request by {@link #column(int)}. Instances keep the bounds of the last line and are not thread
+ * safe.
+ */
 public class CsvSplitter {
+    private static final char SEPARATOR = ',';
+    private static final char QUOTE = '"';
+
+    private CharSequence line;
+
+    private int columnCount;
+
+    /**
+     * column {@code c} is {@code [bounds[2 * c], bounds[2 * c + 1])}, including surrounding quotes
+     */
+    private int[] bounds = new int[32];
+
+    /**
+     * Splits a line into its columns, quoted columns keep their quotes.
+     */
     public String[] split(String line) {
-        return line.split(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)", -1);
+        final int count = tokenize(line);
+        final String[] columns = new String[count];
+        for (int column = 0; column < count; column++) {
+            columns[column] = line.substring(start(column), end(column));
+        }
+        return columns;
+    }
+
+    /**
+     * Finds the columns of a line, replacing those of the previous line.
+     *
+     * @return the number of columns, at least 1
+     */
+    public int tokenize(CharSequence line) {
+        this.line = line;
+        columnCount = 0;
+
+        boolean quoted = false;
+        int start = 0;
+        final int length = line.length();
+        for (int i = 0; i < length; i++) {
+            final char character = line.charAt(i);
+            if (character == QUOTE) {
+                // an escaped quote leaves and re-enters the quoted state, which never separates a column
+                quoted = !quoted;
+            } else if (character == SEPARATOR && !quoted) {
+                addColumn(start, i);
+                start = i + 1;
+            }
+        }
+        addColumn(start, length);
+        return columnCount;
+    }
+
+    public int columnCount() {
+        return columnCount;
+    }
+
+    /**
+     * @return the offset of the first character of the column in the line, the opening quote for quoted columns
+     */
+    public int start(int column) {
+        checkColumn(column);
+        return bounds[2 * column];
+    }
+
+    /**
+     * @return the offset after the last character of the column in the line, after the closing quote for quoted
+     * columns
+     */
+    public int end(int column) {
+        checkColumn(column);
+        return bounds[2 * column + 1];
+    }
+
+    /**
+     * @return the value of the column, without surrounding quotes and with escaped quotes unescaped
+     */
+    public String column(int column) {
+        int start = start(column);
+        int end = end(column);
+        if (end - start < 2 || line.charAt(start) != QUOTE || line.charAt(end - 1) != QUOTE) {
+            return line.subSequence(start, end).toString();
+        }
+
+        start++;
+        end--;
+        final StringBuilder value = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            final char character = line.charAt(i);
+            value.append(character);
+            if (character == QUOTE && i + 1 < end && line.charAt(i + 1) == QUOTE) {
+                i++;
+            }
+        }
+        return value.toString();
+    }
+
+    private void addColumn(int start, int end) {
+        if (2 * columnCount + 1 >= bounds.length) {
+            bounds = Arrays.copyOf(bounds, bounds.length * 2);
+        }
+        bounds[2 * columnCount] = start;
+        bounds[2 * columnCount + 1] = end;
+        columnCount++;
+    }
+
+    private void checkColumn(int column) {
+        if (column < 0 || column >= columnCount) {
+            throw new IndexOutOfBoundsException("column " + column + " of " + columnCount);
+        }
     }
 }
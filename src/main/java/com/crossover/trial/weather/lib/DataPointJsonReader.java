@@ -0,0 +1,340 @@
+package com.crossover.trial.weather.lib;
+
+/**
+ * Streaming reader for the json representation of a data point, e.g.
+ * {@code {"mean":22.0,"first":10,"median":20,"last":30,"count":10}}.
+ * <p>
+ * The reader parses straight from the characters into primitive fields, so a reader reused by one thread does not
+ * allocate for well formed input. The field accessors are only meaningful after {@link #read(CharSequence)} returned
+ * {@code true}. Unknown keys are skipped, all five data point keys are required. Instances are not thread safe.
+ */
+public class DataPointJsonReader {
+    private static final String MEAN = "mean";
+    private static final String FIRST = "first";
+    private static final String MEDIAN = "median";
+    private static final String LAST = "last";
+    private static final String COUNT = "count";
+
+    private static final int ALL_FIELDS = 0b11111;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private CharSequence input;
+    private int position;
+
+    private double mean;
+    private int first;
+    private int median;
+    private int last;
+    private int count;
+
+    /**
+     * Parses a single json object.
+     *
+     * @param json the json text
+     * @return {@code true} if the text was a json object containing all data point keys with numeric values
+     */
+    public boolean read(CharSequence json) {
+        input = json;
+        position = 0;
+        try {
+            return readObject();
+        } finally {
+            input = null;
+        }
+    }
+
+    public double mean() {
+        return mean;
+    }
+
+    public int first() {
+        return first;
+    }
+
+    public int median() {
+        return median;
+    }
+
+    public int last() {
+        return last;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    private boolean readObject() {
+        if (!consume('{')) {
+            return false;
+        }
+
+        int seen = 0;
+        if (!consume('}')) {
+            do {
+                skipWhitespace();
+                final int keyStart = position + 1;
+                if (!skipString()) {
+                    return false;
+                }
+                final int keyEnd = position - 1;
+                if (!consume(':')) {
+                    return false;
+                }
+
+                final int field = fieldOf(keyStart, keyEnd);
+                if (field < 0) {
+                    if (!skipValue()) {
+                        return false;
+                    }
+                } else {
+                    final double value = readNumber();
+                    if (Double.isNaN(value) || Double.isInfinite(value) || !assign(field, value)) {
+                        return false;
+                    }
+                    seen |= 1 << field;
+                }
+            } while (consume(','));
+
+            if (!consume('}')) {
+                return false;
+            }
+        }
+
+        skipWhitespace();
+        return position == input.length() && seen == ALL_FIELDS;
+    }
+
+    private int fieldOf(int start, int end) {
+        if (matches(start, end, MEAN)) {
+            return 0;
+        } else if (matches(start, end, FIRST)) {
+            return 1;
+        } else if (matches(start, end, MEDIAN)) {
+            return 2;
+        } else if (matches(start, end, LAST)) {
+            return 3;
+        } else if (matches(start, end, COUNT)) {
+            return 4;
+        }
+        return -1;
+    }
+
+    private boolean assign(int field, double value) {
+        if (field == 0) {
+            mean = value;
+            return true;
+        }
+
+        final int intValue = (int) value;
+        if (intValue != value) {
+            return false;
+        }
+        switch (field) {
+            case 1:
+                first = intValue;
+                break;
+            case 2:
+                median = intValue;
+                break;
+            case 3:
+                last = intValue;
+                break;
+            default:
+                count = intValue;
+        }
+        return true;
+    }
+
+    /**
+     * Reads a number, optionally quoted.
+     *
+     * @return the value or {@code NaN} if there is no number at the current position
+     */
+    private double readNumber() {
+        skipWhitespace();
+        final boolean quoted = peek() == '"';
+        if (quoted) {
+            position++;
+        }
+
+        final int start = position;
+        final boolean negative = peek() == '-';
+        if (negative) {
+            position++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean exact = true;
+
+        final int integerStart = position;
+        while (isDigit(peek())) {
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (input.charAt(position) - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+            } else {
+                exact = false;
+            }
+            position++;
+        }
+        if (position == integerStart) {
+            return Double.NaN;
+        }
+
+        if (peek() == '.') {
+            position++;
+            final int fractionStart = position;
+            while (isDigit(peek())) {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (input.charAt(position) - '0');
+                    exponent--;
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                } else {
+                    exact = false;
+                }
+                position++;
+            }
+            if (position == fractionStart) {
+                return Double.NaN;
+            }
+        }
+
+        if (peek() == 'e' || peek() == 'E') {
+            position++;
+            final boolean negativeExponent = peek() == '-';
+            if (negativeExponent || peek() == '+') {
+                position++;
+            }
+            final int exponentStart = position;
+            int explicitExponent = 0;
+            while (isDigit(peek())) {
+                explicitExponent = Math.min(explicitExponent * 10 + (input.charAt(position) - '0'), 9999);
+                position++;
+            }
+            if (position == exponentStart) {
+                return Double.NaN;
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        final int end = position;
+
+        if (quoted && !consumeRaw('"')) {
+            return Double.NaN;
+        }
+
+        // exact as long as mantissa and power of ten are both exactly representable, otherwise let the JDK round
+        final double value;
+        if (exact && digits <= 15 && exponent >= -22 && exponent <= 22) {
+            value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        } else {
+            return Double.parseDouble(input.subSequence(start, end).toString());
+        }
+        return negative ? -value : value;
+    }
+
+    private boolean skipValue() {
+        skipWhitespace();
+        final char next = peek();
+        if (next == '"') {
+            return skipString();
+        } else if (next == '{' || next == '[') {
+            return skipNested();
+        } else if (next == '-' || isDigit(next)) {
+            return !Double.isNaN(readNumber());
+        }
+        return skipLiteral("true") || skipLiteral("false") || skipLiteral("null");
+    }
+
+    private boolean skipNested() {
+        int depth = 0;
+        while (position < input.length()) {
+            final char next = input.charAt(position);
+            if (next == '"') {
+                if (!skipString()) {
+                    return false;
+                }
+                continue;
+            }
+            position++;
+            if (next == '{' || next == '[') {
+                depth++;
+            } else if ((next == '}' || next == ']') && --depth == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean skipString() {
+        skipWhitespace();
+        if (!consumeRaw('"')) {
+            return false;
+        }
+        while (position < input.length()) {
+            final char next = input.charAt(position++);
+            if (next == '\\') {
+                position++;
+            } else if (next == '"') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean skipLiteral(String literal) {
+        final int end = position + literal.length();
+        if (end <= input.length() && matches(position, end, literal)) {
+            position = end;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean matches(int start, int end, String expected) {
+        if (end - start != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (input.charAt(start + i) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean consume(char expected) {
+        skipWhitespace();
+        return consumeRaw(expected);
+    }
+
+    private boolean consumeRaw(char expected) {
+        if (peek() == expected) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (position < input.length() && Character.isWhitespace(input.charAt(position))) {
+            position++;
+        }
+    }
+
+    private char peek() {
+        return position < input.length() ? input.charAt(position) : 0;
+    }
+
+    private static boolean isDigit(char character) {
+        return character >= '0' && character <= '9';
+    }
+}
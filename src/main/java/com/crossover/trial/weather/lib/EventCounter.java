@@ -2,32 +2,85 @@ package com.crossover.trial.weather.lib;
 
 import javaslang.Tuple;
 import javaslang.Tuple2;
+import javaslang.collection.HashMap;
 import javaslang.collection.HashSet;
+import javaslang.collection.Map;
 import javaslang.collection.Set;
 import javaslang.collection.Stream;
-import javaslang.control.Option;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Counts events from many threads. Counts are striped {@link LongAdder}s, so threads incrementing the same hot event
+ * do not contend on a single value, and the total is maintained alongside instead of summed over all events.
+ */
 @Component
 @Scope(BeanDefinition.SCOPE_PROTOTYPE)
 public class EventCounter<T> {
-    private ConcurrentHashMap<T, AtomicInteger> countByEvent = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<T, LongAdder> countByEvent = new ConcurrentHashMap<>();
 
-    public int increment(T event) {
-        return countByEvent
-                .computeIfAbsent(event, k -> new AtomicInteger())
-                .incrementAndGet();
+    private final LongAdder totalCount = new LongAdder();
+
+    /**
+     * The counts of all events taken in one pass, its total is the sum of its counts.
+     */
+    public static class Snapshot<T> {
+        private final Map<T, Long> counts;
+
+        private final long totalCount;
+
+        private Snapshot(Map<T, Long> counts, long totalCount) {
+            this.counts = counts;
+            this.totalCount = totalCount;
+        }
+
+        public Map<T, Long> counts() {
+            return counts;
+        }
+
+        public long countOf(T event) {
+            return counts.get(event).getOrElse(0L);
+        }
+
+        public long totalCount() {
+            return totalCount;
+        }
+
+        public double fractionOf(T event) {
+            return totalCount != 0
+                    ? (double) countOf(event) / totalCount
+                    : 0.0;
+        }
+
+        /**
+         * @return the counts of both snapshots added up
+         */
+        public Snapshot<T> plus(Snapshot<T> other) {
+            return new Snapshot<>(counts.merge(other.counts, Long::sum), totalCount + other.totalCount);
+        }
+    }
+
+    public static <T> Snapshot<T> emptySnapshot() {
+        return new Snapshot<>(HashMap.empty(), 0);
+    }
+
+    public void increment(T event) {
+        LongAdder count = countByEvent.get(event);
+        if (count == null) {
+            // computeIfAbsent locks the bin even if the event is present, only use it for new events
+            count = countByEvent.computeIfAbsent(event, k -> new LongAdder());
+        }
+        count.increment();
+        totalCount.increment();
     }
 
     public int countOf(T event) {
-        return Option.of(countByEvent.get(event))
-                .map(AtomicInteger::get)
-                .getOrElse(0);
+        final LongAdder count = countByEvent.get(event);
+        return count != null ? saturatedCast(count.sum()) : 0;
     }
 
     public double fractionOf(T event) {
@@ -38,18 +91,33 @@ public class EventCounter<T> {
     }
 
     public int totalCount() {
-        return Stream.ofAll(countByEvent
-                .values())
-                .map(AtomicInteger::get)
-                .fold(0, (left, right) -> left + right);
+        return saturatedCast(totalCount.sum());
     }
 
     public Set<T> events() {
         return HashSet.ofAll(countByEvent.keySet());
     }
 
-    public Stream<Tuple2<T, AtomicInteger>> stream() {
+    public Stream<Tuple2<T, Long>> stream() {
         return Stream.ofAll(countByEvent.entrySet())
-                .map(entry -> Tuple.of(entry.getKey(), entry.getValue()));
+                .map(entry -> Tuple.of(entry.getKey(), entry.getValue().sum()));
+    }
+
+    /**
+     * Use instead of {@link #fractionOf} for many events, it sums every count once instead of once per event.
+     */
+    public Snapshot<T> snapshot() {
+        Map<T, Long> counts = HashMap.empty();
+        long total = 0;
+        for (java.util.Map.Entry<T, LongAdder> entry : countByEvent.entrySet()) {
+            final long count = entry.getValue().sum();
+            counts = counts.put(entry.getKey(), count);
+            total += count;
+        }
+        return new Snapshot<>(counts, total);
+    }
+
+    private static int saturatedCast(long value) {
+        return (int) Math.min(value, Integer.MAX_VALUE);
     }
 }
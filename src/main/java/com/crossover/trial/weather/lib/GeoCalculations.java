@@ -1,5 +1,7 @@
 package com.crossover.trial.weather.lib;
 
+import com.crossover.trial.weather.domain.gis.BoundingBox;
+import com.crossover.trial.weather.domain.gis.ImmutableBoundingBox;
 import com.crossover.trial.weather.domain.gis.Point;
 import org.springframework.stereotype.Component;
 
@@ -7,6 +9,16 @@ import org.springframework.stereotype.Component;
 public class GeoCalculations {
     private static final double EARTH_RADIUS = 6372.8;
 
+    /**
+     * slack in degrees added to bounding boxes so that points exactly on the radius survive rounding
+     */
+    private static final double BOUNDING_BOX_SLACK = 1e-9;
+
+    /**
+     * relative and absolute slack of the {@link #selectWithinRadius} pre-check, far above its rounding error
+     */
+    private static final double PRE_CHECK_SLACK = 1e-12;
+
     /**
      * Haversine distance between two points.
      *
@@ -16,11 +28,149 @@ public class GeoCalculations {
      */
 
     public double calculateDistance(Point point1, Point point2) {
-        double deltaLat = Math.toRadians(point2.latitude() - point1.latitude());
-        double deltaLon = Math.toRadians(point2.longitude() - point1.longitude());
-        double a = Math.pow(Math.sin(deltaLat / 2), 2) + Math.pow(Math.sin(deltaLon / 2), 2)
-                * Math.cos(point1.latitude()) * Math.cos(point2.latitude());
+        return calculateDistance(point1.latitude(), point1.longitude(), point2.latitude(), point2.longitude());
+    }
+
+    /**
+     * Haversine distance between two positions given in degrees.
+     *
+     * @return the distance in KM
+     */
+    public double calculateDistance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double sinHalfDeltaLat = Math.sin(Math.toRadians(latitude2 - latitude1) / 2);
+        double sinHalfDeltaLon = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        double a = sinHalfDeltaLat * sinHalfDeltaLat + sinHalfDeltaLon * sinHalfDeltaLon
+                * cosLatitude(latitude1) * cosLatitude(latitude2);
         double c = 2 * Math.asin(Math.sqrt(a));
         return EARTH_RADIUS * c;
     }
+
+    /**
+     * The cosine of a latitude in degrees, as used by {@link #calculateDistance}. Callers keep it per position for
+     * {@link #selectWithinRadius}.
+     */
+    public static double cosLatitude(double latitude) {
+        return Math.cos(Math.toRadians(latitude));
+    }
+
+    /**
+     * Batch version of {@code calculateDistance(latitudes[row], longitudes[row], latitude, longitude) <= radius}
+     * over the rows {@code [from, to)} of position columns, with the same result for every row. The trigonometry
+     * of the center is computed once per call, the cosine of each row's latitude is taken from
+     * {@code cosLatitudes}.
+     * <p>
+     * Rows are rejected early by the equirectangular form of the haversine with each half angle {@code t} replaced
+     * by {@code t - t^3 / 6}, a lower bound of {@code sin(t)}, so a row is only rejected if it is certainly outside
+     * the radius. The exact haversine is computed for the remaining rows.
+     *
+     * @param cosLatitudes the {@link #cosLatitude} of each row
+     * @param selected     receives the accepted rows in ascending order, needs room for {@code to - from} rows
+     * @return the number of accepted rows
+     */
+    public int selectWithinRadius(double latitude, double longitude, double radius,
+                                  double[] latitudes, double[] longitudes, double[] cosLatitudes,
+                                  int from, int to, int[] selected) {
+        final double cosCenterLatitude = cosLatitude(latitude);
+        final double sinHalfRadius = Math.sin(Math.min(radius / EARTH_RADIUS, Math.PI) / 2);
+        final double rejectAbove = sinHalfRadius * sinHalfRadius * (1 + PRE_CHECK_SLACK) + PRE_CHECK_SLACK;
+
+        int count = 0;
+        for (int row = from; row < to; row++) {
+            final double halfDeltaLat = Math.toRadians(latitude - latitudes[row]) / 2;
+            final double halfDeltaLon = Math.toRadians(longitudeDifference(longitude, longitudes[row])) / 2;
+            final double lowerSinLat = Math.abs(halfDeltaLat) * (1 - halfDeltaLat * halfDeltaLat / 6);
+            final double lowerSinLon = halfDeltaLon * (1 - halfDeltaLon * halfDeltaLon / 6);
+            if (lowerSinLat * lowerSinLat + lowerSinLon * lowerSinLon * cosLatitudes[row] * cosCenterLatitude
+                    > rejectAbove) {
+                continue;
+            }
+
+            final double sinHalfDeltaLat = Math.sin(Math.toRadians(latitude - latitudes[row]) / 2);
+            final double sinHalfDeltaLon = Math.sin(Math.toRadians(longitude - longitudes[row]) / 2);
+            final double a = sinHalfDeltaLat * sinHalfDeltaLat + sinHalfDeltaLon * sinHalfDeltaLon
+                    * cosLatitudes[row] * cosCenterLatitude;
+            if (EARTH_RADIUS * (2 * Math.asin(Math.sqrt(a))) <= radius) {
+                selected[count++] = row;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Lower bound of the distance between a position and any position with a latitude in
+     * {@code [minLatitude, maxLatitude]} whose longitude differs by at least {@code longitudeOffset} degrees.
+     *
+     * @param latitude        the latitude of the position in degrees
+     * @param longitudeOffset the smallest longitude difference in degrees, up to 180
+     * @return the distance in KM
+     */
+    public double minimumDistance(double latitude, double minLatitude, double maxLatitude, double longitudeOffset) {
+        final double deltaLat = latitude < minLatitude ? minLatitude - latitude
+                : latitude > maxLatitude ? latitude - maxLatitude : 0.0;
+        final double farthestFromEquator = Math.max(Math.abs(minLatitude), Math.abs(maxLatitude));
+
+        final double sinHalfDeltaLat = Math.sin(Math.toRadians(deltaLat) / 2);
+        final double sinHalfDeltaLon = Math.sin(Math.toRadians(Math.min(longitudeOffset, 180.0)) / 2);
+        final double a = sinHalfDeltaLat * sinHalfDeltaLat + sinHalfDeltaLon * sinHalfDeltaLon
+                * Math.cos(Math.toRadians(latitude)) * Math.cos(Math.toRadians(farthestFromEquator));
+        return EARTH_RADIUS * 2 * Math.asin(Math.sqrt(Math.min(1.0, a)));
+    }
+
+    /**
+     * Smallest latitude/longitude box containing every point within {@code radius} of {@code center}. Caps
+     * touching a pole span all longitudes.
+     *
+     * @param center the center of the cap
+     * @param radius the radius of the cap in KM
+     * @return the bounding box of the cap
+     */
+    public BoundingBox boundingBox(Point center, double radius) {
+        final double angularRadius = radius / EARTH_RADIUS;
+        final double angularRadiusDegrees = Math.toDegrees(angularRadius) + BOUNDING_BOX_SLACK;
+
+        final double minLatitude = center.latitude() - angularRadiusDegrees;
+        final double maxLatitude = center.latitude() + angularRadiusDegrees;
+
+        final ImmutableBoundingBox.Builder builder = ImmutableBoundingBox.builder()
+                .minLatitude(Math.max(minLatitude, -90.0))
+                .maxLatitude(Math.min(maxLatitude, 90.0));
+
+        final double sinDeltaLongitude = Math.sin(angularRadius) / Math.cos(Math.toRadians(center.latitude()));
+        if (minLatitude <= -90.0 || maxLatitude >= 90.0 || angularRadius >= Math.PI / 2 || sinDeltaLongitude >= 1.0) {
+            return builder.minLongitude(-180.0).maxLongitude(180.0).build();
+        }
+
+        final double deltaLongitude = Math.toDegrees(Math.asin(sinDeltaLongitude)) + BOUNDING_BOX_SLACK;
+        final double longitude = normalizeLongitude(center.longitude());
+
+        return builder
+                .minLongitude(normalizeLongitude(longitude - deltaLongitude))
+                .maxLongitude(normalizeLongitude(longitude + deltaLongitude))
+                .build();
+    }
+
+    /**
+     * @return the absolute difference of two longitudes in degrees, within [0, 180]
+     */
+    private static double longitudeDifference(double longitude1, double longitude2) {
+        double difference = Math.abs(longitude1 - longitude2);
+        if (difference > 180.0) {
+            difference %= 360.0;
+            if (difference > 180.0) {
+                difference = 360.0 - difference;
+            }
+        }
+        return difference;
+    }
+
+    /**
+     * Maps a longitude in degrees to the range [-180, 180).
+     */
+    public static double normalizeLongitude(double longitude) {
+        if (longitude >= -180.0 && longitude < 180.0) {
+            return longitude;
+        }
+        final double shifted = (longitude + 180.0) % 360.0;
+        return (shifted < 0 ? shifted + 360.0 : shifted) - 180.0;
+    }
 }
@@ -0,0 +1,153 @@
+package com.crossover.trial.weather.lib;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non negative values with a fixed number of buckets, in the manner of HdrHistogram. Values are
+ * truncated to integers. Values below {@code 2^precision} get a bucket each, above that every power of two is split
+ * into {@code 2^precision} equally wide buckets, so a bucket is never wider than {@code 2^-precision} of its values.
+ * Values above {@code maxValue} are counted as {@code maxValue}, memory therefore depends on the precision and the
+ * magnitude of {@code maxValue} only, never on the values recorded.
+ * <p>
+ * Buckets are {@link LongAdder}s, recording is safe and cheap from many threads.
+ */
+public class LogLinearHistogram {
+    private final int precision;
+
+    private final long maxValue;
+
+    private final LongAdder[] counts;
+
+    /**
+     * The bucket counts taken in one pass, its total is the sum of its counts.
+     */
+    public class Snapshot {
+        private final long[] counts;
+
+        private final long totalCount;
+
+        private Snapshot(long[] counts) {
+            this.counts = counts;
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            this.totalCount = total;
+        }
+
+        public int bucketCount() {
+            return counts.length;
+        }
+
+        /**
+         * @param other a snapshot of a histogram with the same precision and maximum
+         * @return the counts of both snapshots added up
+         */
+        public Snapshot plus(Snapshot other) {
+            if (other.counts.length != counts.length) {
+                throw new IllegalArgumentException("snapshots of histograms with different buckets can not be added");
+            }
+            final long[] sum = new long[counts.length];
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                sum[bucket] = counts[bucket] + other.counts[bucket];
+            }
+            return new Snapshot(sum);
+        }
+
+        public long countAt(int bucket) {
+            return counts[bucket];
+        }
+
+        public long totalCount() {
+            return totalCount;
+        }
+
+        /**
+         * @param percentile in {@code [0, 100]}
+         * @return the highest value of the bucket containing the given percentile of all values, 0 if the histogram
+         * is empty
+         */
+        public long valueAtPercentile(double percentile) {
+            final long rank = Math.max(1, (long) Math.ceil(Math.min(100.0, percentile) / 100.0 * totalCount));
+
+            long seen = 0;
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                seen += counts[bucket];
+                if (seen >= rank) {
+                    return Math.min(maxValue, lowestValueAt(bucket) + widthAt(bucket) - 1);
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * @param precision the number of significant bits, between 1 and 16
+     * @param maxValue  the highest value counted as is
+     */
+    public LogLinearHistogram(int precision, long maxValue) {
+        if (precision < 1 || precision > 16) {
+            throw new IllegalArgumentException("precision must be between 1 and 16 bits, was " + precision);
+        }
+        if (maxValue < 1) {
+            throw new IllegalArgumentException("maxValue must be positive, was " + maxValue);
+        }
+
+        this.precision = precision;
+        this.maxValue = maxValue;
+        this.counts = new LongAdder[bucketOf(maxValue) + 1];
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            counts[bucket] = new LongAdder();
+        }
+    }
+
+    /**
+     * Counts a value, negative values count as 0, {@code NaN} is ignored.
+     */
+    public void record(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        counts[bucketOf(value <= 0.0 ? 0 : value >= maxValue ? maxValue : (long) value)].increment();
+    }
+
+    public Snapshot snapshot() {
+        final long[] snapshot = new long[counts.length];
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            snapshot[bucket] = counts[bucket].sum();
+        }
+        return new Snapshot(snapshot);
+    }
+
+    public Snapshot emptySnapshot() {
+        return new Snapshot(new long[counts.length]);
+    }
+
+    public int bucketCount() {
+        return counts.length;
+    }
+
+    public long lowestValueAt(int bucket) {
+        final int subBucketCount = 1 << precision;
+        if (bucket < subBucketCount) {
+            return bucket;
+        }
+        final int shift = bucket / subBucketCount - 1;
+        return (long) (bucket % subBucketCount + subBucketCount) << shift;
+    }
+
+    public long widthAt(int bucket) {
+        final int subBucketCount = 1 << precision;
+        return bucket < subBucketCount ? 1 : 1L << (bucket / subBucketCount - 1);
+    }
+
+    int bucketOf(long value) {
+        final int subBucketCount = 1 << precision;
+        if (value < subBucketCount) {
+            return (int) value;
+        }
+        // value is in [2^exponent, 2^(exponent + 1)), which is split into subBucketCount buckets of 2^shift values
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - precision;
+        return subBucketCount * shift + (int) (value >>> shift);
+    }
+}
@@ -0,0 +1,206 @@
+package com.crossover.trial.weather.lib;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Size bounded cache evicting by segmented LRU: new entries start in a probation segment and are promoted to a
+ * protected segment when they are read again. Entries demoted from the full protected segment return to probation,
+ * only entries leaving probation are evicted. A burst of keys read once therefore only flushes probation, while keys
+ * read repeatedly stay protected.
+ * <p>
+ * The protected segment takes 80% of the capacity. Lookups read a concurrent map and only record the access in the
+ * segments if the lock is free, so concurrent readers never wait for each other; under contention some accesses are
+ * not recorded and the order is approximated. Modifications take the lock and are constant time.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class SegmentedLruCache<K, V> {
+    private final int probationCapacity;
+
+    private final int protectedCapacity;
+
+    /**
+     * the values of both segments, read without the lock
+     */
+    private final ConcurrentHashMap<K, V> values = new ConcurrentHashMap<>();
+
+    /**
+     * both in access order, the eldest entry first, guarded by {@link #lock}
+     */
+    private final LinkedHashMap<K, V> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, V> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public SegmentedLruCache(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("a cache needs a capacity of at least 2, not " + capacity);
+        }
+        this.protectedCapacity = capacity * 4 / 5;
+        this.probationCapacity = capacity - protectedCapacity;
+    }
+
+    /**
+     * Counts a hit or a miss and promotes the entry on a hit unless the cache is locked.
+     *
+     * @return the value or {@code null} if the key is not cached
+     */
+    public V get(K key) {
+        return get(key, value -> true);
+    }
+
+    /**
+     * Like {@link #get(Object)}, but a value rejected by {@code valid} is removed and counted as a miss. The
+     * predicate is called without holding the lock of the cache.
+     *
+     * @return the valid value or {@code null}
+     */
+    public V get(K key, Predicate<? super V> valid) {
+        final V value = values.get(key);
+        if (value != null && valid.test(value)) {
+            hits.increment();
+            if (lock.tryLock()) {
+                try {
+                    recordAccess(key, value);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return value;
+        }
+
+        if (value != null) {
+            remove(key, value);
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Adds or replaces the value of the key, new keys start in probation.
+     */
+    public void put(K key, V value) {
+        lock.lock();
+        try {
+            values.put(key, value);
+            if (protectedSegment.containsKey(key)) {
+                protectedSegment.put(key, value);
+                return;
+            }
+
+            probation.put(key, value);
+            evictFromProbation();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the value of the key without counting an eviction.
+     */
+    public void remove(K key) {
+        lock.lock();
+        try {
+            values.remove(key);
+            if (protectedSegment.remove(key) == null) {
+                probation.remove(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all values without counting evictions.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            values.clear();
+            probation.clear();
+            protectedSegment.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of values dropped to stay within the capacity
+     */
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Moves the entry to the end of the protected segment if it still maps to {@code value}.
+     */
+    private void recordAccess(K key, V value) {
+        if (protectedSegment.get(key) == value) {
+            return;
+        }
+
+        if (probation.get(key) == value) {
+            probation.remove(key);
+            promote(key, value);
+        }
+    }
+
+    /**
+     * Removes the key only while it still maps to {@code value}, a value put concurrently is kept.
+     */
+    private void remove(K key, V value) {
+        lock.lock();
+        try {
+            if (values.remove(key, value)) {
+                if (protectedSegment.remove(key) == null) {
+                    probation.remove(key);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void promote(K key, V value) {
+        protectedSegment.put(key, value);
+        if (protectedSegment.size() > protectedCapacity) {
+            final Iterator<Map.Entry<K, V>> eldest = protectedSegment.entrySet().iterator();
+            final Map.Entry<K, V> demoted = eldest.next();
+            eldest.remove();
+            probation.put(demoted.getKey(), demoted.getValue());
+            evictFromProbation();
+        }
+    }
+
+    private void evictFromProbation() {
+        final Iterator<Map.Entry<K, V>> eldest = probation.entrySet().iterator();
+        while (probation.size() > probationCapacity) {
+            values.remove(eldest.next().getKey());
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+}
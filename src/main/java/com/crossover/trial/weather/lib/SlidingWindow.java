@@ -0,0 +1,83 @@
+package com.crossover.trial.weather.lib;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * A ring of buckets covering the last {@code windowMillis}, each bucket collects what happened during
+ * {@code windowMillis / bucketCount}. A slot is replaced by a fresh bucket the first time it is needed for a new
+ * period, so expired buckets are dropped without a background thread and the ring never grows.
+ * <p>
+ * Writers only look up the current bucket, readers visit the buckets of the window, never more than
+ * {@code bucketCount}. A window therefore covers between {@code windowMillis - windowMillis / bucketCount} and
+ * {@code windowMillis}. Updates racing with the replacement of their bucket may be lost.
+ *
+ * @param <B> the bucket type, must be safe for concurrent updates
+ */
+public class SlidingWindow<B> {
+    private final long bucketMillis;
+
+    private final Supplier<B> bucketFactory;
+
+    private final AtomicReferenceArray<Bucket<B>> buckets;
+
+    private static class Bucket<B> {
+        private final long period;
+        private final B value;
+
+        private Bucket(long period, B value) {
+            this.period = period;
+            this.value = value;
+        }
+    }
+
+    public SlidingWindow(long windowMillis, int bucketCount, Supplier<B> bucketFactory) {
+        if (bucketCount < 1 || windowMillis < bucketCount) {
+            throw new IllegalArgumentException("a window of " + windowMillis + " ms can not have " + bucketCount + " buckets");
+        }
+        this.bucketMillis = windowMillis / bucketCount;
+        this.bucketFactory = bucketFactory;
+        this.buckets = new AtomicReferenceArray<>(bucketCount);
+    }
+
+    /**
+     * @param now the current time in milliseconds
+     * @return the bucket collecting at the given time
+     */
+    public B current(long now) {
+        final long period = Math.floorDiv(now, bucketMillis);
+        final int slot = slotOf(period);
+
+        Bucket<B> bucket = buckets.get(slot);
+        while (bucket == null || bucket.period < period) {
+            final Bucket<B> fresh = new Bucket<>(period, bucketFactory.get());
+            if (buckets.compareAndSet(slot, bucket, fresh)) {
+                return fresh.value;
+            }
+            bucket = buckets.get(slot);
+        }
+        // a bucket of a later period means the clock went back, count it there rather than in an expired one
+        return bucket.value;
+    }
+
+    /**
+     * Combines the buckets of the window ending at the given time, oldest first.
+     */
+    public <R> R fold(long now, R zero, BiFunction<? super R, ? super B, ? extends R> combine) {
+        final long period = Math.floorDiv(now, bucketMillis);
+
+        R result = zero;
+        for (long visited = period - buckets.length() + 1; visited <= period; visited++) {
+            final Bucket<B> bucket = buckets.get(slotOf(visited));
+            if (bucket != null && bucket.period == visited) {
+                result = combine.apply(result, bucket.value);
+            }
+        }
+        return result;
+    }
+
+    private int slotOf(long period) {
+        return (int) Math.floorMod(period, (long) buckets.length());
+    }
+}
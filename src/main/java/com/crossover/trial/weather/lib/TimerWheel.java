@@ -0,0 +1,125 @@
+package com.crossover.trial.weather.lib;
+
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timer wheel: a ring of {@code slotCount} slots, each collecting the items due in one tick of
+ * {@code tickMillis}. Scheduling appends to the slot of the deadline and advancing visits only the slots of the ticks
+ * which passed, so both are constant time per item. Items due more than one revolution ahead stay in their slot and
+ * are passed over until their revolution comes.
+ * <p>
+ * Items are passed to the consumer of {@link #advance} without holding the lock of the wheel, so the consumer may
+ * schedule them again.
+ *
+ * @param <T> the item type
+ */
+public class TimerWheel<T> {
+    private final long tickMillis;
+
+    private final ArrayList<ArrayList<Entry<T>>> slots;
+
+    /**
+     * items scheduled for a tick which was already visited
+     */
+    private final ArrayList<T> overdue = new ArrayList<>();
+
+    /**
+     * the last tick whose slot was visited, items due up to it were passed on
+     */
+    private long currentTick;
+
+    private int size;
+
+    private static class Entry<T> {
+        private final T item;
+        private final long tick;
+
+        private Entry(T item, long tick) {
+            this.item = item;
+            this.tick = tick;
+        }
+    }
+
+    /**
+     * @param now the current time in milliseconds, items due before it are passed on by the first {@link #advance}
+     */
+    public TimerWheel(long tickMillis, int slotCount, long now) {
+        if (tickMillis < 1 || slotCount < 1) {
+            throw new IllegalArgumentException("a wheel needs a tick and a slot count of at least 1, not "
+                    + tickMillis + " and " + slotCount);
+        }
+        this.tickMillis = tickMillis;
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new ArrayList<>());
+        }
+        this.currentTick = tickOf(now) - 1;
+    }
+
+    /**
+     * @param deadline the time in milliseconds the item is due at, rounded down to its tick; an item which is
+     *                 already due is passed on by the next {@link #advance}
+     */
+    public synchronized void schedule(T item, long deadline) {
+        final long tick = tickOf(deadline);
+        if (tick <= currentTick) {
+            overdue.add(item);
+        } else {
+            slots.get(slotOf(tick)).add(new Entry<>(item, tick));
+        }
+        size++;
+    }
+
+    /**
+     * Removes the items due up to the tick of {@code now} and passes them to {@code expired}, visiting each slot
+     * at most once.
+     *
+     * @return the number of items passed on
+     */
+    public int advance(long now, Consumer<? super T> expired) {
+        final ArrayList<T> due = new ArrayList<>();
+        synchronized (this) {
+            due.addAll(overdue);
+            overdue.clear();
+            final long lastTick = tickOf(now);
+            final long ticks = Math.min(lastTick - currentTick, slots.size());
+            for (long tick = lastTick - ticks + 1; tick <= lastTick; tick++) {
+                collect(slots.get(slotOf(tick)), lastTick, due);
+            }
+            currentTick = Math.max(currentTick, lastTick);
+            size -= due.size();
+        }
+
+        due.forEach(expired);
+        return due.size();
+    }
+
+    /**
+     * @return the number of scheduled items
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private static <T> void collect(ArrayList<Entry<T>> slot, long lastTick, ArrayList<T> due) {
+        int kept = 0;
+        for (int i = 0; i < slot.size(); i++) {
+            final Entry<T> entry = slot.get(i);
+            if (entry.tick <= lastTick) {
+                due.add(entry.item);
+            } else {
+                slot.set(kept++, entry);
+            }
+        }
+        slot.subList(kept, slot.size()).clear();
+    }
+
+    private long tickOf(long time) {
+        return Math.floorDiv(time, tickMillis);
+    }
+
+    private int slotOf(long tick) {
+        return (int) Math.floorMod(tick, (long) slots.size());
+    }
+}
@@ -0,0 +1,253 @@
+package com.crossover.trial.weather.persistence;
+
+import com.crossover.trial.weather.domain.Airport;
+import com.crossover.trial.weather.domain.measurement.DataPointType;
+import com.crossover.trial.weather.repositories.AirportListener;
+import com.crossover.trial.weather.repositories.AirportRepository;
+import com.crossover.trial.weather.repositories.WeatherDataRepository;
+import com.crossover.trial.weather.repositories.WeatherListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Makes {@link AirportRepository} and {@link WeatherDataRepository} durable in {@code weather.persistence.directory},
+ * disabled if the property is empty.
+ * <p>
+ * On startup the latest intact snapshot is loaded and the log segments it does not cover are replayed, then every
+ * modification is appended to the {@link WriteAheadLog}. The log is forced to disk every
+ * {@code weather.persistence.sync-interval} milliseconds by the persistence thread, which also creates its next
+ * segment ahead of time, and compacted into a new snapshot every
+ * {@code weather.persistence.snapshot-interval} milliseconds. Weather data carries the sequence it was accepted
+ * with, so data points contained in both a snapshot and the log are applied once.
+ */
+@Component
+class PersistenceManager {
+    private static final Logger log = LoggerFactory.getLogger(PersistenceManager.class);
+
+    private static final long STOP_TIMEOUT_SECONDS = 10;
+
+    @Value("${weather.persistence.directory:}")
+    private String directory;
+
+    @Value("${weather.persistence.segment-size:67108864}")
+    private int segmentSize;
+
+    @Value("${weather.persistence.sync-interval:10}")
+    private long syncInterval;
+
+    @Value("${weather.persistence.snapshot-interval:300000}")
+    private long snapshotInterval;
+
+    @Inject
+    private AirportRepository airportRepository;
+
+    @Inject
+    private WeatherDataRepository weatherDataRepository;
+
+    private Path path;
+
+    private SnapshotStore snapshotStore;
+
+    private WriteAheadLog writeAheadLog;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    void start() throws IOException {
+        if (directory.trim().isEmpty()) {
+            return;
+        }
+
+        path = Paths.get(directory.trim());
+        Files.createDirectories(path);
+        snapshotStore = new SnapshotStore(path);
+
+        final long startTime = System.nanoTime();
+        final long nextSegment = recover();
+        log.info("recovered {} airports and {} stations from {} in {} ms", airportRepository.getAirportCount(),
+                weatherDataRepository.getWeatherData().size(), path, (System.nanoTime() - startTime) / 1000000);
+
+        writeAheadLog = new WriteAheadLog(path, segmentSize, nextSegment);
+        airportRepository.addListener(writeAheadLog);
+        weatherDataRepository.addListener(writeAheadLog);
+        snapshot(nextSegment);
+
+        scheduler = Executors.newScheduledThreadPool(2, runnable -> {
+            final Thread thread = new Thread(runnable, "weather-persistence");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::sync, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::snapshot, snapshotInterval, snapshotInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() throws IOException {
+        if (writeAheadLog == null) {
+            return;
+        }
+
+        // a running snapshot or sync may finish, it could otherwise switch segments after the log is closed
+        scheduler.shutdown();
+        airportRepository.removeListener(writeAheadLog);
+        weatherDataRepository.removeListener(writeAheadLog);
+        try {
+            if (!scheduler.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("persistence tasks did not stop within {} s", STOP_TIMEOUT_SECONDS);
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            scheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        writeAheadLog.close();
+    }
+
+    /**
+     * Loads the latest intact snapshot and replays the log segments after it. The hard coded airports are only
+     * kept, and the airports of {@code weather.airports.file} only loaded afterwards, if there is no persisted state
+     * at all. A snapshot which fails half way is dropped with everything it applied before the next one is tried.
+     *
+     * @return the number of the first log segment to write
+     */
+    long recover() throws IOException {
+        final List<Path> snapshots = list(SnapshotStore::segmentNumberOf);
+        final List<Path> segments = list(WriteAheadLog::segmentNumberOf);
+
+        long firstSegment = -1;
+        for (int i = snapshots.size() - 1; i >= 0 && firstSegment < 0; i--) {
+            final Path snapshot = snapshots.get(i);
+            if (snapshotStore.read(snapshot, airportRepository, weatherDataRepository)) {
+                firstSegment = SnapshotStore.segmentNumberOf(snapshot);
+            } else {
+                log.warn("ignoring incomplete snapshot {}", snapshot);
+                weatherDataRepository.removeAllStations();
+            }
+        }
+        if (firstSegment < 0 && !segments.isEmpty()) {
+            airportRepository.replaceAirports(Collections.emptyList());
+        }
+
+        final Replayer replayer = new Replayer();
+        long nextSegment = Math.max(firstSegment, 0);
+        for (Path segment : segments) {
+            final long segmentNumber = WriteAheadLog.segmentNumberOf(segment);
+            if (segmentNumber >= firstSegment) {
+                final int records = WriteAheadLog.replay(segment, replayer, replayer);
+                log.debug("replayed {} records of {}", records, segment);
+            }
+            nextSegment = Math.max(nextSegment, segmentNumber + 1);
+        }
+        replayer.addPendingAirports();
+        return nextSegment;
+    }
+
+    private void sync() {
+        try {
+            writeAheadLog.prepareSegment();
+            writeAheadLog.force();
+        } catch (IOException | RuntimeException e) {
+            log.error("syncing the log failed", e);
+        }
+    }
+
+    private void snapshot() {
+        try {
+            snapshot(writeAheadLog.rollOver());
+        } catch (IOException | RuntimeException e) {
+            log.error("snapshot failed", e);
+        }
+    }
+
+    /**
+     * Writes a snapshot covering everything before {@code segmentNumber} and deletes the files it makes obsolete once
+     * the snapshot is durable.
+     */
+    private void snapshot(long segmentNumber) throws IOException {
+        snapshotStore.write(segmentNumber, airportRepository, weatherDataRepository);
+
+        for (Path snapshot : list(SnapshotStore::segmentNumberOf)) {
+            if (SnapshotStore.segmentNumberOf(snapshot) < segmentNumber) {
+                Files.delete(snapshot);
+            }
+        }
+        for (Path segment : list(WriteAheadLog::segmentNumberOf)) {
+            if (WriteAheadLog.segmentNumberOf(segment) < segmentNumber) {
+                Files.delete(segment);
+            }
+        }
+    }
+
+    /**
+     * @return the files with a segment number, ordered by it
+     */
+    private List<Path> list(ToLongFunction<Path> segmentNumberOf) throws IOException {
+        try (Stream<Path> files = Files.list(path)) {
+            return files
+                    .filter(file -> segmentNumberOf.applyAsLong(file) >= 0)
+                    .sorted(Comparator.comparingLong(segmentNumberOf))
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Applies replayed log records to the repositories. Added airports are collected and added with a single index
+     * rebuild before the next airport is removed or once all segments are replayed, see
+     * {@link AirportRepository#addAirports}.
+     */
+    private class Replayer implements AirportListener, WeatherListener {
+        private final List<Airport> pendingAirports = new ArrayList<>();
+
+        @Override
+        public void airportAdded(Airport airport) {
+            pendingAirports.add(airport);
+        }
+
+        @Override
+        public void airportRemoved(String iataCode) {
+            addPendingAirports();
+            airportRepository.removeAirport(iataCode);
+        }
+
+        void addPendingAirports() {
+            if (!pendingAirports.isEmpty()) {
+                airportRepository.addAirports(pendingAirports);
+                pendingAirports.clear();
+            }
+        }
+
+        @Override
+        public void weatherUpdated(String stationId, DataPointType dataType, long sequence, long timestamp,
+                                   double mean, int first, int median, int last, int count) {
+            weatherDataRepository.apply(stationId, dataType, sequence, timestamp, mean, first, median, last, count);
+        }
+
+        @Override
+        public void stationRemoved(String stationId) {
+            weatherDataRepository.removeStation(stationId);
+        }
+    }
+}
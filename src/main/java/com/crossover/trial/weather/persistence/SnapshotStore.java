@@ -0,0 +1,245 @@
+package com.crossover.trial.weather.persistence;
+
+import com.crossover.trial.weather.domain.Airport;
+import com.crossover.trial.weather.domain.ImmutableAirport;
+import com.crossover.trial.weather.domain.measurement.DataPointType;
+import com.crossover.trial.weather.repositories.AirportRepository;
+import com.crossover.trial.weather.repositories.Resolution;
+import com.crossover.trial.weather.repositories.WeatherDataRepository;
+import com.crossover.trial.weather.repositories.WeatherListener;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compact snapshots of both repositories. A snapshot is named after the first log segment which is not covered by
+ * it and holds all airports, the raw history and the rollup tiers of all stations, followed by a CRC32 of its
+ * content. Snapshots of version 1 hold no rollup tiers and are still read. Snapshots are
+ * written to a temporary file which is renamed once it is complete, so a visible snapshot is never partial, and the
+ * rename is durable before {@link #write} returns.
+ */
+class SnapshotStore {
+    private static final int MAGIC = 0x57534e50;
+
+    private static final int VERSION = 2;
+
+    private static final byte AIRPORT = 1;
+    private static final byte WEATHER = 2;
+    private static final byte ROLLUP = 3;
+    private static final byte END = 0;
+
+    private static final DataPointType[] DATA_POINT_TYPES = DataPointType.values();
+    private static final Resolution[] RESOLUTIONS = Resolution.values();
+
+    private final Path directory;
+
+    SnapshotStore(Path directory) {
+        this.directory = directory;
+    }
+
+    static Path snapshotPath(Path directory, long segmentNumber) {
+        return directory.resolve(String.format("snapshot-%016d.bin", segmentNumber));
+    }
+
+    /**
+     * @return the segment number the snapshot is named after, or {@code -1}
+     */
+    static long segmentNumberOf(Path path) {
+        final String name = path.getFileName().toString();
+        if (!name.matches("snapshot-\\d{16}\\.bin")) {
+            return -1;
+        }
+        return Long.parseLong(name.substring(9, 25));
+    }
+
+    /**
+     * Writes a snapshot of the current state of both repositories.
+     *
+     * @param segmentNumber the first log segment with modifications which may be missing in the snapshot
+     */
+    void write(long segmentNumber, AirportRepository airportRepository, WeatherDataRepository weatherDataRepository) throws IOException {
+        final Path snapshot = snapshotPath(directory, segmentNumber);
+        final Path temporary = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+
+        final CRC32 checksum = new CRC32();
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new CheckedOutputStream(Files.newOutputStream(temporary), checksum), 1 << 16))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+
+            for (Airport airport : airportRepository.getAirports()) {
+                output.writeByte(AIRPORT);
+                output.writeUTF(airport.iataCode());
+                output.writeDouble(airport.latitude());
+                output.writeDouble(airport.longitude());
+            }
+
+            try {
+                weatherDataRepository.export(new WeatherListener() {
+                    @Override
+                    public void weatherUpdated(String stationId, DataPointType dataType, long sequence, long timestamp,
+                                               double mean, int first, int median, int last, int count) {
+                        try {
+                            output.writeByte(WEATHER);
+                            output.writeUTF(stationId);
+                            output.writeByte(dataType.ordinal());
+                            output.writeLong(sequence);
+                            output.writeLong(timestamp);
+                            output.writeDouble(mean);
+                            output.writeInt(first);
+                            output.writeInt(median);
+                            output.writeInt(last);
+                            output.writeInt(count);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+
+                    @Override
+                    public void stationRemoved(String stationId) {
+                    }
+                });
+                weatherDataRepository.exportRollups((stationId, dataType, resolution, rolledUpTo, timestamp,
+                                                     mean, first, median, last, count) -> {
+                    try {
+                        output.writeByte(ROLLUP);
+                        output.writeUTF(stationId);
+                        output.writeByte(dataType.ordinal());
+                        output.writeByte(resolution.ordinal());
+                        output.writeLong(rolledUpTo);
+                        output.writeLong(timestamp);
+                        output.writeDouble(mean);
+                        output.writeInt(first);
+                        output.writeInt(median);
+                        output.writeInt(last);
+                        output.writeInt(count);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            output.writeByte(END);
+            output.flush();
+            output.writeLong(checksum.getValue());
+        }
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary, snapshot, StandardCopyOption.ATOMIC_MOVE);
+        WriteAheadLog.forceDirectory(directory);
+    }
+
+    /**
+     * Replaces the airports with those of a snapshot and applies its weather data. The snapshot is read twice,
+     * once to verify it and once to apply it, so it never has to fit into memory.
+     *
+     * @return {@code false} if the snapshot is incomplete or corrupt; the airports are not modified then, but weather
+     * data read before a malformed record has been applied
+     */
+    boolean read(Path snapshot, AirportRepository airportRepository, WeatherDataRepository weatherDataRepository) throws IOException {
+        if (!isIntact(snapshot)) {
+            return false;
+        }
+
+        final ArrayList<Airport> airports = new ArrayList<>();
+        if (!scan(snapshot, airports, weatherDataRepository)) {
+            return false;
+        }
+        airportRepository.replaceAirports(airports);
+        return true;
+    }
+
+    /**
+     * @return {@code true} if the snapshot ends with the end marker and the checksum of its content
+     */
+    private static boolean isIntact(Path snapshot) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < 17 || size > Integer.MAX_VALUE) {
+                return false;
+            }
+
+            final MappedByteBuffer content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            final long expectedChecksum = content.getLong((int) size - 8);
+            if (content.get((int) size - 9) != END) {
+                return false;
+            }
+
+            content.limit((int) size - 8);
+            final CRC32 checksum = new CRC32();
+            checksum.update(content);
+            return checksum.getValue() == expectedChecksum;
+        }
+    }
+
+    /**
+     * @param airports receives the airports
+     * @return {@code false} if the snapshot could not be parsed
+     */
+    private static boolean scan(Path snapshot, Collection<Airport> airports, WeatherDataRepository weatherDataRepository) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot), 1 << 16))) {
+            if (input.readInt() != MAGIC) {
+                return false;
+            }
+            final int version = input.readInt();
+            if (version < 1 || version > VERSION) {
+                return false;
+            }
+
+            byte type;
+            while ((type = input.readByte()) != END) {
+                if (type == AIRPORT) {
+                    airports.add(ImmutableAirport.builder()
+                            .iataCode(input.readUTF())
+                            .latitude(input.readDouble())
+                            .longitude(input.readDouble())
+                            .build());
+                } else if (type == WEATHER) {
+                    final String stationId = input.readUTF();
+                    final int ordinal = input.readByte();
+                    if (ordinal < 0 || ordinal >= DATA_POINT_TYPES.length) {
+                        return false;
+                    }
+                    final DataPointType dataType = DATA_POINT_TYPES[ordinal];
+                    weatherDataRepository.apply(stationId, dataType, input.readLong(), input.readLong(),
+                            input.readDouble(), input.readInt(), input.readInt(), input.readInt(), input.readInt());
+                } else if (type == ROLLUP && version >= 2) {
+                    final String stationId = input.readUTF();
+                    final int ordinal = input.readByte();
+                    final int resolution = input.readByte();
+                    if (ordinal < 0 || ordinal >= DATA_POINT_TYPES.length
+                            || resolution <= Resolution.RAW.ordinal() || resolution >= RESOLUTIONS.length) {
+                        return false;
+                    }
+                    weatherDataRepository.restoreRollup(stationId, DATA_POINT_TYPES[ordinal], RESOLUTIONS[resolution],
+                            input.readLong(), input.readLong(), input.readDouble(),
+                            input.readInt(), input.readInt(), input.readInt(), input.readInt());
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+}
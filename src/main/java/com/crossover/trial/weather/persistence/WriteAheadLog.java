@@ -0,0 +1,510 @@
+package com.crossover.trial.weather.persistence;
+
+import com.crossover.trial.weather.domain.Airport;
+import com.crossover.trial.weather.domain.ImmutableAirport;
+import com.crossover.trial.weather.domain.measurement.DataPointType;
+import com.crossover.trial.weather.repositories.AirportListener;
+import com.crossover.trial.weather.repositories.WeatherListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log of repository modifications in memory mapped segment files of a fixed size.
+ * <p>
+ * A record is its payload length, the CRC32 of the payload and the payload, a type byte followed by the fields of
+ * the modification. Segments are created zero filled, so a zero length marks the end of a segment and a record
+ * whose checksum does not match marks a torn write. {@link #force()} makes everything appended so far durable at
+ * once and is meant to be called periodically (group commit).
+ * <p>
+ * Appending takes no lock: a record is encoded into a buffer of the appending thread, its space in the current
+ * segment is reserved by a CAS on the write position and it is copied there, its length last. Records appended
+ * concurrently may therefore end up in either order. Only switching to the next segment takes the lock of the log;
+ * the switch seals the full segment, so no more space can be reserved in it, and the full segment is forced once the
+ * appends which reserved space before are written.
+ * <p>
+ * The segment after the current one is created ahead by {@link #prepareSegment()}, called next to {@link #force()},
+ * so filling a segment only switches to the prepared one. Full segments are forced by the next {@link #force()}
+ * without holding the lock, so appending never waits for the disk.
+ * <p>
+ * A record which can not be appended, e.g. because no new segment can be created, is dropped and counted instead of
+ * failing the modification, which is already applied in memory; the next snapshot is written from memory and
+ * covers it again.
+ */
+class WriteAheadLog implements AirportListener, WeatherListener {
+    private static final Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final byte AIRPORT_ADDED = 1;
+    private static final byte AIRPORT_REMOVED = 2;
+    private static final byte WEATHER_UPDATED = 3;
+    private static final byte STATION_REMOVED = 4;
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final int MAX_PAYLOAD_SIZE = 1024;
+
+    private static final DataPointType[] DATA_POINT_TYPES = DataPointType.values();
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    /**
+     * the record being encoded by each appending thread
+     */
+    private final ThreadLocal<Encoder> encoders = ThreadLocal.withInitial(Encoder::new);
+
+    private volatile Segment segment;
+
+    /**
+     * the segment after the current one if it was prepared already, {@code null} otherwise
+     */
+    private MappedByteBuffer spare;
+
+    /**
+     * set while {@link #prepareSegment()} creates the segment after the current one
+     */
+    private boolean preparing;
+
+    private boolean closed;
+
+    /**
+     * full segments which were not forced yet, oldest first
+     */
+    private final Queue<Segment> unforced = new ConcurrentLinkedQueue<>();
+
+    /**
+     * set when a segment was created since the directory was forced the last time
+     */
+    private volatile boolean directoryChanged;
+
+    private final LongAdder failedAppends = new LongAdder();
+
+    /**
+     * set while appends fail, so a failure is logged once until an append succeeds again
+     */
+    private final AtomicBoolean failing = new AtomicBoolean();
+
+    /**
+     * A mapped segment file and the space reserved in it.
+     */
+    private static final class Segment {
+        private final long number;
+        private final MappedByteBuffer buffer;
+
+        /**
+         * bytes reserved by appends, set to the capacity when the segment is sealed
+         */
+        private final AtomicInteger reserved = new AtomicInteger();
+
+        /**
+         * bytes appends finished writing
+         */
+        private final LongAdder written = new LongAdder();
+
+        /**
+         * bytes reserved before the segment was sealed, published with the segment in {@link #unforced}
+         */
+        private int end;
+
+        Segment(long number, MappedByteBuffer buffer) {
+            this.number = number;
+            this.buffer = buffer;
+        }
+
+        /**
+         * @return the offset of {@code size} reserved bytes, or {@code -1} if they do not fit
+         */
+        int reserve(int size) {
+            while (true) {
+                final int position = reserved.get();
+                if (position + size > buffer.capacity()) {
+                    return -1;
+                }
+                if (reserved.compareAndSet(position, position + size)) {
+                    return position;
+                }
+            }
+        }
+
+        void seal() {
+            end = reserved.getAndSet(buffer.capacity());
+        }
+
+        /**
+         * Forces the segment once every append which reserved space before it was sealed is written.
+         */
+        void forceSealed() {
+            while (written.sum() < end) {
+                Thread.yield();
+            }
+            buffer.force();
+        }
+    }
+
+    /**
+     * The payload of one record with its checksum, reused by the thread appending it.
+     */
+    private static final class Encoder {
+        private final ByteBuffer payload = ByteBuffer.allocate(MAX_PAYLOAD_SIZE);
+        private final CRC32 checksum = new CRC32();
+
+        ByteBuffer start(byte type) {
+            payload.clear();
+            payload.put(type);
+            return payload;
+        }
+
+        void putString(String value) {
+            payload.putShort((short) value.length());
+            for (int i = 0; i < value.length(); i++) {
+                payload.putChar(value.charAt(i));
+            }
+        }
+
+        /**
+         * Copies the record to {@code offset}, the length last, so a record is never seen with a length before its
+         * payload.
+         */
+        void writeTo(ByteBuffer target, int offset) {
+            final int length = payload.position();
+            checksum.reset();
+            checksum.update(payload.array(), 0, length);
+
+            final int start = offset + HEADER_SIZE;
+            int i = 0;
+            for (; i + 8 <= length; i += 8) {
+                target.putLong(start + i, payload.getLong(i));
+            }
+            for (; i < length; i++) {
+                target.put(start + i, payload.get(i));
+            }
+            target.putInt(offset + 4, (int) checksum.getValue());
+            target.putInt(offset, length);
+        }
+    }
+
+    /**
+     * @param segmentNumber the number of the first segment to write, must not exist yet
+     */
+    WriteAheadLog(Path directory, int segmentSize, long segmentNumber) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.segment = new Segment(segmentNumber, createSegment(segmentNumber));
+    }
+
+    static Path segmentPath(Path directory, long segmentNumber) {
+        return directory.resolve(String.format("wal-%016d.log", segmentNumber));
+    }
+
+    /**
+     * @return the number of the segment named like a log segment, or {@code -1}
+     */
+    static long segmentNumberOf(Path path) {
+        final String name = path.getFileName().toString();
+        if (!name.matches("wal-\\d{16}\\.log")) {
+            return -1;
+        }
+        return Long.parseLong(name.substring(4, 20));
+    }
+
+    @Override
+    public void airportAdded(Airport airport) {
+        final Encoder encoder = encoders.get();
+        encoder.start(AIRPORT_ADDED);
+        encoder.putString(airport.iataCode());
+        encoder.payload.putDouble(airport.latitude());
+        encoder.payload.putDouble(airport.longitude());
+        append(encoder);
+    }
+
+    @Override
+    public void airportRemoved(String iataCode) {
+        final Encoder encoder = encoders.get();
+        encoder.start(AIRPORT_REMOVED);
+        encoder.putString(iataCode);
+        append(encoder);
+    }
+
+    @Override
+    public void weatherUpdated(String stationId, DataPointType dataType, long sequence, long timestamp,
+                               double mean, int first, int median, int last, int count) {
+        final Encoder encoder = encoders.get();
+        final ByteBuffer payload = encoder.start(WEATHER_UPDATED);
+        encoder.putString(stationId);
+        payload.put((byte) dataType.ordinal());
+        payload.putLong(sequence);
+        payload.putLong(timestamp);
+        payload.putDouble(mean);
+        payload.putInt(first);
+        payload.putInt(median);
+        payload.putInt(last);
+        payload.putInt(count);
+        append(encoder);
+    }
+
+    @Override
+    public void stationRemoved(String stationId) {
+        final Encoder encoder = encoders.get();
+        encoder.start(STATION_REMOVED);
+        encoder.putString(stationId);
+        append(encoder);
+    }
+
+    /**
+     * Continues in a new segment, everything appended afterwards is in that segment or later ones. The full segment
+     * is forced once the log is unlocked again.
+     *
+     * @return the number of the new segment
+     */
+    long rollOver() throws IOException {
+        final long number;
+        synchronized (this) {
+            switchSegment();
+            number = segment.number;
+        }
+        forceFullSegments();
+        return number;
+    }
+
+    /**
+     * Creates the segment after the current one unless it exists, without holding the lock of the log.
+     */
+    void prepareSegment() throws IOException {
+        final long number;
+        synchronized (this) {
+            if (spare != null || preparing || closed) {
+                return;
+            }
+            preparing = true;
+            number = segment.number + 1;
+        }
+
+        MappedByteBuffer created = null;
+        try {
+            created = createSegment(number);
+        } finally {
+            synchronized (this) {
+                spare = created;
+                preparing = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writes everything appended so far to disk, the full segments first.
+     */
+    void force() throws IOException {
+        forceFullSegments();
+        segment.buffer.force();
+        if (directoryChanged) {
+            directoryChanged = false;
+            forceDirectory(directory);
+        }
+    }
+
+    /**
+     * Forces everything appended and deletes the prepared segment, which holds nothing.
+     */
+    synchronized void close() throws IOException {
+        awaitPrepared();
+        closed = true;
+        forceFullSegments();
+        segment.buffer.force();
+        if (spare != null) {
+            spare = null;
+            Files.delete(segmentPath(directory, segment.number + 1));
+        }
+    }
+
+    /**
+     * @return the number of records dropped because they could not be appended
+     */
+    long failedAppendCount() {
+        return failedAppends.sum();
+    }
+
+    /**
+     * Makes the files created in or renamed into {@code directory} so far durable.
+     */
+    static void forceDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Reads the intact records of one segment, stopping at its end or at the first torn record.
+     *
+     * @return the number of records read
+     */
+    static int replay(Path segmentPath, AirportListener airportListener, WeatherListener weatherListener) throws IOException {
+        final MappedByteBuffer segment;
+        try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.READ)) {
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        final byte[] bytes = new byte[MAX_PAYLOAD_SIZE];
+        final ByteBuffer record = ByteBuffer.wrap(bytes);
+        final CRC32 checksum = new CRC32();
+
+        int records = 0;
+        while (segment.remaining() >= HEADER_SIZE) {
+            final int length = segment.getInt();
+            final int expectedChecksum = segment.getInt();
+            if (length <= 0 || length > MAX_PAYLOAD_SIZE || length > segment.remaining()) {
+                break;
+            }
+
+            segment.get(bytes, 0, length);
+            checksum.reset();
+            checksum.update(bytes, 0, length);
+            if ((int) checksum.getValue() != expectedChecksum) {
+                break;
+            }
+
+            record.clear();
+            record.limit(length);
+            dispatch(record, airportListener, weatherListener);
+            records++;
+        }
+        return records;
+    }
+
+    private static void dispatch(ByteBuffer record, AirportListener airportListener, WeatherListener weatherListener) {
+        final byte type = record.get();
+        final String id = getString(record);
+        switch (type) {
+            case AIRPORT_ADDED:
+                airportListener.airportAdded(ImmutableAirport.builder()
+                        .iataCode(id)
+                        .latitude(record.getDouble())
+                        .longitude(record.getDouble())
+                        .build());
+                break;
+            case AIRPORT_REMOVED:
+                airportListener.airportRemoved(id);
+                break;
+            case WEATHER_UPDATED:
+                weatherListener.weatherUpdated(id, DATA_POINT_TYPES[record.get()], record.getLong(), record.getLong(),
+                        record.getDouble(), record.getInt(), record.getInt(), record.getInt(), record.getInt());
+                break;
+            case STATION_REMOVED:
+                weatherListener.stationRemoved(id);
+                break;
+            default:
+                throw new IllegalStateException("unknown record type " + type);
+        }
+    }
+
+    private void append(Encoder encoder) {
+        final int size = HEADER_SIZE + encoder.payload.position();
+        if (size > segmentSize) {
+            drop(new IllegalArgumentException("a record of " + size + " bytes does not fit into a segment"));
+            return;
+        }
+
+        Segment target = segment;
+        int offset;
+        while ((offset = target.reserve(size)) < 0) {
+            try {
+                synchronized (this) {
+                    if (segment == target) {
+                        switchSegment();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                drop(e);
+                return;
+            }
+            target = segment;
+        }
+
+        encoder.writeTo(target.buffer, offset);
+        target.written.add(size);
+        if (failing.get() && failing.compareAndSet(true, false)) {
+            log.info("appending log records again after dropping {} in total", failedAppends.sum());
+        }
+    }
+
+    private void drop(Exception cause) {
+        failedAppends.increment();
+        if (failing.compareAndSet(false, true)) {
+            log.error("dropping log records until they can be appended again", cause);
+        }
+    }
+
+    private static String getString(ByteBuffer record) {
+        final char[] characters = new char[record.getShort()];
+        for (int i = 0; i < characters.length; i++) {
+            characters[i] = record.getChar();
+        }
+        return new String(characters);
+    }
+
+    /**
+     * Seals the current segment and continues in the prepared segment, or in a new one if none was prepared. Only
+     * called with the log locked.
+     */
+    private void switchSegment() throws IOException {
+        awaitPrepared();
+        final Segment full = segment;
+        final MappedByteBuffer next = spare != null ? spare : createSegment(full.number + 1);
+        spare = null;
+        full.seal();
+        unforced.add(full);
+        segment = new Segment(full.number + 1, next);
+    }
+
+    /**
+     * Waits for a segment being prepared, so it is not created twice. Only called with the log locked.
+     */
+    private void awaitPrepared() {
+        boolean interrupted = false;
+        while (preparing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void forceFullSegments() {
+        Segment full;
+        while ((full = unforced.poll()) != null) {
+            full.forceSealed();
+        }
+    }
+
+    private MappedByteBuffer createSegment(long number) throws IOException {
+        final Path path = Files.createFile(segmentPath(directory, number));
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(segmentSize);
+            final MappedByteBuffer created = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            directoryChanged = true;
+            return created;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+}
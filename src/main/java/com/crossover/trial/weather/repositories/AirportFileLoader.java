@@ -0,0 +1,220 @@
+package com.crossover.trial.weather.repositories;
+
+import com.crossover.trial.weather.domain.Airport;
+import com.crossover.trial.weather.domain.ImmutableAirport;
+import com.crossover.trial.weather.lib.CsvSplitter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Loads the airports of {@code weather.airports.file}, a file in the format of {@code airports.dat}, into the
+ * {@link AirportRepository} at startup. Disabled if the property is empty.
+ * <p>
+ * The file only provides the initial airports: it is loaded once every singleton is initialized, so after the
+ * persisted state was recovered, and skipped if the airports were {@link AirportRepository#replaceAirports replaced}
+ * by recovered ones. Its airports are therefore persisted once, by the first start.
+ * <p>
+ * The file is memory mapped and cut into chunks at line boundaries, the chunks are parsed in parallel on the common
+ * fork join pool and all airports are added with a single index rebuild. Only the IATA code and the coordinates are
+ * read, they are ASCII, so bytes are read as characters without decoding: bytes of multi byte UTF-8 characters in
+ * other columns are never mistaken for quotes or commas.
+ */
+@Component
+class AirportFileLoader implements SmartInitializingSingleton {
+    private static final Logger log = LoggerFactory.getLogger(AirportFileLoader.class);
+
+    private static final int IATA_CODE_COLUMN = 4;
+    private static final int LATITUDE_COLUMN = 6;
+    private static final int LONGITUDE_COLUMN = 7;
+
+    /**
+     * smaller files are parsed by a single task
+     */
+    private static final int MIN_CHUNK_SIZE = 64 * 1024;
+
+    @Value("${weather.airports.file:}")
+    private String file;
+
+    @Inject
+    private AirportRepository airportRepository;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        start();
+    }
+
+    void start() {
+        if (file.isEmpty()) {
+            return;
+        }
+        if (airportRepository.wereReplaced()) {
+            log.info("not loading {}, the airports were recovered", file);
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final List<Airport> airports = load(Paths.get(file));
+        airportRepository.addAirports(airports);
+
+        log.info("loaded {} airports from {} in {} ms", airports.size(), file,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Parses all rows of the file, skipping rows with too few columns, invalid IATA codes or coordinates.
+     */
+    static List<Airport> load(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(path + " is too large to be mapped");
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            final int[] chunkStarts = chunkStarts(buffer,
+                    Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism() * 4, buffer.limit() / MIN_CHUNK_SIZE)));
+
+            return IntStream.range(0, chunkStarts.length - 1)
+                    .parallel()
+                    .mapToObj(chunk -> parse(buffer, chunkStarts[chunk], chunkStarts[chunk + 1]))
+                    .flatMap(List::stream)
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not load airports from " + path, e);
+        }
+    }
+
+    /**
+     * @return {@code chunkCount + 1} offsets, each chunk starts at the beginning of a line and ends where the next
+     * one starts, the last offset is the end of the buffer. Chunks may be empty.
+     */
+    static int[] chunkStarts(ByteBuffer buffer, int chunkCount) {
+        final int[] starts = new int[chunkCount + 1];
+        final int length = buffer.limit();
+        for (int chunk = 1; chunk < chunkCount; chunk++) {
+            int start = Math.max(starts[chunk - 1], (int) ((long) length * chunk / chunkCount));
+            while (start > 0 && start < length && buffer.get(start - 1) != '\n') {
+                start++;
+            }
+            starts[chunk] = start;
+        }
+        starts[chunkCount] = length;
+        return starts;
+    }
+
+    private static List<Airport> parse(ByteBuffer buffer, int from, int to) {
+        // one bulk copy per chunk, reading the mapped buffer byte by byte is far slower until the JIT kicks in
+        final byte[] bytes = new byte[to - from];
+        final ByteBuffer chunk = buffer.duplicate();
+        chunk.position(from);
+        chunk.get(bytes);
+
+        final List<Airport> airports = new ArrayList<>();
+        final CsvSplitter csvSplitter = new CsvSplitter();
+        final ByteSequence line = new ByteSequence(bytes);
+
+        int lineStart = 0;
+        while (lineStart < bytes.length) {
+            int lineEnd = lineStart;
+            while (lineEnd < bytes.length && bytes[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            final int next = lineEnd + 1;
+            if (lineEnd > lineStart && bytes[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+
+            if (lineEnd > lineStart) {
+                line.select(lineStart, lineEnd);
+                final Airport airport = parseLine(csvSplitter, line);
+                if (airport != null) {
+                    airports.add(airport);
+                } else {
+                    log.warn("skipping invalid airport at byte {}: {}", from + lineStart, line);
+                }
+            }
+            lineStart = next;
+        }
+        return airports;
+    }
+
+    private static Airport parseLine(CsvSplitter csvSplitter, CharSequence line) {
+        if (csvSplitter.tokenize(line) <= LONGITUDE_COLUMN) {
+            return null;
+        }
+
+        final String iataCode = csvSplitter.column(IATA_CODE_COLUMN);
+        if (!AirportRepository.isValidIataCode(iataCode)) {
+            return null;
+        }
+
+        try {
+            return ImmutableAirport.builder()
+                    .iataCode(iataCode)
+                    .latitude(Double.parseDouble(csvSplitter.column(LATITUDE_COLUMN)))
+                    .longitude(Double.parseDouble(csvSplitter.column(LONGITUDE_COLUMN)))
+                    .build();
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A window of a byte array read as characters of the same value, i.e. as ISO-8859-1.
+     */
+    private static class ByteSequence implements CharSequence {
+        private final byte[] bytes;
+        private int start;
+        private int end;
+
+        ByteSequence(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        void select(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[start + index] & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            final ByteSequence sequence = new ByteSequence(bytes);
+            sequence.select(start + from, start + to);
+            return sequence;
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,524 @@
+package com.crossover.trial.weather.repositories;
+
+import com.crossover.trial.weather.domain.Airport;
+import com.crossover.trial.weather.domain.ImmutableAirport;
+import com.crossover.trial.weather.domain.gis.BoundingBox;
+import com.crossover.trial.weather.domain.gis.Point;
+import com.crossover.trial.weather.lib.GeoCalculations;
+import javaslang.collection.Array;
+import javaslang.collection.List;
+import javaslang.collection.Seq;
+import javaslang.control.Option;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Immutable, column oriented spatial index over airports. Each airport is a row in four parallel arrays: the
+ * packed IATA code (see {@link IataCodes}), the latitude, the longitude and the cosine of the latitude, computed once
+ * when the airport is added for {@link GeoCalculations#selectWithinRadius}. Rows are ordered by one degree latitude
+ * band and by normalized longitude within a band, so a bounding box lookup is a binary search per band it touches.
+ * An open addressing table maps packed codes to rows.
+ * <p>
+ * Every modification returns a new index, readers of an older index are never disturbed. The columns are not
+ * shared between indexes, so adding, replacing or removing a single airport copies each of them once and rebuilds
+ * the code table, linear in the number of airports; bulk changes go through {@link #withAll} to pay that once per
+ * batch. In exchange each column is one contiguous array, which range scans and
+ * {@link GeoCalculations#selectWithinRadius} read sequentially across bands.
+ */
+class AirportGridIndex {
+    private static final int BAND_COUNT = 180;
+
+    private static final int NO_ROW = -1;
+
+    /**
+     * rows passed to {@link GeoCalculations#selectWithinRadius} at once
+     */
+    private static final int RADIUS_CHUNK = 256;
+
+    static final AirportGridIndex EMPTY = new AirportGridIndex(new int[0], new double[0], new double[0], new double[0]);
+
+    private final int[] iataCodes;
+
+    private final double[] latitudes;
+
+    private final double[] longitudes;
+
+    private final double[] cosLatitudes;
+
+    /**
+     * rows of band {@code b} are {@code [bandStart[b], bandStart[b + 1])}
+     */
+    private final int[] bandStart = new int[BAND_COUNT + 1];
+
+    /**
+     * open addressing table holding {@code row + 1} for each packed code, 0 marks a free slot
+     */
+    private final int[] rowSlots;
+
+    /**
+     * Filter on the position of a row, receives latitude and longitude in degrees.
+     */
+    interface PositionFilter {
+        boolean accept(double latitude, double longitude);
+    }
+
+    /**
+     * Receives the rows {@code [from, to)} found by a scan.
+     */
+    private interface RowRangeAction {
+        void accept(int from, int to);
+    }
+
+    /**
+     * Receives the airports found by {@link #nearest}, nearest first.
+     */
+    interface NeighbourVisitor {
+        /**
+         * @param distance the distance from the center of the search in km
+         * @return {@code false} to end the search
+         */
+        boolean visit(String iataCode, double distance);
+    }
+
+    /**
+     * The columns of a new index while its rows are filled in.
+     */
+    private static final class Columns {
+        private final int[] iataCodes;
+        private final double[] latitudes;
+        private final double[] longitudes;
+        private final double[] cosLatitudes;
+
+        private Columns(int length) {
+            iataCodes = new int[length];
+            latitudes = new double[length];
+            longitudes = new double[length];
+            cosLatitudes = new double[length];
+        }
+
+        /**
+         * Copies the rows {@code [from, to)} of {@code source} to the rows starting at {@code at}.
+         */
+        private void copy(AirportGridIndex source, int from, int to, int at) {
+            System.arraycopy(source.iataCodes, from, iataCodes, at, to - from);
+            System.arraycopy(source.latitudes, from, latitudes, at, to - from);
+            System.arraycopy(source.longitudes, from, longitudes, at, to - from);
+            System.arraycopy(source.cosLatitudes, from, cosLatitudes, at, to - from);
+        }
+
+        private void set(int row, Airport airport) {
+            iataCodes[row] = IataCodes.pack(airport.iataCode());
+            latitudes[row] = airport.latitude();
+            longitudes[row] = airport.longitude();
+            cosLatitudes[row] = GeoCalculations.cosLatitude(airport.latitude());
+        }
+
+        private AirportGridIndex toIndex() {
+            return new AirportGridIndex(iataCodes, latitudes, longitudes, cosLatitudes);
+        }
+    }
+
+    /**
+     * An entry of the queue of a {@link #nearest} search, ordered by a lower bound of the distance of everything
+     * it may still yield.
+     */
+    private static final class Candidate implements Comparable<Candidate> {
+        private static final int ROW = 0;
+        private static final int BAND = 1;
+        private static final int EAST = 2;
+        private static final int WEST = 3;
+
+        private final int kind;
+        private final double distance;
+        private final int band;
+        private final int row;
+        private final int steps;
+
+        private Candidate(int kind, double distance, int band, int row, int steps) {
+            this.kind = kind;
+            this.distance = distance;
+            this.band = band;
+            this.row = row;
+            this.steps = steps;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            return Double.compare(distance, other.distance);
+        }
+    }
+
+    private AirportGridIndex(int[] iataCodes, double[] latitudes, double[] longitudes, double[] cosLatitudes) {
+        this.iataCodes = iataCodes;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.cosLatitudes = cosLatitudes;
+
+        int row = 0;
+        for (int band = 0; band < BAND_COUNT; band++) {
+            bandStart[band] = row;
+            while (row < latitudes.length && bandOf(latitudes[row]) == band) {
+                row++;
+            }
+        }
+        bandStart[BAND_COUNT] = row;
+
+        rowSlots = new int[Integer.highestOneBit(Math.max(1, iataCodes.length) * 2) * 2];
+        for (int i = 0; i < iataCodes.length; i++) {
+            int slot = firstSlot(iataCodes[i]);
+            while (rowSlots[slot] != 0) {
+                slot = nextSlot(slot);
+            }
+            rowSlots[slot] = i + 1;
+        }
+    }
+
+    Option<Airport> get(String iataCode) {
+        final int row = rowOf(iataCode);
+        return row == NO_ROW ? Option.none() : Option.some(airportAt(row));
+    }
+
+    boolean contains(String iataCode) {
+        return rowOf(iataCode) != NO_ROW;
+    }
+
+    Seq<Airport> airports() {
+        return Array.tabulate(size(), this::airportAt);
+    }
+
+    Seq<String> iataCodes() {
+        return Array.tabulate(size(), row -> IataCodes.unpack(iataCodes[row]));
+    }
+
+    int size() {
+        return iataCodes.length;
+    }
+
+    /**
+     * Adds or replaces one airport, copying every column once.
+     */
+    AirportGridIndex with(Airport airport) {
+        final int removeAt = rowOf(airport.iataCode());
+        final int band = bandOf(airport.latitude());
+        final int insertAt = lowerBound(bandStart[band], bandStart[band + 1],
+                GeoCalculations.normalizeLongitude(airport.longitude()));
+
+        final int length = removeAt == NO_ROW ? size() + 1 : size();
+        final Columns columns = new Columns(length);
+        final int row;
+        if (removeAt == NO_ROW) {
+            columns.copy(this, 0, insertAt, 0);
+            columns.copy(this, insertAt, size(), insertAt + 1);
+            row = insertAt;
+        } else if (removeAt < insertAt) {
+            columns.copy(this, 0, removeAt, 0);
+            columns.copy(this, removeAt + 1, insertAt, removeAt);
+            columns.copy(this, insertAt, size(), insertAt);
+            row = insertAt - 1;
+        } else {
+            columns.copy(this, 0, insertAt, 0);
+            columns.copy(this, insertAt, removeAt, insertAt + 1);
+            columns.copy(this, removeAt + 1, size(), removeAt + 1);
+            row = insertAt;
+        }
+        columns.set(row, airport);
+
+        return columns.toIndex();
+    }
+
+    /**
+     * Adds or replaces many airports at once, sorting the rows a single time instead of once per airport.
+     */
+    AirportGridIndex withAll(Iterable<? extends Airport> airports) {
+        final Map<Integer, Airport> airportsByIataCode = new LinkedHashMap<>();
+        for (int row = 0; row < size(); row++) {
+            airportsByIataCode.put(iataCodes[row], airportAt(row));
+        }
+        for (Airport airport : airports) {
+            airportsByIataCode.put(IataCodes.pack(airport.iataCode()), airport);
+        }
+
+        final ArrayList<Airport> rows = new ArrayList<>(airportsByIataCode.values());
+        rows.sort(Comparator
+                .comparingInt((Airport airport) -> bandOf(airport.latitude()))
+                .thenComparingDouble(airport -> GeoCalculations.normalizeLongitude(airport.longitude())));
+
+        final Columns columns = new Columns(rows.size());
+        for (int row = 0; row < rows.size(); row++) {
+            columns.set(row, rows.get(row));
+        }
+        return columns.toIndex();
+    }
+
+    AirportGridIndex without(String iataCode) {
+        final int removeAt = rowOf(iataCode);
+        if (removeAt == NO_ROW) {
+            return this;
+        }
+
+        final Columns columns = new Columns(size() - 1);
+        columns.copy(this, 0, removeAt, 0);
+        columns.copy(this, removeAt + 1, size(), removeAt);
+        return columns.toIndex();
+    }
+
+    /**
+     * Airports within {@code radius} km of {@code center}, only materialized once they are selected.
+     */
+    Seq<Airport> selectWithin(Point center, double radius, GeoCalculations geoCalculations) {
+        final ArrayList<Airport> selected = new ArrayList<>();
+        scanWithin(center, radius, geoCalculations, row -> selected.add(airportAt(row)));
+        return List.ofAll(selected);
+    }
+
+    /**
+     * @return the number of airports within {@code radius} km of {@code center}
+     */
+    int countWithin(Point center, double radius, GeoCalculations geoCalculations) {
+        final int[] count = new int[1];
+        scanWithin(center, radius, geoCalculations, row -> count[0]++);
+        return count[0];
+    }
+
+    /**
+     * Passes the IATA code of each airport within {@code radius} km of {@code center} to {@code action}, without
+     * collecting them first.
+     */
+    void forEachWithin(Point center, double radius, GeoCalculations geoCalculations, Consumer<String> action) {
+        scanWithin(center, radius, geoCalculations, row -> action.accept(IataCodes.unpack(iataCodes[row])));
+    }
+
+    /**
+     * Passes the IATA code of each airport inside the given box which is accepted by {@code filter} to
+     * {@code action}, without collecting them first.
+     */
+    void forEach(BoundingBox box, PositionFilter filter, Consumer<String> action) {
+        scan(box, (from, to) -> {
+            for (int row = from; row < to; row++) {
+                if (filter.accept(latitudes[row], longitudes[row])) {
+                    action.accept(IataCodes.unpack(iataCodes[row]));
+                }
+            }
+        });
+    }
+
+    /**
+     * Filters the rows of the bounding box of the radius in chunks of {@link #RADIUS_CHUNK} rows with
+     * {@link GeoCalculations#selectWithinRadius}.
+     */
+    private void scanWithin(Point center, double radius, GeoCalculations geoCalculations, IntConsumer action) {
+        final double latitude = center.latitude();
+        final double longitude = center.longitude();
+        final int[] selected = new int[RADIUS_CHUNK];
+
+        scan(geoCalculations.boundingBox(center, radius), (from, to) -> {
+            for (int chunk = from; chunk < to; chunk += RADIUS_CHUNK) {
+                final int count = geoCalculations.selectWithinRadius(latitude, longitude, radius,
+                        latitudes, longitudes, cosLatitudes, chunk, Math.min(to, chunk + RADIUS_CHUNK), selected);
+                for (int i = 0; i < count; i++) {
+                    action.accept(selected[i]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Passes the rows of each band the box touches whose longitude is inside the box to {@code action}, as one
+     * range of rows per band, or two if the box crosses the antimeridian.
+     */
+    private void scan(BoundingBox box, RowRangeAction action) {
+        final int firstBand = bandOf(box.minLatitude());
+        final int lastBand = bandOf(box.maxLatitude());
+
+        for (int band = firstBand; band <= lastBand; band++) {
+            if (box.crossesAntimeridian()) {
+                scan(band, box.minLongitude(), 180.0, action);
+                scan(band, -180.0, box.maxLongitude(), action);
+            } else {
+                scan(band, box.minLongitude(), box.maxLongitude(), action);
+            }
+        }
+    }
+
+    private void scan(int band, double minLongitude, double maxLongitude, RowRangeAction action) {
+        final int from = lowerBound(bandStart[band], bandStart[band + 1], minLongitude);
+        final int to = upperBound(from, bandStart[band + 1], maxLongitude);
+        if (from < to) {
+            action.accept(from, to);
+        }
+    }
+
+    /**
+     * Best first search passing airports to {@code visitor} in order of their distance to the given position until
+     * it returns {@code false}.
+     * <p>
+     * Bands are entered in order of their latitude distance. Within a band one cursor walks east and one walks west
+     * of the position, each up to the opposite meridian, so the longitude difference only grows and bounds the
+     * distance of the rows a cursor has left. A row is only visited once every band and cursor which might hold a
+     * nearer airport has passed its distance, the search therefore ends after visiting the airports about as close
+     * as the last one accepted.
+     */
+    void nearest(double latitude, double longitude, GeoCalculations geoCalculations, NeighbourVisitor visitor) {
+        final double centerLongitude = GeoCalculations.normalizeLongitude(longitude);
+        final PriorityQueue<Candidate> queue = new PriorityQueue<>();
+        final int centerBand = bandOf(latitude);
+        queue.add(new Candidate(Candidate.BAND, 0.0, centerBand, 0, 0));
+
+        while (!queue.isEmpty()) {
+            final Candidate candidate = queue.poll();
+            switch (candidate.kind) {
+                case Candidate.ROW:
+                    if (!visitor.visit(IataCodes.unpack(iataCodes[candidate.row]), candidate.distance)) {
+                        return;
+                    }
+                    break;
+                case Candidate.BAND:
+                    enterBand(candidate.band, latitude, centerLongitude, geoCalculations, queue);
+                    if (candidate.band >= centerBand && candidate.band + 1 < BAND_COUNT) {
+                        queue.add(bandCandidate(candidate.band + 1, latitude, geoCalculations));
+                    }
+                    if (candidate.band <= centerBand && candidate.band > 0) {
+                        queue.add(bandCandidate(candidate.band - 1, latitude, geoCalculations));
+                    }
+                    break;
+                default:
+                    queue.add(new Candidate(Candidate.ROW, geoCalculations.calculateDistance(
+                            latitudes[candidate.row], longitudes[candidate.row], latitude, longitude),
+                            candidate.band, candidate.row, 0));
+                    final boolean east = candidate.kind == Candidate.EAST;
+                    addCursor(queue, candidate.kind, candidate.band, step(candidate.band, candidate.row, east),
+                            candidate.steps + 1, latitude, centerLongitude, geoCalculations);
+            }
+        }
+    }
+
+    private void enterBand(int band, double latitude, double centerLongitude, GeoCalculations geoCalculations,
+                           PriorityQueue<Candidate> queue) {
+        if (bandStart[band] == bandStart[band + 1]) {
+            return;
+        }
+
+        int east = lowerBound(bandStart[band], bandStart[band + 1], centerLongitude);
+        if (east == bandStart[band + 1]) {
+            east = bandStart[band];
+        }
+        addCursor(queue, Candidate.EAST, band, east, 0, latitude, centerLongitude, geoCalculations);
+        addCursor(queue, Candidate.WEST, band, step(band, east, false), 0, latitude, centerLongitude, geoCalculations);
+    }
+
+    /**
+     * Adds a cursor at {@code row} unless it walked the whole band or reached the opposite meridian. East cursors
+     * cover rows up to 180 degrees east, including, west cursors the remaining rows.
+     */
+    private void addCursor(PriorityQueue<Candidate> queue, int kind, int band, int row, int steps,
+                           double latitude, double centerLongitude, GeoCalculations geoCalculations) {
+        if (steps == bandStart[band + 1] - bandStart[band]) {
+            return;
+        }
+
+        double eastward = GeoCalculations.normalizeLongitude(longitudes[row]) - centerLongitude;
+        if (eastward < 0) {
+            eastward += 360.0;
+        }
+        final double offset = kind == Candidate.EAST ? eastward : eastward == 0.0 ? 0.0 : 360.0 - eastward;
+        if (kind == Candidate.EAST ? offset > 180.0 : offset == 0.0 || offset >= 180.0) {
+            return;
+        }
+
+        queue.add(new Candidate(kind, geoCalculations.minimumDistance(latitude, bandMinLatitude(band),
+                bandMinLatitude(band) + 1.0, offset), band, row, steps));
+    }
+
+    private Candidate bandCandidate(int band, double latitude, GeoCalculations geoCalculations) {
+        return new Candidate(Candidate.BAND, geoCalculations.minimumDistance(latitude, bandMinLatitude(band),
+                bandMinLatitude(band) + 1.0, 0.0), band, 0, 0);
+    }
+
+    /**
+     * @return the next row of the band to the east or west, wrapping around at the antimeridian
+     */
+    private int step(int band, int row, boolean east) {
+        if (east) {
+            return row + 1 == bandStart[band + 1] ? bandStart[band] : row + 1;
+        }
+        return row == bandStart[band] ? bandStart[band + 1] - 1 : row - 1;
+    }
+
+    private static double bandMinLatitude(int band) {
+        return band - BAND_COUNT / 2;
+    }
+
+    private Airport airportAt(int row) {
+        return ImmutableAirport.builder()
+                .iataCode(IataCodes.unpack(iataCodes[row]))
+                .latitude(latitudes[row])
+                .longitude(longitudes[row])
+                .build();
+    }
+
+    private int rowOf(String iataCode) {
+        final int packed = IataCodes.tryPack(iataCode);
+        if (packed == IataCodes.NOT_PACKABLE) {
+            return NO_ROW;
+        }
+
+        for (int slot = firstSlot(packed); rowSlots[slot] != 0; slot = nextSlot(slot)) {
+            final int row = rowSlots[slot] - 1;
+            if (iataCodes[row] == packed) {
+                return row;
+            }
+        }
+        return NO_ROW;
+    }
+
+    private int firstSlot(int packedIataCode) {
+        final int hash = packedIataCode * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (rowSlots.length - 1);
+    }
+
+    private int nextSlot(int slot) {
+        return (slot + 1) & (rowSlots.length - 1);
+    }
+
+    private int lowerBound(int from, int to, double longitude) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (GeoCalculations.normalizeLongitude(longitudes[mid]) < longitude) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the first row of {@code [from, to)} whose normalized longitude is above {@code longitude}
+     */
+    private int upperBound(int from, int to, double longitude) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (GeoCalculations.normalizeLongitude(longitudes[mid]) <= longitude) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int bandOf(double latitude) {
+        final int band = (int) Math.floor(latitude) + BAND_COUNT / 2;
+        return Math.max(0, Math.min(BAND_COUNT - 1, band));
+    }
+}
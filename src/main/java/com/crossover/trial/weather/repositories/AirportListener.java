@@ -0,0 +1,13 @@
+package com.crossover.trial.weather.repositories;
+
+import com.crossover.trial.weather.domain.Airport;
+
+/**
+ * Receives the modifications of an {@link AirportRepository} in the order they were applied.
+ */
+public interface AirportListener {
+
+    void airportAdded(Airport airport);
+
+    void airportRemoved(String iataCode);
+}
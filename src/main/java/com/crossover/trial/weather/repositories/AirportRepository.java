@@ -2,32 +2,206 @@ package com.crossover.trial.weather.repositories;
 
 import com.crossover.trial.weather.domain.Airport;
 import com.crossover.trial.weather.domain.ImmutableAirport;
+import com.crossover.trial.weather.domain.gis.BoundingBox;
+import com.crossover.trial.weather.domain.gis.Point;
+import com.crossover.trial.weather.lib.GeoCalculations;
+import javaslang.Tuple;
+import javaslang.Tuple2;
 import javaslang.collection.List;
 import javaslang.collection.Seq;
+import javaslang.collection.Stream;
 import javaslang.control.Option;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
-import java.util.concurrent.ConcurrentHashMap;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
+/**
+ * Holds the known airports in a column oriented {@link AirportGridIndex}. Writers replace the index under a lock,
+ * readers work on whatever index they loaded and therefore always see a consistent set of airports without copying.
+ */
 @Component
 public class AirportRepository {
-    private final ConcurrentHashMap<String, Airport> airportsByIataCode = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
 
+    private volatile AirportGridIndex index = AirportGridIndex.EMPTY;
+
+    /**
+     * copied on write, only notified while holding the write lock
+     */
+    private volatile AirportListener[] listeners = new AirportListener[0];
+
+    /**
+     * set once all airports were {@link #replaceAirports replaced}
+     */
+    private volatile boolean replaced;
+
+    @Inject
+    private GeoCalculations geoCalculations;
+
+    /**
+     * Adds or replaces an airport.
+     *
+     * @throws IllegalArgumentException if the IATA code is empty, longer than four characters or not ASCII
+     */
     public void addAirport(Airport airport) {
-        airportsByIataCode.put(airport.iataCode(), airport);
+        synchronized (writeLock) {
+            index = index.with(airport);
+            for (AirportListener listener : listeners) {
+                listener.airportAdded(airport);
+            }
+        }
+    }
+
+    /**
+     * Adds or replaces many airports with a single index rebuild.
+     *
+     * @throws IllegalArgumentException if any IATA code is empty, longer than four characters or not ASCII
+     */
+    public void addAirports(Iterable<? extends Airport> airports) {
+        synchronized (writeLock) {
+            index = index.withAll(airports);
+            for (AirportListener listener : listeners) {
+                airports.forEach(listener::airportAdded);
+            }
+        }
+    }
+
+    /**
+     * Replaces all airports without notifying listeners, e.g. with recovered airports.
+     *
+     * @throws IllegalArgumentException if any IATA code is empty, longer than four characters or not ASCII
+     */
+    public void replaceAirports(Iterable<? extends Airport> airports) {
+        synchronized (writeLock) {
+            index = AirportGridIndex.EMPTY.withAll(airports);
+            replaced = true;
+        }
+    }
+
+    /**
+     * @return {@code true} if all airports were {@link #replaceAirports replaced}, e.g. with recovered airports
+     */
+    public boolean wereReplaced() {
+        return replaced;
+    }
+
+    public void addListener(AirportListener listener) {
+        synchronized (writeLock) {
+            final AirportListener[] extended = Arrays.copyOf(listeners, listeners.length + 1);
+            extended[listeners.length] = listener;
+            listeners = extended;
+        }
+    }
+
+    public void removeListener(AirportListener listener) {
+        synchronized (writeLock) {
+            listeners = Stream.of(listeners).remove(listener).toJavaArray(AirportListener.class);
+        }
     }
 
     public Option<Airport> getAirport(String iataCode) {
-        return Option.of(airportsByIataCode.get(iataCode));
+        return index.get(iataCode);
+    }
+
+    public boolean hasAirport(String iataCode) {
+        return index.contains(iataCode);
     }
 
     public Seq<Airport> getAirports() {
-        return List.ofAll(airportsByIataCode.values()).toStream();
+        return index.airports();
+    }
+
+    public Seq<String> getIataCodes() {
+        return index.iataCodes();
+    }
+
+    public int getAirportCount() {
+        return index.size();
+    }
+
+    /**
+     * @return {@code true} if the code can be stored, i.e. it is one to four ASCII characters long
+     */
+    public static boolean isValidIataCode(String iataCode) {
+        return iataCode != null && IataCodes.tryPack(iataCode) != IataCodes.NOT_PACKABLE;
+    }
+
+    /**
+     * All airports within {@code radius} of {@code center}. Only airports inside the bounding box of the radius are
+     * checked against the exact distance.
+     *
+     * @param center the center of the search
+     * @param radius the radius in KM
+     * @return the airports within the radius, in no particular order
+     */
+    public Seq<Airport> getAirportsWithin(Point center, double radius) {
+        return index.selectWithin(center, radius, geoCalculations);
+    }
+
+    /**
+     * @return the number of airports {@link #getAirportsWithin within the radius}, without materializing them
+     */
+    public int countAirportsWithin(Point center, double radius) {
+        return index.countWithin(center, radius, geoCalculations);
+    }
+
+    /**
+     * Passes the IATA code of each airport {@link #getAirportsWithin within the radius} to {@code action} while
+     * the index is scanned, so no more than one airport is held at a time.
+     */
+    public void forEachAirportWithin(Point center, double radius, Consumer<String> action) {
+        index.forEachWithin(center, radius, geoCalculations, action);
+    }
+
+    /**
+     * Passes the IATA code of each airport inside {@code box}, edges included, to {@code action} while the index is
+     * scanned. The scan only touches the latitude bands of the box and the longitude ranges of each band, which are
+     * two for a box crossing the antimeridian.
+     */
+    public void forEachAirportIn(BoundingBox box, Consumer<String> action) {
+        final double minLatitude = box.minLatitude();
+        final double maxLatitude = box.maxLatitude();
+
+        index.forEach(box, (latitude, longitude) -> latitude >= minLatitude && latitude <= maxLatitude, action);
+    }
+
+    /**
+     * The {@code count} airports nearest to {@code center} which are accepted by {@code filter}. The index is
+     * searched best first, so only airports about as close as the last accepted one are visited, see
+     * {@link AirportGridIndex#nearest}.
+     *
+     * @return the IATA codes with their distance in KM, nearest first; all accepted airports if there are fewer than
+     * {@code count}
+     */
+    public Seq<Tuple2<String, Double>> getNearestAirports(Point center, int count, Predicate<String> filter) {
+        final AirportGridIndex searched = index;
+        final ArrayList<Tuple2<String, Double>> nearest = new ArrayList<>(Math.max(0, Math.min(count, searched.size())));
+        if (count > 0) {
+            searched.nearest(center.latitude(), center.longitude(), geoCalculations, (iataCode, distance) -> {
+                if (filter.test(iataCode)) {
+                    nearest.add(Tuple.of(iataCode, distance));
+                }
+                return nearest.size() < count;
+            });
+        }
+        return List.ofAll(nearest);
     }
 
     public void removeAirport(String iataCode) {
-        airportsByIataCode.remove(iataCode);
+        synchronized (writeLock) {
+            final AirportGridIndex previous = index;
+            index = previous.without(iataCode);
+            if (index != previous) {
+                for (AirportListener listener : listeners) {
+                    listener.airportRemoved(iataCode);
+                }
+            }
+        }
     }
 
     public void addAirport(String iataCode, Double latitude, Double longitude) {
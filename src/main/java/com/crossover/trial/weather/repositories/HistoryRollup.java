@@ -0,0 +1,152 @@
+package com.crossover.trial.weather.repositories;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Minute, hour and day aggregates of the raw history of one station and type.
+ * <p>
+ * {@link #rollUp} folds completed buckets of each tier into the next coarser one: the mean is weighted by count,
+ * {@code first} is the minimum, {@code last} the maximum and {@code count} the sum of the folded data points. The
+ * median is approximated by the count weighted mean of the medians. Each tier is a {@link SampleHistory} whose
+ * timestamps are bucket starts, the roll up task is its only writer. Tiers are persisted by snapshots, see
+ * {@link #copy} and {@link #restore}, as they reach back further than the raw history they were folded from.
+ */
+class HistoryRollup {
+    private static final Resolution[] TIERS = {Resolution.MINUTE, Resolution.HOUR, Resolution.DAY};
+
+    /**
+     * grace period for data points which got their timestamp but are not appended to the raw history yet
+     */
+    static final long ROLL_UP_DELAY = 1000L;
+
+    private final SampleHistory[] tiers = new SampleHistory[TIERS.length];
+
+    /**
+     * per tier, the end of the last bucket rolled up into it; readers take everything later from finer tiers
+     */
+    private final AtomicLongArray rolledUpTo = new AtomicLongArray(TIERS.length);
+
+    HistoryRollup(int capacity) {
+        for (int tier = 0; tier < tiers.length; tier++) {
+            tiers[tier] = new SampleHistory(capacity);
+        }
+    }
+
+    /**
+     * Rolls up all buckets completed at {@code now}. Must not be called concurrently.
+     */
+    void rollUp(SampleHistory raw, long now) {
+        long sourceRolledUpTo = now - ROLL_UP_DELAY;
+        for (int tier = 0; tier < TIERS.length; tier++) {
+            final long bucketSize = TIERS[tier].millis();
+            final long start = rolledUpTo.get(tier);
+            final long end = Math.floorDiv(sourceRolledUpTo, bucketSize) * bucketSize;
+
+            if (end > start) {
+                final SampleHistory source = tier == 0 ? raw : tiers[tier - 1];
+                final TimeSeries samples = new TimeSeries(source.capacity());
+                source.copy(start, end - 1, samples);
+
+                final TimeSeries buckets = new TimeSeries(samples.size());
+                fold(samples, bucketSize, buckets);
+                for (int i = 0; i < buckets.size(); i++) {
+                    tiers[tier].append(buckets.timestamp(i), buckets.mean(i),
+                            buckets.first(i), buckets.median(i), buckets.last(i), buckets.count(i));
+                }
+                rolledUpTo.set(tier, end);
+            }
+
+            sourceRolledUpTo = rolledUpTo.get(tier);
+        }
+    }
+
+    /**
+     * Copies the aggregates of a tier which are rolled up completely. Must not be called concurrently with
+     * {@link #rollUp}.
+     *
+     * @return the end of the last bucket rolled up into the tier
+     */
+    long copy(Resolution resolution, TimeSeries target) {
+        final int tier = resolution.ordinal() - 1;
+        final long rolledUp = rolledUpTo.get(tier);
+        tiers[tier].copy(Long.MIN_VALUE, rolledUp - 1, target);
+        return rolledUp;
+    }
+
+    /**
+     * Appends an aggregate copied by {@link #copy} to its tier. Aggregates of a tier must be restored oldest first,
+     * before the first {@link #rollUp}.
+     */
+    void restore(Resolution resolution, long rolledUp, long timestamp, double mean, int first, int median, int last, int count) {
+        final int tier = resolution.ordinal() - 1;
+        tiers[tier].append(timestamp, mean, first, median, last, count);
+        rolledUpTo.accumulateAndGet(tier, rolledUp, Math::max);
+    }
+
+    /**
+     * Data points of the given resolution between {@code from} and {@code to}. Buckets which are not rolled up yet
+     * are folded from the finer tiers on the fly, so the latest bucket may be incomplete.
+     *
+     * @param rawFrom the earliest timestamp of raw data points to use
+     */
+    TimeSeries query(SampleHistory raw, Resolution resolution, long from, long to, long rawFrom) {
+        if (resolution == Resolution.RAW) {
+            final TimeSeries samples = new TimeSeries(raw.capacity());
+            raw.copy(Math.max(from, rawFrom), to, samples);
+            return samples;
+        }
+
+        final int tier = resolution.ordinal() - 1;
+        final long bucketSize = resolution.millis();
+        final long bucketFrom = from <= 0 ? from : from - from % bucketSize;
+        final long rolledUp = rolledUpTo.get(tier);
+
+        final TimeSeries buckets = new TimeSeries(tiers[tier].capacity());
+        tiers[tier].copy(bucketFrom, Math.min(to, rolledUp - 1), buckets);
+        if (to >= rolledUp) {
+            fold(query(raw, resolution.finer(), Math.max(bucketFrom, rolledUp), to, rawFrom), bucketSize, buckets);
+        }
+        return buckets;
+    }
+
+    /**
+     * Appends one aggregate per bucket of {@code bucketSize} milliseconds which holds data points of
+     * {@code samples}, which must be ordered by timestamp.
+     */
+    static void fold(TimeSeries samples, long bucketSize, TimeSeries target) {
+        int bucketStart = 0;
+        while (bucketStart < samples.size()) {
+            final long bucket = Math.floorDiv(samples.timestamp(bucketStart), bucketSize);
+
+            long totalCount = 0;
+            double weightedMean = 0.0;
+            double weightedMedian = 0.0;
+            double mean = 0.0;
+            double median = 0.0;
+            int first = Integer.MAX_VALUE;
+            int last = Integer.MIN_VALUE;
+
+            int i = bucketStart;
+            for (; i < samples.size() && Math.floorDiv(samples.timestamp(i), bucketSize) == bucket; i++) {
+                final int count = samples.count(i);
+                totalCount += count;
+                weightedMean += samples.mean(i) * count;
+                weightedMedian += (double) samples.median(i) * count;
+                mean += samples.mean(i);
+                median += samples.median(i);
+                first = Math.min(first, samples.first(i));
+                last = Math.max(last, samples.last(i));
+            }
+
+            // data points without a count all weigh the same
+            final int folded = i - bucketStart;
+            target.add(bucket * bucketSize,
+                    totalCount > 0 ? weightedMean / totalCount : mean / folded,
+                    first,
+                    (int) Math.round(totalCount > 0 ? weightedMedian / totalCount : median / folded),
+                    last,
+                    (int) Math.min(totalCount, Integer.MAX_VALUE));
+            bucketStart = i;
+        }
+    }
+}
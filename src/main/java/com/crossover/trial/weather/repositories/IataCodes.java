@@ -0,0 +1,60 @@
+package com.crossover.trial.weather.repositories;
+
+/**
+ * Packs airport codes of up to four 7-bit ASCII characters into a positive int, seven bits per character, first
+ * character in the highest bits. A three letter IATA code therefore never needs more than 21 bits and packed codes
+ * compare like the strings they were made of.
+ */
+final class IataCodes {
+    static final int NOT_PACKABLE = -1;
+
+    private static final int MAX_LENGTH = 4;
+
+    private static final int BITS_PER_CHARACTER = 7;
+
+    private static final int CHARACTER_MASK = (1 << BITS_PER_CHARACTER) - 1;
+
+    private IataCodes() {
+    }
+
+    /**
+     * @return the packed code, or {@link #NOT_PACKABLE} if the code is empty, too long or not ASCII
+     */
+    static int tryPack(String iataCode) {
+        final int length = iataCode.length();
+        if (length == 0 || length > MAX_LENGTH) {
+            return NOT_PACKABLE;
+        }
+
+        int packed = 0;
+        for (int i = 0; i < MAX_LENGTH; i++) {
+            final int character = i < length ? iataCode.charAt(i) : 0;
+            if (i < length && (character == 0 || character > CHARACTER_MASK)) {
+                return NOT_PACKABLE;
+            }
+            packed = (packed << BITS_PER_CHARACTER) | character;
+        }
+        return packed;
+    }
+
+    static int pack(String iataCode) {
+        final int packed = tryPack(iataCode);
+        if (packed == NOT_PACKABLE) {
+            throw new IllegalArgumentException("'" + iataCode + "' is not a valid airport code");
+        }
+        return packed;
+    }
+
+    static String unpack(int packed) {
+        final char[] characters = new char[MAX_LENGTH];
+        int length = 0;
+        for (int shift = (MAX_LENGTH - 1) * BITS_PER_CHARACTER; shift >= 0; shift -= BITS_PER_CHARACTER) {
+            final int character = (packed >>> shift) & CHARACTER_MASK;
+            if (character == 0) {
+                break;
+            }
+            characters[length++] = (char) character;
+        }
+        return new String(characters, 0, length);
+    }
+}
@@ -0,0 +1,43 @@
+package com.crossover.trial.weather.repositories;
+
+/**
+ * Resolution tiers of the station history, see {@link HistoryRollup}.
+ */
+public enum Resolution {
+    RAW(0L),
+    MINUTE(60000L),
+    HOUR(3600000L),
+    DAY(86400000L);
+
+    private static final Resolution[] VALUES = values();
+
+    private final long millis;
+
+    Resolution(long millis) {
+        this.millis = millis;
+    }
+
+    /**
+     * @return the bucket size in milliseconds, 0 for raw samples
+     */
+    public long millis() {
+        return millis;
+    }
+
+    /**
+     * @param millis the requested resolution in milliseconds
+     * @return the coarsest tier whose buckets are not larger than {@code millis}
+     */
+    public static Resolution coarsestWithin(long millis) {
+        for (int i = VALUES.length - 1; i > 0; i--) {
+            if (VALUES[i].millis <= millis) {
+                return VALUES[i];
+            }
+        }
+        return RAW;
+    }
+
+    Resolution finer() {
+        return VALUES[ordinal() - 1];
+    }
+}
@@ -0,0 +1,18 @@
+package com.crossover.trial.weather.repositories;
+
+import com.crossover.trial.weather.domain.measurement.DataPointType;
+
+/**
+ * Receives the rollup tiers of a {@link WeatherDataRepository}, see {@link WeatherDataRepository#exportRollups}.
+ */
+public interface RollupListener {
+
+    /**
+     * An aggregate of a rollup tier.
+     *
+     * @param rolledUpTo the end of the last bucket rolled up into the tier
+     * @param timestamp  the start of the bucket
+     */
+    void rolledUp(String stationId, DataPointType dataType, Resolution resolution, long rolledUpTo,
+                  long timestamp, double mean, int first, int median, int last, int count);
+}
@@ -0,0 +1,104 @@
+package com.crossover.trial.weather.repositories;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed capacity ring buffer of timestamped data points, {@code 32} bytes per sample in an {@link AtomicLongArray}.
+ * <p>
+ * Appending is lock free and allocation free but must be done by a single writer at a time. Readers never block
+ * the writer: they copy the samples they want and start over from a later position if the writer overwrote part
+ * of the copied range meanwhile. The slot the writer fills next is never read, so readers see at most
+ * {@code capacity - 1} samples.
+ * <p>
+ * The writer stores the values of a sample with ordered writes, so they are not visible before the position the
+ * previous append published; readers load them with volatile reads, so the check of the position after copying
+ * is not moved before the copy.
+ */
+class SampleHistory {
+    private static final int TIMESTAMP = 0;
+    private static final int MEAN = 1;
+    private static final int FIRST_AND_MEDIAN = 2;
+    private static final int LAST_AND_COUNT = 3;
+    private static final int SAMPLE_SIZE = 4;
+
+    private final int mask;
+
+    /**
+     * {@link #SAMPLE_SIZE} longs per sample
+     */
+    private final AtomicLongArray samples;
+
+    /**
+     * number of samples ever appended, incremented only after the sample was written
+     */
+    private final AtomicLong appended = new AtomicLong();
+
+    /**
+     * @param capacity the number of samples kept, rounded up to a power of two
+     */
+    SampleHistory(int capacity) {
+        final int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        mask = size - 1;
+        samples = new AtomicLongArray(size * SAMPLE_SIZE);
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Appends a sample, overwriting the oldest one once the buffer is full. Must not be called concurrently.
+     */
+    void append(long timestamp, double mean, int first, int median, int last, int count) {
+        final long position = appended.get();
+        final int sample = ((int) position & mask) * SAMPLE_SIZE;
+
+        samples.lazySet(sample + TIMESTAMP, timestamp);
+        samples.lazySet(sample + MEAN, Double.doubleToRawLongBits(mean));
+        samples.lazySet(sample + FIRST_AND_MEDIAN, pack(first, median));
+        samples.lazySet(sample + LAST_AND_COUNT, pack(last, count));
+
+        appended.lazySet(position + 1);
+    }
+
+    /**
+     * Copies the samples with {@code from <= timestamp <= to} into {@code target}, oldest first.
+     */
+    void copy(long from, long to, TimeSeries target) {
+        long start = Math.max(0, appended.get() + 1 - capacity());
+        while (true) {
+            final long end = appended.get();
+            target.clear();
+            for (long position = start; position < end; position++) {
+                final int sample = ((int) position & mask) * SAMPLE_SIZE;
+                final long timestamp = samples.get(sample + TIMESTAMP);
+                if (timestamp >= from && timestamp <= to) {
+                    final long firstAndMedian = samples.get(sample + FIRST_AND_MEDIAN);
+                    final long lastAndCount = samples.get(sample + LAST_AND_COUNT);
+                    target.add(timestamp, Double.longBitsToDouble(samples.get(sample + MEAN)),
+                            high(firstAndMedian), low(firstAndMedian), high(lastAndCount), low(lastAndCount));
+                }
+            }
+
+            // the writer may be busy with position appended, which overwrites appended - capacity
+            final long oldestIntact = appended.get() + 1 - capacity();
+            if (oldestIntact <= start) {
+                return;
+            }
+            start = oldestIntact + capacity() / 8;
+        }
+    }
+
+    private static long pack(int high, int low) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    private static int high(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    private static int low(long packed) {
+        return (int) packed;
+    }
+}
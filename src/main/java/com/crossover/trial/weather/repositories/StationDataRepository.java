@@ -4,79 +4,513 @@ import com.crossover.trial.weather.domain.measurement.AtmosphericData;
 import com.crossover.trial.weather.domain.measurement.DataPoint;
 import com.crossover.trial.weather.domain.measurement.DataPointType;
 import com.crossover.trial.weather.domain.measurement.ImmutableAtmosphericData;
+import com.crossover.trial.weather.domain.measurement.ImmutableDataPoint;
 import com.crossover.trial.weather.lib.TimestampFactory;
-import javaslang.Tuple;
-import javaslang.Tuple2;
-import javaslang.collection.HashMap;
-import javaslang.collection.List;
-import javaslang.collection.Map;
-import javaslang.control.Option;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
 import javax.inject.Inject;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.BiConsumer;
-import java.util.function.Predicate;
+import java.util.EnumMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.DoublePredicate;
 
+/**
+ * Latest data point per {@link DataPointType} of one station.
+ * <p>
+ * Each type owns a slot of primitive values in an {@link AtomicLongArray}, guarded by a sequence number: writers
+ * make it odd while they update the slot, readers retry if they saw an odd or changed sequence. Accepting a data
+ * point therefore neither allocates nor takes a lock. The slot also holds the time the data point was accepted, so
+ * the freshness of each type is one volatile read and the station was last updated at the latest of them.
+ * <p>
+ * Accepted data points are also appended to a {@link SampleHistory} per type, allocated on the first data point of
+ * the type together with its {@link HistoryRollup}. The sequence makes the slot owner the only writer of the
+ * history, so the history of a station takes at most
+ * {@code 6 * (weather.history.capacity + 3 * weather.rollup.capacity) * 32} bytes.
+ * <p>
+ * Every accepted data point advances the version of the station. Readers share an immutable {@link StationSnapshot}
+ * per version, which the first reader after a change builds and publishes, so writes stay allocation free and a read
+ * of an unchanged station costs two volatile loads.
+ */
 @Component
 @Scope(BeanDefinition.SCOPE_PROTOTYPE)
 class StationDataRepository {
-    private static final Map<DataPointType, Predicate<DataPoint>> acceptanceRuleByType = HashMap.ofEntries(
-            Tuple.of(DataPointType.WIND, (Predicate<DataPoint>) dataPoint -> dataPoint.mean() >= 0.0),
-            Tuple.of(DataPointType.TEMPERATURE, (Predicate<DataPoint>) dataPoint -> dataPoint.mean() >= -50.0 && dataPoint.mean() < 100.0),
-            Tuple.of(DataPointType.HUMIDITY, (Predicate<DataPoint>) dataPoint -> dataPoint.mean() >= 0.0 && dataPoint.mean() < 100.0),
-            Tuple.of(DataPointType.PRESSURE, (Predicate<DataPoint>) dataPoint -> dataPoint.mean() >= 650.0 && dataPoint.mean() < 800.0),
-            Tuple.of(DataPointType.CLOUDCOVER, (Predicate<DataPoint>) dataPoint -> dataPoint.mean() >= 0 && dataPoint.mean() < 100.0),
-            Tuple.of(DataPointType.PRECIPITATION, (Predicate<DataPoint>) dataPoint -> dataPoint.mean() >= 0 && dataPoint.mean() < 100.0)
-    );
-
-    private static final List<Tuple2<DataPointType, BiConsumer<ImmutableAtmosphericData.Builder, DataPoint>>> typesWithBuilderMethods = List.of(
-            Tuple.of(DataPointType.WIND, (BiConsumer<ImmutableAtmosphericData.Builder, DataPoint>) ImmutableAtmosphericData.Builder::wind),
-            Tuple.of(DataPointType.TEMPERATURE, (BiConsumer<ImmutableAtmosphericData.Builder, DataPoint>) ImmutableAtmosphericData.Builder::temperature),
-            Tuple.of(DataPointType.HUMIDITY, (BiConsumer<ImmutableAtmosphericData.Builder, DataPoint>) ImmutableAtmosphericData.Builder::humidity),
-            Tuple.of(DataPointType.PRESSURE, (BiConsumer<ImmutableAtmosphericData.Builder, DataPoint>) ImmutableAtmosphericData.Builder::pressure),
-            Tuple.of(DataPointType.CLOUDCOVER, (BiConsumer<ImmutableAtmosphericData.Builder, DataPoint>) ImmutableAtmosphericData.Builder::cloudCover),
-            Tuple.of(DataPointType.PRECIPITATION, (BiConsumer<ImmutableAtmosphericData.Builder, DataPoint>) ImmutableAtmosphericData.Builder::precipitation)
-    );
-
-    private final ConcurrentHashMap<DataPointType, DataPoint> dataPointByType = new ConcurrentHashMap<>();
-
-    private long lastUpdateTime = 0L;
+    private static final EnumMap<DataPointType, DoublePredicate> acceptanceRuleByType = new EnumMap<>(DataPointType.class);
+
+    static {
+        acceptanceRuleByType.put(DataPointType.WIND, mean -> mean >= 0.0);
+        acceptanceRuleByType.put(DataPointType.TEMPERATURE, mean -> mean >= -50.0 && mean < 100.0);
+        acceptanceRuleByType.put(DataPointType.HUMIDITY, mean -> mean >= 0.0 && mean < 100.0);
+        acceptanceRuleByType.put(DataPointType.PRESSURE, mean -> mean >= 650.0 && mean < 800.0);
+        acceptanceRuleByType.put(DataPointType.CLOUDCOVER, mean -> mean >= 0 && mean < 100.0);
+        acceptanceRuleByType.put(DataPointType.PRECIPITATION, mean -> mean >= 0 && mean < 100.0);
+    }
+
+    private static final int SEQUENCE = 0;
+    private static final int MEAN = 1;
+    private static final int FIRST_AND_MEDIAN = 2;
+    private static final int LAST_AND_COUNT = 3;
+    private static final int TIMESTAMP = 4;
+    private static final int SLOT_SIZE = 5;
+
+    private static final Resolution[] ROLLUP_RESOLUTIONS = {Resolution.MINUTE, Resolution.HOUR, Resolution.DAY};
+
+    /**
+     * one slot of {@link #SLOT_SIZE} longs per type, indexed by {@link DataPointType#ordinal()}; a sequence of 0
+     * marks a type which never received data
+     */
+    private final AtomicLongArray slots = new AtomicLongArray(DataPointType.values().length * SLOT_SIZE);
+
+    /**
+     * one history per type, indexed by {@link DataPointType#ordinal()}
+     */
+    private final AtomicReferenceArray<SampleHistory> histories = new AtomicReferenceArray<>(DataPointType.values().length);
+
+    /**
+     * one rollup per type, indexed by {@link DataPointType#ordinal()}; set before the history of the type
+     */
+    private final AtomicReferenceArray<HistoryRollup> rollups = new AtomicReferenceArray<>(DataPointType.values().length);
+
+    /**
+     * the first version plus the number of accepted data points, advanced before the slot of a data point is
+     * unlocked, so it counts every data point stored when all slots are locked
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * the latest published snapshot, its version only ever increases
+     */
+    private final AtomicReference<StationSnapshot> snapshot = new AtomicReference<>(
+            new StationSnapshot(0L, ImmutableAtmosphericData.builder().lastUpdateTime(0L).build()));
+
+    private String stationId;
+
+    private WeatherListener listener;
+
+    private UpdateTimeIndex updateTimes;
+
+    /**
+     * set with every slot locked once the station is evicted, updates seeing it are not stored
+     */
+    private volatile boolean retired;
+
+    /**
+     * the minute this station is counted in by {@link #updateTimes}, only ever increases
+     */
+    private final AtomicLong updateMinute = new AtomicLong(UpdateTimeIndex.NEVER);
+
+    @Value("${weather.history.capacity:256}")
+    private int historyCapacity = 256;
+
+    /**
+     * how long data points are returned by {@link #history}, in milliseconds
+     */
+    @Value("${weather.history.retention:86400000}")
+    private long historyRetention = 86400000L;
+
+    /**
+     * number of buckets kept per rollup tier
+     */
+    @Value("${weather.rollup.capacity:256}")
+    private int rollupCapacity = 256;
 
     @Inject
     private TimestampFactory timestampFactory;
 
-    void update(DataPointType dataType, DataPoint data) {
-        final Boolean shouldAddData =
-                acceptanceRuleByType
-                        .get(dataType)
-                        .map(rulePredicate -> rulePredicate.test(data))
-                        .getOrElse(true);
+    boolean update(DataPointType dataType, DataPoint data) {
+        return update(dataType, data.mean(), data.first(), data.median(), data.last(), data.count());
+    }
+
+    /**
+     * Stores a data point given by its fields if it passes the acceptance rule of its type. The listener is notified
+     * once the slot is unlocked again, so readers never wait for it; concurrent updates of one type may therefore
+     * be reported out of sequence.
+     *
+     * @return {@code true} if the data point was accepted, {@code false} if it was rejected or the station is
+     * {@link #isRetired() retired}
+     */
+    boolean update(DataPointType dataType, double mean, int first, int median, int last, int count) {
+        final DoublePredicate acceptanceRule = acceptanceRuleByType.get(dataType);
+        if (acceptanceRule != null && !acceptanceRule.test(mean)) {
+            return false;
+        }
+
+        final int slot = dataType.ordinal() * SLOT_SIZE;
+        final long sequence = lock(slot);
+        if (retired) {
+            slots.set(slot + SEQUENCE, sequence);
+            return false;
+        }
 
-        if (shouldAddData) {
-            dataPointByType.put(dataType, data);
-            lastUpdateTime = timestampFactory.getCurrentTimestamp();
+        final long timestamp = timestampFactory.getCurrentTimestamp();
+        try {
+            store(dataType, timestamp, mean, first, median, last, count);
+            version.incrementAndGet();
+        } finally {
+            slots.set(slot + SEQUENCE, sequence + 2);
         }
+
+        indexUpdateTime(timestamp);
+        if (listener != null) {
+            listener.weatherUpdated(stationId, dataType, sequence / 2 + 1, timestamp, mean, first, median, last, count);
+        }
+        return true;
+    }
+
+    /**
+     * Stores a data point which was accepted before, e.g. when recovering persisted data. Listeners are not
+     * notified and acceptance rules are not checked.
+     *
+     * @param updateSequence the sequence reported to {@link WeatherListener#weatherUpdated} when the data point
+     *                       was accepted
+     * @return {@code false} if the type already has a data point with this or a later sequence
+     */
+    boolean apply(DataPointType dataType, long updateSequence, long timestamp,
+                  double mean, int first, int median, int last, int count) {
+        final int slot = dataType.ordinal() * SLOT_SIZE;
+        final long sequence = lock(slot);
+        if (sequence / 2 >= updateSequence) {
+            slots.set(slot + SEQUENCE, sequence);
+            return false;
+        }
+
+        store(dataType, timestamp, mean, first, median, last, count);
+        version.incrementAndGet();
+        slots.set(slot + SEQUENCE, updateSequence * 2);
+
+        indexUpdateTime(timestamp);
+        return true;
+    }
+
+    /**
+     * Reports the raw history of every type to {@code target} as if each data point was accepted right now, with
+     * the sequence it was accepted with. Each type is locked while its history is copied.
+     */
+    void export(WeatherListener target) {
+        for (DataPointType dataType : DataPointType.values()) {
+            final SampleHistory history = histories.get(dataType.ordinal());
+            if (history == null) {
+                continue;
+            }
+
+            final int slot = dataType.ordinal() * SLOT_SIZE;
+            final TimeSeries samples = new TimeSeries(history.capacity());
+            final long sequence = lock(slot);
+            try {
+                history.copy(Long.MIN_VALUE, Long.MAX_VALUE, samples);
+            } finally {
+                slots.set(slot + SEQUENCE, sequence);
+            }
+
+            final long firstSequence = sequence / 2 - samples.size() + 1;
+            for (int i = 0; i < samples.size(); i++) {
+                target.weatherUpdated(stationId, dataType, firstSequence + i, samples.timestamp(i),
+                        samples.mean(i), samples.first(i), samples.median(i), samples.last(i), samples.count(i));
+            }
+        }
+    }
+
+    /**
+     * Reports the aggregates of every rollup tier to {@code target}, oldest first per tier. The raw history which
+     * is exported by {@link #export} only covers the latest data points, the tiers reach back further.
+     */
+    synchronized void exportRollups(RollupListener target) {
+        for (DataPointType dataType : DataPointType.values()) {
+            if (histories.get(dataType.ordinal()) == null) {
+                continue;
+            }
+
+            final HistoryRollup rollup = rollups.get(dataType.ordinal());
+            for (Resolution resolution : ROLLUP_RESOLUTIONS) {
+                final TimeSeries buckets = new TimeSeries(rollupCapacity);
+                final long rolledUpTo = rollup.copy(resolution, buckets);
+                for (int i = 0; i < buckets.size(); i++) {
+                    target.rolledUp(stationId, dataType, resolution, rolledUpTo, buckets.timestamp(i),
+                            buckets.mean(i), buckets.first(i), buckets.median(i), buckets.last(i), buckets.count(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores an aggregate reported by {@link #exportRollups}, e.g. when recovering persisted data. Aggregates must
+     * be restored in the order they were reported, before the station is rolled up.
+     */
+    synchronized void restoreRollup(DataPointType dataType, Resolution resolution, long rolledUpTo, long timestamp,
+                                    double mean, int first, int median, int last, int count) {
+        final int slot = dataType.ordinal() * SLOT_SIZE;
+        final long sequence = lock(slot);
+        try {
+            historyFor(dataType);
+        } finally {
+            slots.set(slot + SEQUENCE, sequence);
+        }
+        rollups.get(dataType.ordinal()).restore(resolution, rolledUpTo, timestamp, mean, first, median, last, count);
+    }
+
+    /**
+     * Makes updates report to {@code listener} and keeps the station counted by the minute of its last update in
+     * {@code updateTimes}, must be called before the repository is shared.
+     *
+     * @param firstVersion the version of the station before its first data point, so a station replacing a removed
+     *                     one can continue above the versions of its predecessor
+     */
+    void bind(String stationId, long firstVersion, WeatherListener listener, UpdateTimeIndex updateTimes) {
+        this.stationId = stationId;
+        this.listener = listener;
+        this.updateTimes = updateTimes;
+        version.set(firstVersion);
+        snapshot.set(new StationSnapshot(firstVersion, snapshot.get().data()));
+    }
+
+    /**
+     * Stops counting the station in its {@link UpdateTimeIndex}, also for updates still in flight.
+     */
+    void unbind() {
+        final long minute = updateMinute.getAndSet(Long.MAX_VALUE);
+        if (updateTimes != null && minute != Long.MAX_VALUE) {
+            updateTimes.remove(minute);
+        }
+    }
+
+    /**
+     * Retires the station unless it accepted a data point after {@code idleSince}, deciding with every slot locked
+     * so no update can be stored in between. Updates of a retired station are not stored, so its version does not
+     * change any more.
+     *
+     * @return {@code true} if this call retired the station, {@code false} if it was busy or already retired
+     */
+    boolean retireIfIdleSince(long idleSince) {
+        final long[] sequences = new long[DataPointType.values().length];
+        for (int type = 0; type < sequences.length; type++) {
+            sequences[type] = lock(type * SLOT_SIZE);
+        }
+        try {
+            if (retired || lastUpdateTime() > idleSince) {
+                return false;
+            }
+            retired = true;
+            return true;
+        } finally {
+            for (int type = 0; type < sequences.length; type++) {
+                slots.set(type * SLOT_SIZE + SEQUENCE, sequences[type]);
+            }
+        }
+    }
+
+    /**
+     * Retires the station whenever it was updated last, see {@link #retireIfIdleSince}.
+     *
+     * @return {@code true} if this call retired the station
+     */
+    boolean retire() {
+        return retireIfIdleSince(Long.MAX_VALUE);
+    }
+
+    boolean isRetired() {
+        return retired;
+    }
+
+    /**
+     * @param from the earliest timestamp, inclusive, limited to the retention period
+     * @param to   the latest timestamp, inclusive
+     * @return the accepted data points of the type in the given time range, oldest first
+     */
+    TimeSeries history(DataPointType dataType, long from, long to) {
+        return history(dataType, from, to, Resolution.RAW);
+    }
+
+    /**
+     * @param from       the earliest timestamp, inclusive, limited to the retention period for raw data points
+     * @param to         the latest timestamp, inclusive
+     * @param resolution the tier to read, see {@link HistoryRollup}
+     * @return the data points or aggregates of the type in the given time range, oldest first
+     */
+    TimeSeries history(DataPointType dataType, long from, long to, Resolution resolution) {
+        final SampleHistory history = histories.get(dataType.ordinal());
+        if (history == null) {
+            return new TimeSeries(0);
+        }
+
+        final long retainedFrom = timestampFactory.getCurrentTimestamp() - historyRetention;
+        return rollups.get(dataType.ordinal()).query(history, resolution, from, to, retainedFrom);
+    }
+
+    /**
+     * Folds the completed minutes, hours and days of all types into their rollup tiers.
+     */
+    synchronized void rollUp() {
+        final long now = timestampFactory.getCurrentTimestamp();
+        for (int type = 0; type < histories.length(); type++) {
+            final SampleHistory history = histories.get(type);
+            if (history != null) {
+                rollups.get(type).rollUp(history, now);
+            }
+        }
+    }
+
+    /**
+     * @return the latest accepted data point of the type or {@code null} if there is none
+     */
+    DataPoint get(DataPointType dataType) {
+        final int slot = dataType.ordinal() * SLOT_SIZE;
+        while (true) {
+            final long sequence = slots.get(slot + SEQUENCE);
+            if (sequence == 0) {
+                return null;
+            }
+            if ((sequence & 1) != 0) {
+                continue;
+            }
+
+            final long mean = slots.get(slot + MEAN);
+            final long firstAndMedian = slots.get(slot + FIRST_AND_MEDIAN);
+            final long lastAndCount = slots.get(slot + LAST_AND_COUNT);
+
+            if (slots.get(slot + SEQUENCE) == sequence) {
+                return ImmutableDataPoint.builder()
+                        .mean(Double.longBitsToDouble(mean))
+                        .first(high(firstAndMedian))
+                        .median(low(firstAndMedian))
+                        .last(high(lastAndCount))
+                        .count(low(lastAndCount))
+                        .build();
+            }
+        }
+    }
+
+    String stationId() {
+        return stationId;
+    }
+
+    /**
+     * @return the time of the latest accepted data point, 0 if there is none
+     */
+    long lastUpdateTime() {
+        long latest = 0L;
+        for (DataPointType dataType : DataPointType.values()) {
+            latest = Math.max(latest, lastUpdateTime(dataType));
+        }
+        return latest;
+    }
+
+    /**
+     * @return the time the latest data point of the type was accepted, 0 if there is none; a data point still
+     * being stored may already count
+     */
+    long lastUpdateTime(DataPointType dataType) {
+        return slots.get(dataType.ordinal() * SLOT_SIZE + TIMESTAMP);
     }
 
     public AtmosphericData toData() {
-        final ImmutableAtmosphericData.Builder builder = ImmutableAtmosphericData.builder();
+        return snapshot().data();
+    }
+
+    /**
+     * @return the first version plus the number of data points accepted so far
+     */
+    long version() {
+        return version.get();
+    }
+
+    /**
+     * @return a snapshot holding at least every data point accepted before the call
+     */
+    StationSnapshot snapshot() {
+        final long current = version.get();
+        final StationSnapshot published = snapshot.get();
+        if (published.version() == current) {
+            return published;
+        }
+
+        // the slots are at least as new as the version read above, so the snapshot is tagged conservatively
+        final StationSnapshot built = new StationSnapshot(current, ImmutableAtmosphericData.builder()
+                .wind(get(DataPointType.WIND))
+                .temperature(get(DataPointType.TEMPERATURE))
+                .humidity(get(DataPointType.HUMIDITY))
+                .pressure(get(DataPointType.PRESSURE))
+                .cloudCover(get(DataPointType.CLOUDCOVER))
+                .precipitation(get(DataPointType.PRECIPITATION))
+                .lastUpdateTime(lastUpdateTime())
+                .build());
+
+        StationSnapshot latest = published;
+        while (latest.version() < current && !snapshot.compareAndSet(latest, built)) {
+            latest = snapshot.get();
+        }
+        return built;
+    }
+
+    /**
+     * Moves the station to the minute of {@code timestamp} in the index unless it is already counted there or in a
+     * later minute, so the index is touched once per minute at most.
+     */
+    private void indexUpdateTime(long timestamp) {
+        if (updateTimes == null) {
+            return;
+        }
+
+        final long minute = UpdateTimeIndex.minuteOf(timestamp);
+        long indexed;
+        while (minute > (indexed = updateMinute.get())) {
+            if (updateMinute.compareAndSet(indexed, minute)) {
+                updateTimes.move(indexed, minute);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Spins until the slot is not being written and makes its sequence odd.
+     *
+     * @return the even sequence before locking, to be restored or advanced by 2 to unlock
+     */
+    private long lock(int slot) {
+        long sequence;
+        do {
+            sequence = slots.get(slot + SEQUENCE);
+        } while ((sequence & 1) != 0 || !slots.compareAndSet(slot + SEQUENCE, sequence, sequence + 1));
+        return sequence;
+    }
 
-        typesWithBuilderMethods.forEach(dataTypeAndBuilderMethod -> {
-            DataPointType dataType = dataTypeAndBuilderMethod._1();
-            BiConsumer<ImmutableAtmosphericData.Builder, DataPoint> builderAdapter = dataTypeAndBuilderMethod._2();
+    /**
+     * Only called by the writer owning the slot of the type.
+     */
+    private void store(DataPointType dataType, long timestamp, double mean, int first, int median, int last, int count) {
+        final int slot = dataType.ordinal() * SLOT_SIZE;
+        slots.set(slot + MEAN, Double.doubleToRawLongBits(mean));
+        slots.set(slot + FIRST_AND_MEDIAN, pack(first, median));
+        slots.set(slot + LAST_AND_COUNT, pack(last, count));
+        slots.set(slot + TIMESTAMP, timestamp);
+        historyFor(dataType).append(timestamp, mean, first, median, last, count);
+    }
+
+    /**
+     * Only called by the writer owning the slot of the type.
+     */
+    private SampleHistory historyFor(DataPointType dataType) {
+        SampleHistory history = histories.get(dataType.ordinal());
+        if (history == null) {
+            rollups.set(dataType.ordinal(), new HistoryRollup(rollupCapacity));
+            history = new SampleHistory(historyCapacity);
+            histories.set(dataType.ordinal(), history);
+        }
+        return history;
+    }
 
-            Option.of(dataPointByType
-                    .get(dataType))
-                    .forEach(data -> {
-                        builderAdapter.accept(builder, data);
-                    });
-        });
+    private static long pack(int high, int low) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
 
-        builder.lastUpdateTime(lastUpdateTime);
+    private static int high(long packed) {
+        return (int) (packed >>> 32);
+    }
 
-        return builder.build();
+    private static int low(long packed) {
+        return (int) packed;
     }
 }
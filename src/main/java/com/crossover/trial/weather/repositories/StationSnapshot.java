@@ -0,0 +1,54 @@
+package com.crossover.trial.weather.repositories;
+
+import com.crossover.trial.weather.domain.measurement.AtmosphericData;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.UncheckedIOException;
+
+/**
+ * Immutable view of the latest data points of one station at a version of the station, see
+ * {@link StationDataRepository#snapshot()}. The json representation is serialized once per snapshot, on first use.
+ */
+public final class StationSnapshot {
+    private static final ObjectWriter jsonWriter = new ObjectMapper().writerFor(AtmosphericData.class);
+
+    private final long version;
+
+    private final AtmosphericData data;
+
+    private volatile byte[] json;
+
+    StationSnapshot(long version, AtmosphericData data) {
+        this.version = version;
+        this.data = data;
+    }
+
+    /**
+     * @return the version of the station when this snapshot was taken, see {@link WeatherDataRepository#versionOf}
+     */
+    public long version() {
+        return version;
+    }
+
+    public AtmosphericData data() {
+        return data;
+    }
+
+    /**
+     * @return the data serialized as UTF-8 json, shared between callers and not to be modified
+     */
+    public byte[] json() {
+        byte[] serialized = json;
+        if (serialized == null) {
+            try {
+                serialized = jsonWriter.writeValueAsBytes(data);
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+            json = serialized;
+        }
+        return serialized;
+    }
+}
@@ -0,0 +1,103 @@
+package com.crossover.trial.weather.repositories;
+
+import com.crossover.trial.weather.domain.measurement.DataPoint;
+import com.crossover.trial.weather.domain.measurement.ImmutableDataPoint;
+
+import java.util.Arrays;
+
+/**
+ * Timestamped data points of one station and type, oldest first, held in primitive columns.
+ */
+public final class TimeSeries {
+    private long[] timestamps;
+    private double[] means;
+    private int[] firsts;
+    private int[] medians;
+    private int[] lasts;
+    private int[] counts;
+    private int size;
+
+    TimeSeries(int initialCapacity) {
+        final int capacity = Math.max(1, initialCapacity);
+        timestamps = new long[capacity];
+        means = new double[capacity];
+        firsts = new int[capacity];
+        medians = new int[capacity];
+        lasts = new int[capacity];
+        counts = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long timestamp(int index) {
+        return timestamps[checkIndex(index)];
+    }
+
+    public double mean(int index) {
+        return means[checkIndex(index)];
+    }
+
+    public int first(int index) {
+        return firsts[checkIndex(index)];
+    }
+
+    public int median(int index) {
+        return medians[checkIndex(index)];
+    }
+
+    public int last(int index) {
+        return lasts[checkIndex(index)];
+    }
+
+    public int count(int index) {
+        return counts[checkIndex(index)];
+    }
+
+    public DataPoint dataPoint(int index) {
+        checkIndex(index);
+        return ImmutableDataPoint.builder()
+                .mean(means[index])
+                .first(firsts[index])
+                .median(medians[index])
+                .last(lasts[index])
+                .count(counts[index])
+                .build();
+    }
+
+    void add(long timestamp, double mean, int first, int median, int last, int count) {
+        if (size == timestamps.length) {
+            final int capacity = size * 2;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            means = Arrays.copyOf(means, capacity);
+            firsts = Arrays.copyOf(firsts, capacity);
+            medians = Arrays.copyOf(medians, capacity);
+            lasts = Arrays.copyOf(lasts, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+
+        timestamps[size] = timestamp;
+        means[size] = mean;
+        firsts[size] = first;
+        medians[size] = median;
+        lasts[size] = last;
+        counts[size] = count;
+        size++;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        return index;
+    }
+}
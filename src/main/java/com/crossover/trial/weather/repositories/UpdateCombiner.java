@@ -0,0 +1,191 @@
+package com.crossover.trial.weather.repositories;
+
+import com.crossover.trial.weather.domain.measurement.DataPoint;
+import com.crossover.trial.weather.domain.measurement.DataPointType;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Applies the updates of one shard of stations by flat combining: each thread publishes its update in a record of
+ * its own, and whichever thread gets hold of the shard applies all published updates in one pass. The stations of
+ * the shard see a single writer at a time, so their slots are locked without contention, and a waiting thread only
+ * reads its own record instead of competing for the slot of a hot station. A waiting thread spins
+ * {@link #SPINS_BEFORE_PARK} times and then parks until the combining thread applied its update, so a slow update,
+ * e.g. one waiting for the write ahead log, does not keep the other threads of the shard busy.
+ * <p>
+ * Updates stay synchronous: {@link #update} returns once its update was applied, with its result or its failure.
+ * An update made by the combining thread itself, e.g. by a listener, is applied directly.
+ */
+class UpdateCombiner {
+
+    /**
+     * applies one update to the stations of the shard
+     */
+    interface Target {
+        /**
+         * @param data the data point, or {@code null} if it is given by its fields
+         * @return {@code true} if the data point was accepted
+         */
+        boolean update(String stationId, DataPointType dataType, DataPoint data,
+                       double mean, int first, int median, int last, int count);
+    }
+
+    private static final int IDLE = 0;
+    private static final int PENDING = 1;
+    private static final int DONE = 2;
+
+    private static final int SPINS_BEFORE_PARK = 64;
+
+    private final Target target;
+
+    /**
+     * the records of all threads which updated the shard, the latest first
+     */
+    private final AtomicReference<Request> requests = new AtomicReference<>();
+
+    /**
+     * the thread applying the published updates, {@code null} if none is
+     */
+    private final AtomicReference<Thread> combiner = new AtomicReference<>();
+
+    private final ThreadLocal<Request> ownRequest = ThreadLocal.withInitial(this::register);
+
+    private static final class Request {
+        private final Thread owner;
+        private volatile Request next;
+        private volatile int state;
+
+        private String stationId;
+        private DataPointType dataType;
+        private DataPoint data;
+        private double mean;
+        private int first;
+        private int median;
+        private int last;
+        private int count;
+
+        private boolean accepted;
+        private Throwable failure;
+
+        private Request(Thread owner) {
+            this.owner = owner;
+        }
+    }
+
+    UpdateCombiner(Target target) {
+        this.target = target;
+    }
+
+    /**
+     * Publishes the update and waits until it was applied, applying the published updates of other threads as well
+     * if no other thread does.
+     *
+     * @return the result of {@link Target#update}
+     */
+    boolean update(String stationId, DataPointType dataType, DataPoint data,
+                   double mean, int first, int median, int last, int count) {
+        if (combiner.get() == Thread.currentThread()) {
+            return target.update(stationId, dataType, data, mean, first, median, last, count);
+        }
+
+        final Request request = ownRequest.get();
+        request.stationId = stationId;
+        request.dataType = dataType;
+        request.data = data;
+        request.mean = mean;
+        request.first = first;
+        request.median = median;
+        request.last = last;
+        request.count = count;
+        request.state = PENDING;
+
+        int spins = 0;
+        boolean interrupted = false;
+        while (request.state != DONE) {
+            if (combiner.get() == null && combiner.compareAndSet(null, Thread.currentThread())) {
+                try {
+                    combine();
+                } finally {
+                    release();
+                }
+            } else if (spins < SPINS_BEFORE_PARK) {
+                spins++;
+            } else {
+                LockSupport.park(this);
+                interrupted |= Thread.interrupted();
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        final boolean accepted = request.accepted;
+        final Throwable failure = request.failure;
+        request.stationId = null;
+        request.data = null;
+        request.failure = null;
+        request.state = IDLE;
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw (RuntimeException) failure;
+        }
+        return accepted;
+    }
+
+    /**
+     * Applies the pending updates in one pass and unlinks the records of threads which terminated. The first record
+     * is never unlinked, so registering only races with the combining thread on {@link #requests}.
+     */
+    private void combine() {
+        Request previous = null;
+        for (Request request = requests.get(); request != null; request = request.next) {
+            final int state = request.state;
+            if (state == PENDING) {
+                apply(request);
+            } else if (state == IDLE && previous != null && !request.owner.isAlive()) {
+                previous.next = request.next;
+                continue;
+            }
+            previous = request;
+        }
+    }
+
+    /**
+     * Stops combining and wakes the owner of a request published after the pass, which parked seeing this thread
+     * combine and would otherwise wait for a pass no thread makes. Its owner takes over the pending requests.
+     */
+    private void release() {
+        combiner.set(null);
+        for (Request request = requests.get(); request != null; request = request.next) {
+            if (request.state == PENDING) {
+                LockSupport.unpark(request.owner);
+                return;
+            }
+        }
+    }
+
+    private void apply(Request request) {
+        try {
+            request.accepted = target.update(request.stationId, request.dataType, request.data,
+                    request.mean, request.first, request.median, request.last, request.count);
+        } catch (RuntimeException | Error e) {
+            request.failure = e;
+        }
+        request.state = DONE;
+        if (request.owner != Thread.currentThread()) {
+            LockSupport.unpark(request.owner);
+        }
+    }
+
+    private Request register() {
+        final Request request = new Request(Thread.currentThread());
+        Request head;
+        do {
+            head = requests.get();
+            request.next = head;
+        } while (!requests.compareAndSet(head, request));
+        return request;
+    }
+}
@@ -0,0 +1,120 @@
+package com.crossover.trial.weather.repositories;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts stations by the minute of their last update, so the number of stations updated since a point in time is
+ * a sum over at most {@link #MINUTES} minute buckets instead of a scan over all stations.
+ * <p>
+ * The buckets form a ring, each holds the minute it counts in its upper and the count in its lower 32 bits. A
+ * bucket is taken over by a later minute as soon as a station moves there, stations which last updated before the
+ * ring wrapped are no longer counted. Stations move at most once per minute, see
+ * {@link StationDataRepository}, so most updates do not touch the index at all.
+ */
+final class UpdateTimeIndex {
+    static final long MINUTE_MILLIS = 60000;
+
+    /**
+     * a bit more than a day, the ring is a power of two
+     */
+    static final int MINUTES = 2048;
+
+    /**
+     * the minute of a station which was never updated
+     */
+    static final long NEVER = Long.MIN_VALUE;
+
+    private static final long COUNT_MASK = 0xffffffffL;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(MINUTES);
+
+    static long minuteOf(long timestamp) {
+        return Math.floorDiv(timestamp, MINUTE_MILLIS);
+    }
+
+    /**
+     * Moves a station from the minute of its previous last update to that of its current one.
+     *
+     * @param from the previous minute or {@link #NEVER}
+     * @param to   the current minute, later than {@code from}
+     */
+    void move(long from, long to) {
+        increment(to);
+        if (from != NEVER) {
+            decrement(from);
+        }
+    }
+
+    /**
+     * Forgets a station whose last update was in the given minute.
+     */
+    void remove(long minute) {
+        if (minute != NEVER) {
+            decrement(minute);
+        }
+    }
+
+    /**
+     * @param since the earliest time of interest; stations updated in the same minute, but before it, are counted
+     *              as well
+     * @param now   the current time, later updates are not counted
+     * @return the number of stations whose last update is between {@code since} and {@code now}, at most the last
+     * {@link #MINUTES} minutes are taken into account
+     */
+    long countSince(long since, long now) {
+        final long last = minuteOf(now);
+        final long first = Math.max(minuteOf(since), last - MINUTES + 1);
+
+        long count = 0;
+        for (long minute = first; minute <= last; minute++) {
+            final long bucket = buckets.get(slotOf(minute));
+            if (tagOf(bucket) == (int) minute) {
+                count += bucket & COUNT_MASK;
+            }
+        }
+        return count;
+    }
+
+    private void increment(long minute) {
+        final int slot = slotOf(minute);
+        final int tag = (int) minute;
+        while (true) {
+            final long bucket = buckets.get(slot);
+            final int bucketTag = tagOf(bucket);
+            final long updated;
+            if (bucketTag == tag) {
+                updated = bucket + 1;
+            } else if (bucket == 0 || tag - bucketTag > 0) {
+                // the bucket still counts a minute which left the ring
+                updated = ((long) tag << 32) | 1;
+            } else {
+                // the minute itself left the ring already
+                return;
+            }
+            if (buckets.compareAndSet(slot, bucket, updated)) {
+                return;
+            }
+        }
+    }
+
+    private void decrement(long minute) {
+        final int slot = slotOf(minute);
+        while (true) {
+            final long bucket = buckets.get(slot);
+            if (tagOf(bucket) != (int) minute || (bucket & COUNT_MASK) == 0) {
+                return;
+            }
+            if (buckets.compareAndSet(slot, bucket, bucket - 1)) {
+                return;
+            }
+        }
+    }
+
+    private static int slotOf(long minute) {
+        return (int) (minute & (MINUTES - 1));
+    }
+
+    private static int tagOf(long bucket) {
+        return (int) (bucket >>> 32);
+    }
+}
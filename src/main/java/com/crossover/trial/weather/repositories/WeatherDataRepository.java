@@ -3,23 +3,153 @@ package com.crossover.trial.weather.repositories;
 import com.crossover.trial.weather.domain.measurement.AtmosphericData;
 import com.crossover.trial.weather.domain.measurement.DataPoint;
 import com.crossover.trial.weather.domain.measurement.DataPointType;
+import com.crossover.trial.weather.lib.TimerWheel;
+import com.crossover.trial.weather.lib.TimestampFactory;
 import javaslang.collection.Seq;
 import javaslang.collection.Stream;
 import javaslang.control.Option;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.inject.Provider;
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * The {@link StationDataRepository} of each station, created by the first update of the station.
+ * <p>
+ * Stations which did not accept a data point for {@code weather.station.ttl} milliseconds are evicted, a TTL of 0
+ * keeps them forever. Each station is scheduled in a {@link TimerWheel} of {@code weather.station.ttl-tick}
+ * milliseconds per slot once when it is created. Updates never touch the wheel: when a station comes due, the sweep
+ * evicts it if it is idle and otherwise schedules it again for the end of the TTL of its latest update, so each
+ * station costs the sweep constant time per TTL. A station is only evicted once it is
+ * {@link StationDataRepository#retireIfIdleSince retired}, which no update can race with: an update arriving at a
+ * retired station waits until it is removed and goes to a new one, after its removal was reported. A station
+ * created for an id which was removed before starts above every version a removed station reached, so the
+ * {@link #versionOf version} of an id never repeats.
+ * <p>
+ * The stations are split into {@code weather.ingest.shards} shards by the hash of their id, rounded up to a power of
+ * two; 0 takes one shard per processor. Each shard has its own map, and with {@code weather.ingest.combining} its
+ * updates are applied one at a time by an {@link UpdateCombiner}, so collectors updating the same hot station do not
+ * compete for its slots. Reads never wait for updates.
+ */
 @Component
 public class WeatherDataRepository {
 
-    private final ConcurrentHashMap<String, StationDataRepository> stationDataRepositoryByStationId = new ConcurrentHashMap<>();
+    /**
+     * the {@link #versionOf version} of stations which are not known
+     */
+    public static final long NO_STATION = -1L;
+
+    /**
+     * the {@link #lastUpdateTimeOf last update time} of stations or types without data
+     */
+    public static final long NEVER_UPDATED = Long.MIN_VALUE;
+
+    /**
+     * a bit more than two days with the default tick of a minute, longer TTLs take more than one revolution
+     */
+    private static final int IDLE_STATION_SLOTS = 4096;
+
+    private Shard[] shards = createShards(0);
+
+    private final UpdateTimeIndex updateTimes = new UpdateTimeIndex();
+
+    /**
+     * copied on write, an array so notifying does not allocate an iterator
+     */
+    private volatile WeatherListener[] listeners = new WeatherListener[0];
+
+    private final WeatherListener listenerDispatcher = new WeatherListener() {
+        @Override
+        public void weatherUpdated(String stationId, DataPointType dataType, long sequence, long timestamp,
+                                   double mean, int first, int median, int last, int count) {
+            for (WeatherListener listener : listeners) {
+                listener.weatherUpdated(stationId, dataType, sequence, timestamp, mean, first, median, last, count);
+            }
+        }
+
+        @Override
+        public void stationRemoved(String stationId) {
+            for (WeatherListener listener : listeners) {
+                listener.stationRemoved(stationId);
+            }
+        }
+    };
 
     @Inject
     private Provider<StationDataRepository> stationDataRepositoryProvider;
 
+    @Inject
+    private TimestampFactory timestampFactory;
+
+    @Value("${weather.station.ttl:604800000}")
+    private long stationTtl = 604800000L;
+
+    @Value("${weather.station.ttl-tick:60000}")
+    private long stationTtlTick = 60000L;
+
+    /**
+     * stations by the time they may be idle for the TTL, {@code null} if stations are kept forever
+     */
+    private TimerWheel<StationDataRepository> idleStations;
+
+    private final LongAdder evictedStations = new LongAdder();
+
+    /**
+     * the first version of new stations, above the last version of every removed station
+     */
+    private final AtomicLong firstVersion = new AtomicLong();
+
+    @Value("${weather.ingest.shards:0}")
+    private int shardCount;
+
+    @Value("${weather.ingest.combining:true}")
+    private boolean combining = true;
+
+    private final class Shard implements UpdateCombiner.Target {
+        private final ConcurrentHashMap<String, StationDataRepository> stations = new ConcurrentHashMap<>();
+        private final UpdateCombiner combiner = new UpdateCombiner(this);
+
+        /**
+         * advanced after every change of the {@link #versionOf version} of a station of the shard
+         */
+        private final AtomicLong modifications = new AtomicLong();
+
+        @Override
+        public boolean update(String stationId, DataPointType dataType, DataPoint data,
+                              double mean, int first, int median, int last, int count) {
+            while (true) {
+                final StationDataRepository station = stationDataRepositoryFor(this, stationId);
+                final boolean accepted = data != null
+                        ? station.update(dataType, data)
+                        : station.update(dataType, mean, first, median, last, count);
+                if (accepted) {
+                    modifications.incrementAndGet();
+                }
+                if (accepted || !station.isRetired()) {
+                    return accepted;
+                }
+                Thread.yield();
+            }
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        if (shardCount != 0) {
+            shards = createShards(shardCount);
+        }
+        if (stationTtl > 0) {
+            idleStations = new TimerWheel<>(stationTtlTick, IDLE_STATION_SLOTS, timestampFactory.getCurrentTimestamp());
+        }
+    }
+
     /**
      * Update data for station with stationId, creates a new {@link StationDataRepository} if {@code stationId} is not known.
      *
@@ -28,22 +158,294 @@ public class WeatherDataRepository {
      * @param data      data to be updated
      */
     public void update(String stationId, DataPointType dataType, DataPoint data) {
-        stationDataRepositoryByStationId
-                .computeIfAbsent(stationId, k -> stationDataRepositoryProvider.get())
-                .update(dataType, data);
+        update(stationId, dataType, data, 0.0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Update data for station with stationId from the individual fields of a {@link DataPoint}, without
+     * allocating once the station is known.
+     *
+     * @return {@code true} if the data passed the acceptance rule of its type
+     */
+    public boolean update(String stationId, DataPointType dataType, double mean, int first, int median, int last, int count) {
+        return update(stationId, dataType, null, mean, first, median, last, count);
+    }
+
+    /**
+     * Stores a data point which was accepted before, see {@link StationDataRepository#apply}.
+     *
+     * @return {@code false} if the station already has a data point of the type with this or a later sequence
+     */
+    public boolean apply(String stationId, DataPointType dataType, long sequence, long timestamp,
+                         double mean, int first, int median, int last, int count) {
+        final Shard shard = shardOf(stationId);
+        final boolean applied = stationDataRepositoryFor(shard, stationId).apply(dataType, sequence, timestamp, mean, first, median, last, count);
+        if (applied) {
+            shard.modifications.incrementAndGet();
+        }
+        return applied;
+    }
+
+    /**
+     * Reports the raw history of all stations to {@code target}, see {@link StationDataRepository#export}.
+     */
+    public void export(WeatherListener target) {
+        for (Shard shard : shards) {
+            shard.stations.values().forEach(station -> station.export(target));
+        }
+    }
+
+    /**
+     * Reports the rollup tiers of all stations to {@code target}, see {@link StationDataRepository#exportRollups}.
+     */
+    public void exportRollups(RollupListener target) {
+        for (Shard shard : shards) {
+            shard.stations.values().forEach(station -> station.exportRollups(target));
+        }
+    }
+
+    /**
+     * Stores an aggregate of a rollup tier which was exported before, see {@link StationDataRepository#restoreRollup}.
+     */
+    public void restoreRollup(String stationId, DataPointType dataType, Resolution resolution, long rolledUpTo,
+                              long timestamp, double mean, int first, int median, int last, int count) {
+        stationDataRepositoryFor(shardOf(stationId), stationId)
+                .restoreRollup(dataType, resolution, rolledUpTo, timestamp, mean, first, median, last, count);
+    }
+
+    public synchronized void addListener(WeatherListener listener) {
+        final WeatherListener[] extended = Arrays.copyOf(listeners, listeners.length + 1);
+        extended[listeners.length] = listener;
+        listeners = extended;
+    }
+
+    public synchronized void removeListener(WeatherListener listener) {
+        listeners = Stream.of(listeners).remove(listener).toJavaArray(WeatherListener.class);
     }
 
     public Seq<AtmosphericData> getWeatherData() {
-        return Stream.ofAll(stationDataRepositoryByStationId.values())
+        return Stream.of(shards)
+                .flatMap(shard -> shard.stations.values())
                 .map(StationDataRepository::toData);
     }
 
     public Option<AtmosphericData> getWeatherDataFor(String stationId) {
-        return Option.of(stationDataRepositoryByStationId.get(stationId))
+        return Option.of(stationOf(stationId))
                 .map(StationDataRepository::toData);
     }
 
+    /**
+     * @return the latest snapshot of the station, see {@link StationDataRepository#snapshot()}
+     */
+    public Option<StationSnapshot> getSnapshotFor(String stationId) {
+        return Option.of(stationOf(stationId))
+                .map(StationDataRepository::snapshot);
+    }
+
+    /**
+     * @return the version of the station, advanced by every data point it accepts and never repeated for a station
+     * id, or {@link #NO_STATION} if the station is not known
+     */
+    public long versionOf(String stationId) {
+        final StationDataRepository station = stationOf(stationId);
+        return station == null ? NO_STATION : station.version();
+    }
+
+    /**
+     * @return the time of the latest data point the station accepted, without reading its data, or
+     * {@link #NEVER_UPDATED} if the station is not known
+     */
+    public long lastUpdateTimeOf(String stationId) {
+        final StationDataRepository station = stationOf(stationId);
+        return station == null ? NEVER_UPDATED : station.lastUpdateTime();
+    }
+
+    /**
+     * @return the time of the latest data point of the type the station accepted, without reading its data, or
+     * {@link #NEVER_UPDATED} if the station is not known or has no data point of the type
+     */
+    public long lastUpdateTimeOf(String stationId, DataPointType dataType) {
+        final StationDataRepository station = stationOf(stationId);
+        if (station == null) {
+            return NEVER_UPDATED;
+        }
+        final long lastUpdateTime = station.lastUpdateTime(dataType);
+        return lastUpdateTime == 0L ? NEVER_UPDATED : lastUpdateTime;
+    }
+
+    /**
+     * @param from the earliest timestamp, inclusive
+     * @param to   the latest timestamp, inclusive
+     * @return the retained history of one type of the station, empty if the station is not known
+     */
+    public TimeSeries getHistoryFor(String stationId, DataPointType dataType, long from, long to) {
+        return getHistoryFor(stationId, dataType, from, to, Resolution.RAW);
+    }
+
+    /**
+     * @param from       the earliest timestamp, inclusive
+     * @param to         the latest timestamp, inclusive
+     * @param resolution the history tier to read
+     * @return the history of one type of the station at the given resolution, empty if the station is not known
+     */
+    public TimeSeries getHistoryFor(String stationId, DataPointType dataType, long from, long to, Resolution resolution) {
+        final StationDataRepository station = stationOf(stationId);
+        return station == null ? new TimeSeries(0) : station.history(dataType, from, to, resolution);
+    }
+
+    /**
+     * Rolls up the history of all stations, see {@link HistoryRollup}.
+     */
+    @Scheduled(fixedDelayString = "${weather.rollup.interval:10000}")
+    public void rollUp() {
+        for (Shard shard : shards) {
+            shard.stations.values().forEach(StationDataRepository::rollUp);
+        }
+    }
+
+    /**
+     * @param since the earliest update time of interest, rounded down to the minute and to at most 34 hours ago
+     * @param now   the current time
+     * @return the number of stations whose latest update is between {@code since} and {@code now}, without visiting
+     * the stations
+     */
+    public long countUpdatedSince(long since, long now) {
+        return updateTimes.countSince(since, now);
+    }
+
+    /**
+     * Evicts the stations which came due in the {@link #idleStations} wheel and were idle for the TTL.
+     */
+    @Scheduled(fixedDelayString = "${weather.station.ttl-tick:60000}")
+    public void evictIdleStations() {
+        if (idleStations == null) {
+            return;
+        }
+
+        final long now = timestampFactory.getCurrentTimestamp();
+        idleStations.advance(now, station -> {
+            final String stationId = station.stationId();
+            final Shard shard = shardOf(stationId);
+            if (shard.stations.get(stationId) != station) {
+                return;
+            }
+
+            if (station.lastUpdateTime() + stationTtl > now || !station.retireIfIdleSince(now - stationTtl)) {
+                if (!station.isRetired()) {
+                    idleStations.schedule(station, station.lastUpdateTime() + stationTtl);
+                }
+                return;
+            }
+
+            removeRetired(shard, stationId, station);
+            evictedStations.increment();
+        });
+    }
+
+    /**
+     * @return the number of stations evicted for being idle
+     */
+    public long evictedStationCount() {
+        return evictedStations.sum();
+    }
+
+    /**
+     * Removes the station once it is {@link StationDataRepository#retire() retired}, updates arriving meanwhile go to
+     * a new station after the removal was reported.
+     */
     public void removeStation(String stationId) {
-        stationDataRepositoryByStationId.remove(stationId);
+        final Shard shard = shardOf(stationId);
+        final StationDataRepository station = shard.stations.get(stationId);
+        if (station != null && station.retire()) {
+            removeRetired(shard, stationId, station);
+        }
+    }
+
+    /**
+     * Removes all stations like {@link #removeStation} does.
+     */
+    public void removeAllStations() {
+        for (Shard shard : shards) {
+            shard.stations.keySet().forEach(this::removeStation);
+        }
+    }
+
+    private void removeRetired(Shard shard, String stationId, StationDataRepository station) {
+        // the version of a retired station is final, new stations start above it before they can be created
+        firstVersion.accumulateAndGet(station.version() + 1, Math::max);
+        station.unbind();
+        // reported before the station leaves the map, so no update of a new station can be reported before it
+        listenerDispatcher.stationRemoved(stationId);
+        shard.stations.remove(stationId, station);
+        shard.modifications.incrementAndGet();
+    }
+
+    /**
+     * @return the number of shards the stations are split into
+     */
+    public int shardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @return the shard of the station, between 0 and {@link #shardCount()}
+     */
+    public int shardIndexOf(String stationId) {
+        final int hash = stationId.hashCode();
+        return (hash ^ (hash >>> 16)) & (shards.length - 1);
+    }
+
+    /**
+     * @return the number of modifications of the shard so far; it is advanced after a station of the shard is created
+     * or removed and after it accepted a data point, so the {@link #versionOf versions} of its stations did not change
+     * while it did not
+     */
+    public long modificationsOf(int shardIndex) {
+        return shards[shardIndex].modifications.get();
+    }
+
+    private boolean update(String stationId, DataPointType dataType, DataPoint data,
+                           double mean, int first, int median, int last, int count) {
+        final Shard shard = shardOf(stationId);
+        return combining
+                ? shard.combiner.update(stationId, dataType, data, mean, first, median, last, count)
+                : shard.update(stationId, dataType, data, mean, first, median, last, count);
+    }
+
+    private Shard[] createShards(int count) {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        final int requested = count > 0 ? count : processors;
+        final int size = requested > 1 ? Integer.highestOneBit(requested - 1) << 1 : 1;
+        final Shard[] created = new Shard[size];
+        for (int i = 0; i < size; i++) {
+            created[i] = new Shard();
+        }
+        return created;
+    }
+
+    private Shard shardOf(String stationId) {
+        return shards[shardIndexOf(stationId)];
+    }
+
+    private StationDataRepository stationOf(String stationId) {
+        return shardOf(stationId).stations.get(stationId);
+    }
+
+    private StationDataRepository stationDataRepositoryFor(Shard shard, String stationId) {
+        final StationDataRepository existing = shard.stations.get(stationId);
+        if (existing != null) {
+            return existing;
+        }
+        final StationDataRepository station = shard.stations.computeIfAbsent(stationId, k -> {
+            final StationDataRepository created = stationDataRepositoryProvider.get();
+            created.bind(k, firstVersion.get(), listenerDispatcher, updateTimes);
+            if (idleStations != null) {
+                idleStations.schedule(created, timestampFactory.getCurrentTimestamp() + stationTtl);
+            }
+            return created;
+        });
+        // once the new station is visible, also if it was created concurrently
+        shard.modifications.incrementAndGet();
+        return station;
     }
 }
@@ -0,0 +1,21 @@
+package com.crossover.trial.weather.repositories;
+
+import com.crossover.trial.weather.domain.measurement.DataPointType;
+
+/**
+ * Receives the modifications of a {@link WeatherDataRepository}. Updates are delivered by the updating thread once
+ * readers can see them, with the sequence they were applied in; updates of one station and type made concurrently,
+ * i.e. without {@code weather.ingest.combining}, may arrive out of sequence.
+ */
+public interface WeatherListener {
+
+    /**
+     * An accepted data point.
+     *
+     * @param sequence the number of data points accepted for the type at this station so far, including this one
+     */
+    void weatherUpdated(String stationId, DataPointType dataType, long sequence, long timestamp,
+                        double mean, int first, int median, int last, int count);
+
+    void stationRemoved(String stationId);
+}
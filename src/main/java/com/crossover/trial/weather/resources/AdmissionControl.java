@@ -0,0 +1,104 @@
+package com.crossover.trial.weather.resources;
+
+import com.crossover.trial.weather.lib.AimdLimiter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.crossover.trial.weather.resources.Paths.COLLECT;
+import static com.crossover.trial.weather.resources.Paths.QUERY;
+
+/**
+ * Separate {@link AimdLimiter}s for the query and the collect API, applied by the {@link AdmissionFilter}, so a
+ * flood of collectors can not hold more than {@code weather.admission.collect.max-concurrency} request threads and
+ * leaves the rest to queries, and the other way around. Each limit adapts between its {@code min-concurrency} and
+ * {@code max-concurrency} to the latency of the requests, with {@code latency-target} in milliseconds; a
+ * {@code max-concurrency} of 0 admits all requests of the API.
+ */
+@Component
+class AdmissionControl {
+
+    private static final double BACKOFF_RATIO = 0.9;
+
+    @Value("${weather.admission.query.min-concurrency:4}")
+    private int queryMinConcurrency = 4;
+
+    @Value("${weather.admission.query.max-concurrency:0}")
+    private int queryMaxConcurrency;
+
+    @Value("${weather.admission.query.latency-target:50}")
+    private long queryLatencyTarget = 50;
+
+    @Value("${weather.admission.collect.min-concurrency:2}")
+    private int collectMinConcurrency = 2;
+
+    @Value("${weather.admission.collect.max-concurrency:0}")
+    private int collectMaxConcurrency;
+
+    @Value("${weather.admission.collect.latency-target:50}")
+    private long collectLatencyTarget = 50;
+
+    /**
+     * {@code null} if the API admits all requests
+     */
+    private AimdLimiter queryLimiter;
+
+    private AimdLimiter collectLimiter;
+
+    @PostConstruct
+    void init() {
+        queryLimiter = limiter(queryMinConcurrency, queryMaxConcurrency, queryLatencyTarget);
+        collectLimiter = limiter(collectMinConcurrency, collectMaxConcurrency, collectLatencyTarget);
+    }
+
+    /**
+     * @param path the request path below the context path
+     * @return the limiter of the API the path belongs to, {@code null} if its requests are all admitted
+     */
+    AimdLimiter limiterFor(String path) {
+        if (isBelow(path, QUERY)) {
+            return queryLimiter;
+        } else if (isBelow(path, COLLECT)) {
+            return collectLimiter;
+        }
+        return null;
+    }
+
+    /**
+     * @return per limited API its current {@code limit}, the requests {@code in_flight} and the {@code rejected}
+     * count
+     */
+    Map<String, Object> statistics() {
+        final Map<String, Object> statistics = new LinkedHashMap<>();
+        if (queryLimiter != null) {
+            statistics.put("query", statisticsOf(queryLimiter));
+        }
+        if (collectLimiter != null) {
+            statistics.put("collect", statisticsOf(collectLimiter));
+        }
+        return statistics;
+    }
+
+    private static AimdLimiter limiter(int minConcurrency, int maxConcurrency, long latencyTarget) {
+        return maxConcurrency > 0
+                ? new AimdLimiter(Math.max(1, Math.min(minConcurrency, maxConcurrency)), maxConcurrency,
+                TimeUnit.MILLISECONDS.toNanos(latencyTarget), BACKOFF_RATIO)
+                : null;
+    }
+
+    private static boolean isBelow(String path, String prefix) {
+        return path.startsWith(prefix) && (path.length() == prefix.length() || path.charAt(prefix.length()) == '/');
+    }
+
+    private static Map<String, Long> statisticsOf(AimdLimiter limiter) {
+        final Map<String, Long> statistics = new LinkedHashMap<>();
+        statistics.put("limit", (long) limiter.limit());
+        statistics.put("in_flight", (long) limiter.inFlight());
+        statistics.put("rejected", limiter.rejectedCount());
+        return statistics;
+    }
+}
@@ -0,0 +1,67 @@
+package com.crossover.trial.weather.resources;
+
+import com.crossover.trial.weather.lib.AimdLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Admits requests to the query and collect API within the limits of the {@link AdmissionControl}, answering
+ * requests over the limit with 503 before they reach Jersey. The latency of an admitted request includes writing
+ * its response.
+ */
+@WebFilter(urlPatterns = "/*")
+public class AdmissionFilter implements Filter {
+    private final static Logger log = LoggerFactory.getLogger(AdmissionFilter.class);
+
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    @Inject
+    private AdmissionControl admissionControl;
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        final HttpServletRequest httpRequest = (HttpServletRequest) request;
+        final AimdLimiter limiter = admissionControl.limiterFor(
+                httpRequest.getRequestURI().substring(httpRequest.getContextPath().length()));
+        if (limiter == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        if (!limiter.tryAcquire()) {
+            log.trace("rejected {} at a limit of {}", httpRequest.getRequestURI(), limiter.limit());
+            final HttpServletResponse httpResponse = (HttpServletResponse) response;
+            httpResponse.setHeader("Retry-After", RETRY_AFTER_SECONDS);
+            httpResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            limiter.release(start, System.nanoTime());
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
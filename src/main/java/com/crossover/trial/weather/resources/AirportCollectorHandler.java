@@ -0,0 +1,96 @@
+package com.crossover.trial.weather.resources;
+
+import com.crossover.trial.weather.domain.Airport;
+import com.crossover.trial.weather.domain.ImmutableAirport;
+import com.crossover.trial.weather.repositories.AirportRepository;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.springframework.stereotype.Component;
+
+import javax.inject.Inject;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bulk airport import behind {@link CollectorResource}. All airports of a batch are added to the repository at once,
+ * so the index is rebuilt once per batch instead of once per airport.
+ */
+@Component
+class AirportCollectorHandler {
+
+    @Inject
+    private AirportRepository airportRepository;
+
+    /**
+     * Adds a stream of records of the form {@code {"iata": "BOS", "latitude": 42.36, "longitude": -71.0}}, either
+     * as a json array or as json lines. Records read before a json error are still added.
+     *
+     * @param records the record stream
+     * @return {@code accepted} and {@code rejected} counts, one status code per record in {@code statuses} and an
+     * {@code error} message if the stream was not valid json. The status codes are those of
+     * {@link CollectorAirportResource#addAirport}: {@code FORBIDDEN} for airports which already exist or occur
+     * twice in the batch, {@code BAD_REQUEST} for invalid codes or missing coordinates, {@code OK} otherwise
+     */
+    Map<String, Object> addAll(Reader records) {
+        final Map<String, Airport> airports = new LinkedHashMap<>();
+        final Map<String, Object> result = JsonRecords.readAll(records, reader -> addFromRecord(reader, airports));
+
+        airportRepository.addAirports(airports.values());
+        return result;
+    }
+
+    private Response.Status addFromRecord(JsonReader reader, Map<String, Airport> airports) throws IOException {
+        String iataCode = null;
+        Double latitude = null;
+        Double longitude = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if ("iata".equals(name) && reader.peek() == JsonToken.STRING) {
+                iataCode = reader.nextString();
+            } else if ("latitude".equals(name)) {
+                latitude = readCoordinate(reader);
+            } else if ("longitude".equals(name)) {
+                longitude = readCoordinate(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!AirportRepository.isValidIataCode(iataCode) || latitude == null || longitude == null) {
+            return Response.Status.BAD_REQUEST;
+        }
+        if (airports.containsKey(iataCode) || airportRepository.hasAirport(iataCode)) {
+            return Response.Status.FORBIDDEN;
+        }
+
+        airports.put(iataCode, ImmutableAirport.builder()
+                .iataCode(iataCode)
+                .latitude(latitude)
+                .longitude(longitude)
+                .build());
+        return Response.Status.OK;
+    }
+
+    /**
+     * @return the coordinate given as json number or string, {@code null} if it is neither or not a number
+     */
+    private static Double readCoordinate(JsonReader reader) throws IOException {
+        final JsonToken value = reader.peek();
+        if (value != JsonToken.NUMBER && value != JsonToken.STRING) {
+            reader.skipValue();
+            return null;
+        }
+
+        try {
+            return Double.valueOf(reader.nextString());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
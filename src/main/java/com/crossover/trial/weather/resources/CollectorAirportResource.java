@@ -57,7 +57,7 @@ public class CollectorAirportResource {
      * @param iataCode        the 3 letter airport code of the new airport
      * @param latitudeString  the airport's latitude in degrees as a string [-90, 90]
      * @param longitudeString the airport's longitude in degrees as a string [-180, 180]
-     * @return HTTP Response code for the add operation
+     * @return HTTP Response code for the add operation, 400 if the code or coordinates can not be parsed
      */
     @POST
     @Path("/{" + LATITUDE + "}/{" + LONGITUDE + "}")
@@ -70,9 +70,14 @@ public class CollectorAirportResource {
         }
         log.debug("addAirport({}, {}, {})", iataCode, latitudeString, longitudeString);
 
-        final Double longitude = Double.valueOf(longitudeString);
-        final Double latitude = Double.valueOf(latitudeString);
-        airportRepository.addAirport(iataCode, latitude, longitude);
+        try {
+            final Double longitude = Double.valueOf(longitudeString);
+            final Double latitude = Double.valueOf(latitudeString);
+            airportRepository.addAirport(iataCode, latitude, longitude);
+        } catch (IllegalArgumentException e) {
+            log.debug("addAirport({}, {}, {}) rejected: {}", iataCode, latitudeString, longitudeString, e.getMessage());
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
 
         return Response.status(Response.Status.OK).build();
     }
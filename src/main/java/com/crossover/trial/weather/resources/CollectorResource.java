@@ -1,11 +1,8 @@
 package com.crossover.trial.weather.resources;
 
 import com.crossover.trial.weather.domain.Airport;
-import com.crossover.trial.weather.domain.measurement.DataPoint;
 import com.crossover.trial.weather.domain.measurement.DataPointType;
 import com.crossover.trial.weather.repositories.AirportRepository;
-import com.crossover.trial.weather.repositories.WeatherDataRepository;
-import com.google.gson.Gson;
 import javaslang.collection.Seq;
 import javaslang.collection.Set;
 import org.slf4j.Logger;
@@ -20,9 +17,14 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
 
 import static com.crossover.trial.weather.resources.Paths.AIRPORT;
 import static com.crossover.trial.weather.resources.Paths.AIRPORTS;
+import static com.crossover.trial.weather.resources.Paths.BATCH;
 import static com.crossover.trial.weather.resources.Paths.COLLECT;
 import static com.crossover.trial.weather.resources.Paths.IATA_CODE;
 import static com.crossover.trial.weather.resources.Paths.PING;
@@ -40,13 +42,13 @@ public class CollectorResource {
     private final static Logger log = LoggerFactory.getLogger(CollectorResource.class);
 
     @Inject
-    private Gson gson;
+    private AirportRepository airportRepository;
 
     @Inject
-    private AirportRepository airportRepository;
+    private WeatherCollectorHandler weatherCollectorHandler;
 
     @Inject
-    private WeatherDataRepository weatherDataRepository;
+    private AirportCollectorHandler airportCollectorHandler;
 
     /**
      * A liveliness check for the collection endpoint.
@@ -65,24 +67,43 @@ public class CollectorResource {
      *
      * @param iataCode      the 3 letter airport code
      * @param pointType     the point type, {@link DataPointType} for a complete list
-     * @param datapointJson a json dict containing mean, first, second, thrid and count keys
-     * @return HTTP Response code
+     * @param datapointJson a json dict containing mean, first, median, last and count keys
+     * @return HTTP Response code, 406 for unknown airports and 400 for unknown point types or malformed json; 202
+     * if the data point was queued and 429 if the queue was full, see {@link WeatherIngestQueue}
      */
     @POST
     @Path(WEATHER + "/{" + IATA_CODE + "}/{" + POINT_TYPE + "}")
     public Response updateWeather(@PathParam(IATA_CODE) String iataCode,
                                   @PathParam(POINT_TYPE) String pointType, String datapointJson) {
+        final Response.StatusType status = weatherCollectorHandler.update(iataCode, pointType, datapointJson);
 
-        if (airportRepository.getAirport(iataCode).isEmpty()) {
-            log.debug("updateWeather({}, {}, {}) not accepted", iataCode, pointType, datapointJson);
-            return Response.status(Response.Status.NOT_ACCEPTABLE).build();
+        if (log.isTraceEnabled()) {
+            log.trace("updateWeather({}, {}, {}) {}", iataCode, pointType, datapointJson, status);
         }
-        log.debug("updateWeather({}, {}, {})", iataCode, pointType, datapointJson);
 
-        final DataPointType dataPointType = DataPointType.valueOf(pointType.toUpperCase());
-        weatherDataRepository.update(iataCode, dataPointType, gson.fromJson(datapointJson, DataPoint.class));
+        return Response.status(status).build();
+    }
+
+    /**
+     * Update many stations and point types at once. The body is a json array or json lines of records like
+     * {@code {"iata": "BOS", "pointType": "wind", "dataPoint": {"mean": 22.0, ...}}} and is applied while it is
+     * read, so it is never held in memory as a whole.
+     *
+     * @param records the streamed records
+     * @return HTTP Response code 400 if the body is not valid json, 200 otherwise, with the accepted and rejected
+     * counts and the status code {@link #updateWeather} would have returned for each record
+     */
+    @POST
+    @Path(WEATHER + BATCH)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response updateWeatherBatch(InputStream records) {
+        final Map<String, Object> result =
+                weatherCollectorHandler.updateAll(new InputStreamReader(records, StandardCharsets.UTF_8));
+
+        log.debug("updateWeatherBatch() accepted {}, rejected {}", result.get("accepted"), result.get("rejected"));
 
-        return Response.status(Response.Status.OK).build();
+        final Response.Status status = result.containsKey("error") ? Response.Status.BAD_REQUEST : Response.Status.OK;
+        return Response.status(status).entity(result).build();
     }
 
     /**
@@ -102,6 +123,27 @@ public class CollectorResource {
         return Response.status(Response.Status.OK).entity(iataCodes.toJavaList()).build();
     }
 
+    /**
+     * Add many airports at once. The body is a json array or json lines of records like
+     * {@code {"iata": "BOS", "latitude": 42.364347, "longitude": -71.005181}}.
+     *
+     * @param records the streamed records
+     * @return HTTP Response code 400 if the body is not valid json, 200 otherwise, with the accepted and rejected
+     * counts and the status code {@link CollectorAirportResource#addAirport} would have returned for each record
+     */
+    @POST
+    @Path(AIRPORTS + BATCH)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response addAirportBatch(InputStream records) {
+        final Map<String, Object> result =
+                airportCollectorHandler.addAll(new InputStreamReader(records, StandardCharsets.UTF_8));
+
+        log.debug("addAirportBatch() accepted {}, rejected {}", result.get("accepted"), result.get("rejected"));
+
+        final Response.Status status = result.containsKey("error") ? Response.Status.BAD_REQUEST : Response.Status.OK;
+        return Response.status(status).entity(result).build();
+    }
+
     @Path(AIRPORT + "/{" + IATA_CODE + "}")
     public Class<CollectorAirportResource> collectorAirportSubResource() {
         log.trace("collectorAirportSubResource()");
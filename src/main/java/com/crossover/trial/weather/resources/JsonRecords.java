@@ -0,0 +1,88 @@
+package com.crossover.trial.weather.resources;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import javax.ws.rs.core.Response;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the body of a batch request, a stream of json objects given either as a json array or as json lines, and
+ * hands each record to a {@link RecordHandler} as it is read. Only the status code per record is kept.
+ */
+final class JsonRecords {
+
+    /**
+     * Consumes exactly one json object from the reader and returns the status code the equivalent single record
+     * request would have returned.
+     */
+    interface RecordHandler {
+        Response.Status handle(JsonReader reader) throws IOException;
+    }
+
+    private JsonRecords() {
+    }
+
+    /**
+     * @param records the record stream
+     * @param handler applied to every record in order
+     * @return {@code accepted} and {@code rejected} counts, one status code per record in {@code statuses} and an
+     * {@code error} message if the stream was not valid json
+     */
+    static Map<String, Object> readAll(Reader records, RecordHandler handler) {
+        final JsonReader reader = new JsonReader(records);
+        reader.setLenient(true);
+
+        final Map<String, Object> result = new HashMap<>();
+        int[] statuses = new int[64];
+        int recordCount = 0;
+        int acceptedCount = 0;
+
+        try {
+            final JsonToken first = peekFirst(reader);
+            final boolean array = first == JsonToken.BEGIN_ARRAY;
+            if (array) {
+                reader.beginArray();
+            }
+
+            while (first != JsonToken.END_DOCUMENT && (array ? reader.hasNext() : reader.peek() != JsonToken.END_DOCUMENT)) {
+                final Response.Status status = handler.handle(reader);
+                if (recordCount == statuses.length) {
+                    statuses = Arrays.copyOf(statuses, statuses.length * 2);
+                }
+                statuses[recordCount++] = status.getStatusCode();
+                if (status == Response.Status.OK) {
+                    acceptedCount++;
+                }
+            }
+
+            if (array) {
+                reader.endArray();
+            }
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            result.put("error", "record " + recordCount + ": " + e.getMessage());
+        }
+
+        result.put("accepted", acceptedCount);
+        result.put("rejected", recordCount - acceptedCount);
+        result.put("statuses", Arrays.copyOf(statuses, recordCount));
+        return result;
+    }
+
+    /**
+     * Like {@link JsonReader#peek()}, but reports an empty stream as {@link JsonToken#END_DOCUMENT} instead of
+     * failing.
+     */
+    private static JsonToken peekFirst(JsonReader reader) throws IOException {
+        try {
+            return reader.peek();
+        } catch (EOFException e) {
+            return JsonToken.END_DOCUMENT;
+        }
+    }
+}
@@ -8,12 +8,26 @@ class Paths {
     static final String AIRPORT = "/airport";
     static final String QUERY = "/query";
     static final String EXIT = "/exit";
+    static final String BATCH = "/batch";
+    static final String HISTORY = "/history";
+    static final String NEAREST = "/nearest";
+    static final String POINT = "/point";
+    static final String BBOX = "/bbox";
 
     static final String IATA_CODE = "iataCode";
     static final String POINT_TYPE = "pointType";
     static final String LONGITUDE = "longitude";
     static final String LATITUDE = "latitude";
     static final String RADIUS = "radius";
+    static final String FROM = "from";
+    static final String TO = "to";
+    static final String RESOLUTION = "resolution";
+    static final String COUNT = "count";
+    static final String MAX_AGE = "maxAge";
+    static final String MIN_LATITUDE = "minLatitude";
+    static final String MIN_LONGITUDE = "minLongitude";
+    static final String MAX_LATITUDE = "maxLatitude";
+    static final String MAX_LONGITUDE = "maxLongitude";
 
 
 }
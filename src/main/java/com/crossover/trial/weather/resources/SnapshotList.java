@@ -0,0 +1,46 @@
+package com.crossover.trial.weather.resources;
+
+import com.crossover.trial.weather.domain.measurement.AtmosphericData;
+import com.crossover.trial.weather.repositories.StationSnapshot;
+import javaslang.collection.Seq;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * The weather of several stations as a list of {@link AtmosphericData}. It is written as a json array of the json
+ * cached by each snapshot, so stations which did not change since they were last requested are not serialized
+ * again and the array is never copied into one buffer.
+ */
+final class SnapshotList extends AbstractList<AtmosphericData> implements RandomAccess, StreamingOutput {
+    private final StationSnapshot[] snapshots;
+
+    SnapshotList(Seq<StationSnapshot> snapshots) {
+        this.snapshots = snapshots.toJavaArray(StationSnapshot.class);
+    }
+
+    @Override
+    public AtmosphericData get(int index) {
+        return snapshots[index].data();
+    }
+
+    @Override
+    public int size() {
+        return snapshots.length;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        output.write('[');
+        for (int i = 0; i < snapshots.length; i++) {
+            if (i > 0) {
+                output.write(',');
+            }
+            output.write(snapshots[i].json());
+        }
+        output.write(']');
+    }
+}
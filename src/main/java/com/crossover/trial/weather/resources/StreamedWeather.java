@@ -0,0 +1,71 @@
+package com.crossover.trial.weather.resources;
+
+import com.crossover.trial.weather.repositories.StationSnapshot;
+import com.crossover.trial.weather.repositories.WeatherDataRepository;
+import javaslang.control.Option;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * The weather of the stations found by a scan of the airport index, written while the index is scanned: each station
+ * is looked up when the scan reaches it and its cached json goes straight to the output, so the memory taken by a
+ * response does not grow with the number of stations.
+ */
+final class StreamedWeather implements StreamingOutput {
+    private final WeatherDataRepository weatherDataRepository;
+    private final Stations stations;
+
+    /**
+     * A scan of the airport index, e.g. {@code action -> airportRepository.forEachAirportWithin(center, radius, action)}.
+     */
+    interface Stations {
+        void forEach(Consumer<String> action);
+    }
+
+    StreamedWeather(WeatherDataRepository weatherDataRepository, Stations stations) {
+        this.weatherDataRepository = weatherDataRepository;
+        this.stations = stations;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        output.write('[');
+        try {
+            stations.forEach(new StationWriter(output));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        output.write(']');
+    }
+
+    private class StationWriter implements Consumer<String> {
+        private final OutputStream output;
+        private boolean first = true;
+
+        private StationWriter(OutputStream output) {
+            this.output = output;
+        }
+
+        @Override
+        public void accept(String stationId) {
+            final Option<StationSnapshot> snapshot = weatherDataRepository.getSnapshotFor(stationId);
+            if (snapshot.isEmpty()) {
+                return;
+            }
+
+            try {
+                if (!first) {
+                    output.write(',');
+                }
+                output.write(snapshot.get().json());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            first = false;
+        }
+    }
+}
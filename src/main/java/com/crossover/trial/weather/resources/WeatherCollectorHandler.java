@@ -0,0 +1,182 @@
+package com.crossover.trial.weather.resources;
+
+import com.crossover.trial.weather.domain.measurement.DataPointType;
+import com.crossover.trial.weather.lib.DataPointJsonReader;
+import com.crossover.trial.weather.repositories.AirportRepository;
+import com.crossover.trial.weather.repositories.WeatherDataRepository;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.springframework.stereotype.Component;
+
+import javax.inject.Inject;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+
+/**
+ * The ingest path behind {@link CollectorResource}. Validates and stores data points without allocating once the
+ * station is known: the airport is looked up by packed code, the type without upper casing and the json is read
+ * into primitives by a {@link DataPointJsonReader} owned by the calling thread.
+ * <p>
+ * Single data points are handed to the {@link WeatherIngestQueue} if it is enabled, batches are always stored
+ * while they are read.
+ */
+@Component
+class WeatherCollectorHandler {
+    private static final ThreadLocal<DataPointJsonReader> dataPointReaders = ThreadLocal.withInitial(DataPointJsonReader::new);
+
+    private static final int MEAN = 1;
+    private static final int FIRST = 1 << 1;
+    private static final int MEDIAN = 1 << 2;
+    private static final int LAST = 1 << 3;
+    private static final int COUNT = 1 << 4;
+    private static final int ALL_FIELDS = MEAN | FIRST | MEDIAN | LAST | COUNT;
+
+    /**
+     * 429, which {@link Response.Status} of JAX-RS 2.0 does not know yet
+     */
+    static final Response.StatusType TOO_MANY_REQUESTS = new Response.StatusType() {
+        @Override
+        public int getStatusCode() {
+            return 429;
+        }
+
+        @Override
+        public Response.Status.Family getFamily() {
+            return Response.Status.Family.CLIENT_ERROR;
+        }
+
+        @Override
+        public String getReasonPhrase() {
+            return "Too Many Requests";
+        }
+    };
+
+    @Inject
+    private AirportRepository airportRepository;
+
+    @Inject
+    private WeatherDataRepository weatherDataRepository;
+
+    @Inject
+    private WeatherIngestQueue ingestQueue;
+
+    /**
+     * @param iataCode      the 3 letter airport code
+     * @param pointType     the point type, {@link DataPointType} for a complete list
+     * @param datapointJson a json dict containing mean, first, median, last and count keys
+     * @return {@code NOT_ACCEPTABLE} for unknown airports, {@code BAD_REQUEST} for unknown types or malformed
+     * json, {@code ACCEPTED} if the data point was queued, {@link #TOO_MANY_REQUESTS} if the queue was full and
+     * {@code OK} if it was stored
+     */
+    Response.StatusType update(String iataCode, String pointType, String datapointJson) {
+        if (iataCode == null || !airportRepository.hasAirport(iataCode)) {
+            return Response.Status.NOT_ACCEPTABLE;
+        }
+
+        final DataPointType dataPointType = typeOf(pointType);
+        final DataPointJsonReader reader = dataPointReaders.get();
+        if (dataPointType == null || datapointJson == null || !reader.read(datapointJson)) {
+            return Response.Status.BAD_REQUEST;
+        }
+
+        if (ingestQueue.isEnabled()) {
+            return ingestQueue.offer(iataCode, dataPointType,
+                    reader.mean(), reader.first(), reader.median(), reader.last(), reader.count())
+                    ? Response.Status.ACCEPTED
+                    : TOO_MANY_REQUESTS;
+        }
+
+        weatherDataRepository.update(iataCode, dataPointType,
+                reader.mean(), reader.first(), reader.median(), reader.last(), reader.count());
+
+        return Response.Status.OK;
+    }
+
+    /**
+     * Applies a stream of records of the form {@code {"iata": "BOS", "pointType": "wind", "dataPoint": {...}}},
+     * either as a json array or as json lines. Records are applied as they are read, only their status codes are
+     * kept.
+     *
+     * @param records the record stream
+     * @return {@code accepted} and {@code rejected} counts, one status code per record in {@code statuses} (see
+     * {@link #update(String, String, String)}) and an {@code error} message if the stream was not valid json
+     */
+    Map<String, Object> updateAll(Reader records) {
+        return JsonRecords.readAll(records, this::updateFromRecord);
+    }
+
+    private Response.Status updateFromRecord(JsonReader reader) throws IOException {
+        String iataCode = null;
+        String pointType = null;
+        double mean = 0.0;
+        int first = 0;
+        int median = 0;
+        int last = 0;
+        int count = 0;
+        int seen = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if ("iata".equals(name) && reader.peek() == JsonToken.STRING) {
+                iataCode = reader.nextString();
+            } else if ("pointType".equals(name) && reader.peek() == JsonToken.STRING) {
+                pointType = reader.nextString();
+            } else if ("dataPoint".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "mean":
+                            mean = reader.nextDouble();
+                            seen |= MEAN;
+                            break;
+                        case "first":
+                            first = reader.nextInt();
+                            seen |= FIRST;
+                            break;
+                        case "median":
+                            median = reader.nextInt();
+                            seen |= MEDIAN;
+                            break;
+                        case "last":
+                            last = reader.nextInt();
+                            seen |= LAST;
+                            break;
+                        case "count":
+                            count = reader.nextInt();
+                            seen |= COUNT;
+                            break;
+                        default:
+                            reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (iataCode == null || !airportRepository.hasAirport(iataCode)) {
+            return Response.Status.NOT_ACCEPTABLE;
+        }
+
+        final DataPointType dataPointType = typeOf(pointType);
+        if (dataPointType == null || seen != ALL_FIELDS || Double.isNaN(mean) || Double.isInfinite(mean)) {
+            return Response.Status.BAD_REQUEST;
+        }
+
+        weatherDataRepository.update(iataCode, dataPointType, mean, first, median, last, count);
+        return Response.Status.OK;
+    }
+
+    private static DataPointType typeOf(String pointType) {
+        try {
+            return DataPointType.fromName(pointType);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.crossover.trial.weather.resources;
+
+import com.crossover.trial.weather.domain.measurement.DataPointType;
+import com.crossover.trial.weather.lib.LogLinearHistogram;
+import com.crossover.trial.weather.repositories.WeatherDataRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Data points accepted by {@link CollectorResource#updateWeather} waiting to be stored, so a burst of collectors
+ * holds request threads only for validating and queueing instead of for the update itself. The queue holds
+ * {@code weather.ingest.queue-capacity} data points; a capacity of 0 disables it and updates are stored on the
+ * request thread.
+ * <p>
+ * The data points are split over {@code weather.ingest.workers} queues by station, each drained in order by a
+ * worker thread of its own, so the data points of a station are stored in the order they were queued. A full
+ * queue is waited on for {@code weather.ingest.offer-timeout} milliseconds, 0 rejects the data point at once.
+ */
+@Component
+class WeatherIngestQueue {
+    private static final Logger log = LoggerFactory.getLogger(WeatherIngestQueue.class);
+
+    private static final double[] LATENCY_PERCENTILES = {50.0, 99.0, 99.9, 100.0};
+
+    private static final String[] LATENCY_PERCENTILE_NAMES = {"50", "99", "99.9", "100"};
+
+    /**
+     * one minute in microseconds, longer enqueue latencies are counted as one minute
+     */
+    private static final long MAX_LATENCY = 60000000L;
+
+    private static final int DRAIN_BATCH = 256;
+
+    private static final long POLL_MILLIS = 100;
+
+    private static final long SHUTDOWN_MILLIS = 5000;
+
+    @Inject
+    private WeatherDataRepository weatherDataRepository;
+
+    @Value("${weather.ingest.queue-capacity:0}")
+    private int capacity;
+
+    @Value("${weather.ingest.workers:2}")
+    private int workerCount = 2;
+
+    @Value("${weather.ingest.offer-timeout:0}")
+    private long offerTimeout;
+
+    /**
+     * one queue per worker, {@code null} if queueing is disabled
+     */
+    private List<ArrayBlockingQueue<DataPointUpdate>> queues;
+
+    private ExecutorService workers;
+
+    private volatile boolean running;
+
+    private final LongAdder enqueued = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder stored = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final LogLinearHistogram enqueueLatency = new LogLinearHistogram(4, MAX_LATENCY);
+
+    private static final class DataPointUpdate {
+        private final String stationId;
+        private final DataPointType dataType;
+        private final double mean;
+        private final int first;
+        private final int median;
+        private final int last;
+        private final int count;
+
+        private DataPointUpdate(String stationId, DataPointType dataType,
+                                double mean, int first, int median, int last, int count) {
+            this.stationId = stationId;
+            this.dataType = dataType;
+            this.mean = mean;
+            this.first = first;
+            this.median = median;
+            this.last = last;
+            this.count = count;
+        }
+    }
+
+    @PostConstruct
+    void start() {
+        if (capacity < 1) {
+            return;
+        }
+
+        final int queueCount = Math.max(1, Math.min(workerCount, capacity));
+        queues = new ArrayList<>(queueCount);
+        for (int i = 0; i < queueCount; i++) {
+            queues.add(new ArrayBlockingQueue<>(capacity / queueCount));
+        }
+
+        running = true;
+        workers = Executors.newFixedThreadPool(queueCount, runnable -> {
+            final Thread thread = new Thread(runnable, "weather-ingest");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (ArrayBlockingQueue<DataPointUpdate> queue : queues) {
+            workers.execute(() -> drain(queue));
+        }
+    }
+
+    /**
+     * Stops taking data points and stores the queued ones, waiting for at most {@link #SHUTDOWN_MILLIS}.
+     */
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (queues == null) {
+            return;
+        }
+
+        running = false;
+        workers.shutdown();
+        if (!workers.awaitTermination(SHUTDOWN_MILLIS, TimeUnit.MILLISECONDS)) {
+            log.warn("stopped with {} data points not stored", depth());
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * @return {@code true} if data points are queued, {@code false} if they are to be stored by the caller
+     */
+    boolean isEnabled() {
+        return queues != null;
+    }
+
+    /**
+     * Queues a data point for {@link WeatherDataRepository#update}, waiting up to {@code weather.ingest.offer-timeout}
+     * milliseconds if the queue of the station is full.
+     *
+     * @return {@code false} if the data point was dropped because the queue stayed full or is stopped
+     */
+    boolean offer(String stationId, DataPointType dataType, double mean, int first, int median, int last, int count) {
+        if (!running) {
+            dropped.increment();
+            return false;
+        }
+
+        final DataPointUpdate update = new DataPointUpdate(stationId, dataType, mean, first, median, last, count);
+        final ArrayBlockingQueue<DataPointUpdate> queue = queueOf(stationId);
+        final long start = System.nanoTime();
+        boolean queued = queue.offer(update);
+        if (!queued && offerTimeout > 0) {
+            try {
+                queued = queue.offer(update, offerTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        enqueueLatency.record((System.nanoTime() - start) / 1000.0);
+
+        if (queued) {
+            enqueued.increment();
+        } else {
+            dropped.increment();
+        }
+        return queued;
+    }
+
+    /**
+     * @return {@code depth}, {@code capacity}, the {@code enqueued}, {@code dropped}, {@code stored} and
+     * {@code failed} counts and the {@code enqueue_latency_us} percentiles, empty if the queue is disabled
+     */
+    Map<String, Object> statistics() {
+        final Map<String, Object> statistics = new LinkedHashMap<>();
+        if (queues != null) {
+            statistics.put("depth", depth());
+            statistics.put("capacity", capacity);
+            statistics.put("enqueued", enqueued.sum());
+            statistics.put("dropped", dropped.sum());
+            statistics.put("stored", stored.sum());
+            statistics.put("failed", failed.sum());
+
+            final LogLinearHistogram.Snapshot latencies = enqueueLatency.snapshot();
+            final Map<String, Long> percentiles = new LinkedHashMap<>();
+            if (latencies.totalCount() != 0) {
+                for (int i = 0; i < LATENCY_PERCENTILES.length; i++) {
+                    percentiles.put(LATENCY_PERCENTILE_NAMES[i], latencies.valueAtPercentile(LATENCY_PERCENTILES[i]));
+                }
+            }
+            statistics.put("enqueue_latency_us", percentiles);
+        }
+        return statistics;
+    }
+
+    private int depth() {
+        int depth = 0;
+        for (ArrayBlockingQueue<DataPointUpdate> queue : queues) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    private ArrayBlockingQueue<DataPointUpdate> queueOf(String stationId) {
+        final int hash = stationId.hashCode();
+        return queues.get(((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % queues.size());
+    }
+
+    private void drain(ArrayBlockingQueue<DataPointUpdate> queue) {
+        final ArrayList<DataPointUpdate> batch = new ArrayList<>(DRAIN_BATCH);
+        while (running || !queue.isEmpty()) {
+            try {
+                final DataPointUpdate next = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (next == null) {
+                    continue;
+                }
+                store(next);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            queue.drainTo(batch, DRAIN_BATCH);
+            batch.forEach(this::store);
+            batch.clear();
+        }
+    }
+
+    private void store(DataPointUpdate update) {
+        try {
+            weatherDataRepository.update(update.stationId, update.dataType,
+                    update.mean, update.first, update.median, update.last, update.count);
+            stored.increment();
+        } catch (RuntimeException e) {
+            failed.increment();
+            log.warn("storing {} of {} failed", update.dataType, update.stationId, e);
+        }
+    }
+}
@@ -1,22 +1,42 @@
 package com.crossover.trial.weather.resources;
 
 import com.crossover.trial.weather.domain.Airport;
+import com.crossover.trial.weather.domain.gis.BoundingBox;
+import com.crossover.trial.weather.domain.gis.ImmutableBoundingBox;
+import com.crossover.trial.weather.domain.gis.ImmutablePosition;
+import com.crossover.trial.weather.domain.gis.Point;
 import com.crossover.trial.weather.domain.measurement.AtmosphericData;
+import com.crossover.trial.weather.domain.measurement.DataPointType;
 import com.crossover.trial.weather.lib.EventCounter;
-import com.crossover.trial.weather.lib.GeoCalculations;
+import com.crossover.trial.weather.lib.LogLinearHistogram;
+import com.crossover.trial.weather.lib.SlidingWindow;
 import com.crossover.trial.weather.lib.TimestampFactory;
 import com.crossover.trial.weather.repositories.AirportRepository;
+import com.crossover.trial.weather.repositories.Resolution;
+import com.crossover.trial.weather.repositories.StationSnapshot;
+import com.crossover.trial.weather.repositories.TimeSeries;
 import com.crossover.trial.weather.repositories.WeatherDataRepository;
-import javaslang.collection.List;
+import javaslang.Tuple;
+import javaslang.Tuple3;
+import javaslang.collection.Seq;
+import javaslang.control.Option;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import static com.crossover.trial.weather.resources.Paths.IATA_CODE;
 import static com.crossover.trial.weather.resources.Paths.RADIUS;
@@ -27,6 +47,16 @@ class WeatherQueryHandler {
 
     private static final int MILLISECONDS_PER_DAY = 86400000;
 
+    private static final double[] RADIUS_PERCENTILES = {50.0, 90.0, 99.0, 99.9, 100.0};
+
+    private static final String[] RADIUS_PERCENTILE_NAMES = {"50", "90", "99", "99.9", "100"};
+
+    private static final String[] WINDOW_NAMES = {"1m", "5m", "1h", "24h"};
+
+    private static final long[] WINDOW_MILLIS = {60000, 300000, 3600000, MILLISECONDS_PER_DAY};
+
+    private static final int BUCKETS_PER_WINDOW = 12;
+
     @Inject
     private WeatherDataRepository weatherDataRepository;
 
@@ -34,17 +64,49 @@ class WeatherQueryHandler {
     private AirportRepository airportRepository;
 
     @Inject
-    private GeoCalculations geoCalculations;
+    private EventCounter<Airport> requestFrequency;
 
     @Inject
-    private EventCounter<Airport> requestFrequency;
+    private WeatherResponseCache responseCache;
 
     @Inject
-    private EventCounter<Double> radiusFrequency;
+    private WeatherIngestQueue ingestQueue;
+
+    @Inject
+    private AdmissionControl admissionControl;
+
+    @Value("${weather.radius-histogram.precision:4}")
+    private int radiusHistogramPrecision = 4;
+
+    @Value("${weather.radius-histogram.max-radius:65535}")
+    private long radiusHistogramMaxRadius = 65535;
+
+    private LogLinearHistogram radiusHistogram;
+
+    /**
+     * request statistics of the last minute, 5 minutes, hour and day, see {@link #WINDOW_NAMES}
+     */
+    private final List<SlidingWindow<RequestStatistics>> windows = new ArrayList<>();
 
     @Inject
     private TimestampFactory timestampFactory;
 
+    /**
+     * The requests of one bucket of a {@link SlidingWindow}.
+     */
+    private class RequestStatistics {
+        private final EventCounter<Airport> airports = new EventCounter<>();
+        private final LogLinearHistogram radii = new LogLinearHistogram(radiusHistogramPrecision, radiusHistogramMaxRadius);
+    }
+
+    @PostConstruct
+    void init() {
+        radiusHistogram = new LogLinearHistogram(radiusHistogramPrecision, radiusHistogramMaxRadius);
+        for (long windowMillis : WINDOW_MILLIS) {
+            windows.add(new SlidingWindow<>(windowMillis, BUCKETS_PER_WINDOW, RequestStatistics::new));
+        }
+    }
+
     public Map<String, Object> ping() {
         Map<String, Object> result = new HashMap<>();
 
@@ -52,7 +114,19 @@ class WeatherQueryHandler {
 
         result.put("iata_freq", getAirportFractions());
 
-        result.put("radius_freq", getRadiusHistogram());
+        final LogLinearHistogram.Snapshot radii = radiusHistogram.snapshot();
+        result.put("radius_freq", getRadiusBins(radii));
+        result.put("radius_percentiles", getRadiusPercentiles(radii));
+
+        result.put("windows", getWindows());
+
+        result.put("response_cache", responseCache.statistics());
+
+        result.put("evicted_stations", weatherDataRepository.evictedStationCount());
+
+        result.put("ingest_queue", ingestQueue.statistics());
+
+        result.put("admission", admissionControl.statistics());
 
         return result;
     }
@@ -63,78 +137,230 @@ class WeatherQueryHandler {
      *
      * @param iataCode the three letter airport code
      * @param radius   the radius, in km, from which to collect weather data
-     * @return an HTTP Response and a list of {@link AtmosphericData} from the requested airport and
-     * airports in the given radius
+     * @param maxAge   only stations updated within this many milliseconds, any age if {@code null}
+     * @return the {@link AtmosphericData} from the requested airport and airports in the given radius as json
+     * array, served from the {@link WeatherResponseCache} while none of the stations changed if there is no
+     * {@code maxAge}; otherwise streamed, skipping stale stations before their data is read
      */
     @GET
     @Path(WEATHER + "/{" + IATA_CODE + "}/{" + RADIUS + "}")
     @Produces(MediaType.APPLICATION_JSON)
-    public List<AtmosphericData> weather(String iataCode, double radius) {
+    public StreamingOutput weather(String iataCode, double radius, Long maxAge) {
         updateRequestFrequency(iataCode, radius);
 
-        List<AtmosphericData> retval;
-        if (radius == 0) {
-            return weatherDataRepository
-                    .getWeatherDataFor(iataCode)
-                    .toList();
-        } else {
-            return airportRepository
-                    .getAirport(iataCode)
-                    .toList()
-                    .flatMap(centerAirport -> airportRepository
-                            .getAirports()
-                            .filter(otherAirport -> geoCalculations
-                                    .calculateDistance(otherAirport, centerAirport) <= radius)
-                            .map(Airport::iataCode)
-                            .flatMap(weatherDataRepository::getWeatherDataFor)
-                            .toList());
+        if (maxAge == null) {
+            return responseCache.weather(iataCode, radius);
         }
+
+        final long updatedSince = timestampFactory.getCurrentTimestamp() - maxAge;
+        return new StreamedWeather(weatherDataRepository, action -> {
+            final Consumer<String> fresh = stationId -> {
+                if (weatherDataRepository.lastUpdateTimeOf(stationId) >= updatedSince) {
+                    action.accept(stationId);
+                }
+            };
+            if (radius == 0) {
+                fresh.accept(iataCode);
+            } else {
+                airportRepository.getAirport(iataCode)
+                        .forEach(centerAirport -> airportRepository.forEachAirportWithin(centerAirport, radius, fresh));
+            }
+        });
     }
 
-    private int getCountOfDataUpdatedSinceADayAgo() {
-        final long oneDayAgo = timestampFactory.getCurrentTimestamp() - MILLISECONDS_PER_DAY;
+    /**
+     * The weather of the stations within the radius of an arbitrary position, streamed while the airport index is
+     * scanned. These responses are not cached and not counted in the request statistics, which are by airport.
+     *
+     * @param latitude  the latitude of the center in degrees, within [-90, 90]
+     * @param longitude the longitude of the center in degrees
+     * @param radius    the radius in km, not negative
+     * @return the {@link AtmosphericData} of the stations within the radius as json array
+     * @throws IllegalArgumentException for a position or radius out of range
+     */
+    public StreamingOutput weatherAround(double latitude, double longitude, double radius) {
+        checkLatitude(latitude);
+        if (Double.isInfinite(longitude) || Double.isNaN(longitude)) {
+            throw new IllegalArgumentException("longitude " + longitude + " is not finite");
+        }
+        if (!(radius >= 0)) {
+            throw new IllegalArgumentException("radius " + radius + " is negative");
+        }
 
-        return weatherDataRepository
-                .getWeatherData()
-                .count(data -> data.lastUpdateTime() > oneDayAgo);
+        final Point center = ImmutablePosition.of(latitude, longitude);
+        return new StreamedWeather(weatherDataRepository,
+                action -> airportRepository.forEachAirportWithin(center, radius, action));
+    }
+
+    /**
+     * The weather of the stations inside a box, streamed while the airport index is scanned. A box whose
+     * {@code minLongitude} is greater than its {@code maxLongitude} crosses the antimeridian.
+     *
+     * @param minLatitude  the southern edge in degrees, inclusive, within [-90, 90]
+     * @param minLongitude the western edge in degrees, inclusive, within [-180, 180]
+     * @param maxLatitude  the northern edge in degrees, inclusive, within [minLatitude, 90]
+     * @param maxLongitude the eastern edge in degrees, inclusive, within [-180, 180]
+     * @return the {@link AtmosphericData} of the stations inside the box as json array
+     * @throws IllegalArgumentException for edges out of range
+     */
+    public StreamingOutput weatherIn(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+        checkLatitude(minLatitude);
+        checkLatitude(maxLatitude);
+        checkLongitude(minLongitude);
+        checkLongitude(maxLongitude);
+        if (minLatitude > maxLatitude) {
+            throw new IllegalArgumentException("minimum latitude " + minLatitude + " is above maximum " + maxLatitude);
+        }
+
+        final BoundingBox box = ImmutableBoundingBox.builder()
+                .minLatitude(minLatitude)
+                .minLongitude(minLongitude)
+                .maxLatitude(maxLatitude)
+                .maxLongitude(maxLongitude)
+                .build();
+        return new StreamedWeather(weatherDataRepository, action -> airportRepository.forEachAirportIn(box, action));
+    }
+
+    /**
+     * The stations nearest to an airport, including the airport itself, optionally only those with fresh data.
+     *
+     * @param iataCode the three letter airport code
+     * @param count    the number of stations to return
+     * @param dataType only stations with a data point of this type, any type if {@code null}
+     * @param maxAge   only stations whose latest data point of {@code dataType}, or of any type, was accepted within
+     *                 this many milliseconds, any age if {@code null}
+     * @return the IATA code, distance in km and weather of each station, nearest first, or nothing if the airport
+     * is not known
+     */
+    public Option<Seq<Tuple3<String, Double, StationSnapshot>>> nearest(String iataCode, int count,
+                                                                       DataPointType dataType, Long maxAge) {
+        final long updatedSince = maxAge == null ? Long.MIN_VALUE : timestampFactory.getCurrentTimestamp() - maxAge;
+        final Predicate<String> accepted = station -> {
+            final long lastUpdateTime = dataType == null
+                    ? weatherDataRepository.lastUpdateTimeOf(station)
+                    : weatherDataRepository.lastUpdateTimeOf(station, dataType);
+            return lastUpdateTime != WeatherDataRepository.NEVER_UPDATED && lastUpdateTime >= updatedSince;
+        };
+
+        return airportRepository
+                .getAirport(iataCode)
+                .map(centerAirport -> airportRepository
+                        .getNearestAirports(centerAirport, count, accepted)
+                        .flatMap(nearest -> weatherDataRepository
+                                .getSnapshotFor(nearest._1())
+                                .map(snapshot -> Tuple.of(nearest._1(), nearest._2(), snapshot))));
+    }
+
+    /**
+     * @param from       the earliest timestamp, inclusive, unbounded if {@code null}
+     * @param to         the latest timestamp, inclusive, unbounded if {@code null}
+     * @param resolution the requested resolution in milliseconds, raw data points if {@code null}
+     * @return the data points of one type of the given airport in the coarsest tier satisfying the resolution,
+     * oldest first
+     */
+    public TimeSeries history(String iataCode, DataPointType dataType, Long from, Long to, Long resolution) {
+        return weatherDataRepository.getHistoryFor(iataCode, dataType,
+                from == null ? Long.MIN_VALUE : from,
+                to == null ? Long.MAX_VALUE : to,
+                resolution == null ? Resolution.RAW : Resolution.coarsestWithin(resolution));
+    }
+
+    private static void checkLatitude(double latitude) {
+        if (!(latitude >= -90.0 && latitude <= 90.0)) {
+            throw new IllegalArgumentException("latitude " + latitude + " is not within [-90, 90]");
+        }
+    }
+
+    private static void checkLongitude(double longitude) {
+        if (!(longitude >= -180.0 && longitude <= 180.0)) {
+            throw new IllegalArgumentException("longitude " + longitude + " is not within [-180, 180]");
+        }
+    }
+
+    private long getCountOfDataUpdatedSinceADayAgo() {
+        final long now = timestampFactory.getCurrentTimestamp();
+
+        return weatherDataRepository.countUpdatedSince(now - MILLISECONDS_PER_DAY, now);
     }
 
     private Map<String, Double> getAirportFractions() {
+        final EventCounter.Snapshot<Airport> requests = requestFrequency.snapshot();
+
         Map<String, Double> freq = new HashMap<>();
         airportRepository.getAirports().forEach(airport ->
-                freq.put(airport.iataCode(), requestFrequency.fractionOf(airport))
+                freq.put(airport.iataCode(), requests.fractionOf(airport))
         );
         return freq;
     }
 
-    private int[] getRadiusHistogram() {
-        int maxRange = radiusFrequency.events().max().getOrElse(1000.0).intValue();
-        int binSize = 10;
+    /**
+     * @return the non empty bins, each with its count and the radii it covers, {@code from} inclusive and
+     * {@code to} exclusive
+     */
+    private List<Map<String, Long>> getRadiusBins(LogLinearHistogram.Snapshot radii) {
+        final List<Map<String, Long>> bins = new ArrayList<>();
+        for (int bucket = 0; bucket < radii.bucketCount(); bucket++) {
+            if (radii.countAt(bucket) != 0) {
+                final Map<String, Long> bin = new LinkedHashMap<>();
+                bin.put("from", radiusHistogram.lowestValueAt(bucket));
+                bin.put("to", radiusHistogram.lowestValueAt(bucket) + radiusHistogram.widthAt(bucket));
+                bin.put("count", radii.countAt(bucket));
+                bins.add(bin);
+            }
+        }
+        return bins;
+    }
 
-        final int binCount = maxRange / binSize + 1;
+    private Map<String, Long> getRadiusPercentiles(LogLinearHistogram.Snapshot radii) {
+        final Map<String, Long> percentiles = new LinkedHashMap<>();
+        if (radii.totalCount() != 0) {
+            for (int i = 0; i < RADIUS_PERCENTILES.length; i++) {
+                percentiles.put(RADIUS_PERCENTILE_NAMES[i], radii.valueAtPercentile(RADIUS_PERCENTILES[i]));
+            }
+        }
+        return percentiles;
+    }
 
-        int[] hist = new int[binCount];
+    /**
+     * @return per window the number of requests, the fraction of requests per requested airport and the radius
+     * percentiles
+     */
+    private Map<String, Object> getWindows() {
+        final long now = timestampFactory.getCurrentTimestamp();
 
-        radiusFrequency
-                .stream()
-                .forEach(tuple -> {
-                            final Double radius = tuple._1();
-                            int binIndex = radius.intValue() / 10;
+        final Map<String, Object> result = new LinkedHashMap<>();
+        for (int i = 0; i < WINDOW_NAMES.length; i++) {
+            final SlidingWindow<RequestStatistics> window = windows.get(i);
+            final EventCounter.Snapshot<Airport> requests = window.fold(now, EventCounter.<Airport>emptySnapshot(),
+                    (sum, statistics) -> sum.plus(statistics.airports.snapshot()));
+            final LogLinearHistogram.Snapshot radii = window.fold(now, radiusHistogram.emptySnapshot(),
+                    (sum, statistics) -> sum.plus(statistics.radii.snapshot()));
 
-                            final int radiusFrequency = tuple._2().get();
-                            hist[binIndex] += radiusFrequency;
-                        }
-                );
+            final Map<String, Double> freq = new HashMap<>();
+            requests.counts().keySet().forEach(airport -> freq.put(airport.iataCode(), requests.fractionOf(airport)));
 
-        return hist;
+            final Map<String, Object> view = new LinkedHashMap<>();
+            view.put("requests", requests.totalCount());
+            view.put("iata_freq", freq);
+            view.put("radius_percentiles", getRadiusPercentiles(radii));
+            result.put(WINDOW_NAMES[i], view);
+        }
+        return result;
     }
 
-    private void updateRequestFrequency(String iataCode, Double radius) {
+    private void updateRequestFrequency(String iataCode, double radius) {
         airportRepository
                 .getAirport(iataCode)
                 .forEach(airport -> {
                             requestFrequency.increment(airport);
-                            radiusFrequency.increment(radius);
+                            radiusHistogram.record(radius);
+
+                            final long now = timestampFactory.getCurrentTimestamp();
+                            for (SlidingWindow<RequestStatistics> window : windows) {
+                                final RequestStatistics statistics = window.current(now);
+                                statistics.airports.increment(airport);
+                                statistics.radii.record(radius);
+                            }
                         }
                 );
     }
@@ -1,8 +1,13 @@
 package com.crossover.trial.weather.resources;
 
 import com.crossover.trial.weather.domain.measurement.AtmosphericData;
+import com.crossover.trial.weather.domain.measurement.DataPointType;
+import com.crossover.trial.weather.repositories.StationSnapshot;
+import com.crossover.trial.weather.repositories.TimeSeries;
 import com.google.gson.Gson;
-import javaslang.collection.List;
+import com.google.gson.stream.JsonWriter;
+import javaslang.Tuple3;
+import javaslang.collection.Seq;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -12,14 +17,34 @@ import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
+import static com.crossover.trial.weather.resources.Paths.BBOX;
+import static com.crossover.trial.weather.resources.Paths.COUNT;
+import static com.crossover.trial.weather.resources.Paths.FROM;
+import static com.crossover.trial.weather.resources.Paths.HISTORY;
 import static com.crossover.trial.weather.resources.Paths.IATA_CODE;
+import static com.crossover.trial.weather.resources.Paths.LATITUDE;
+import static com.crossover.trial.weather.resources.Paths.LONGITUDE;
+import static com.crossover.trial.weather.resources.Paths.MAX_AGE;
+import static com.crossover.trial.weather.resources.Paths.MAX_LATITUDE;
+import static com.crossover.trial.weather.resources.Paths.MAX_LONGITUDE;
+import static com.crossover.trial.weather.resources.Paths.MIN_LATITUDE;
+import static com.crossover.trial.weather.resources.Paths.MIN_LONGITUDE;
+import static com.crossover.trial.weather.resources.Paths.NEAREST;
 import static com.crossover.trial.weather.resources.Paths.PING;
+import static com.crossover.trial.weather.resources.Paths.POINT;
+import static com.crossover.trial.weather.resources.Paths.POINT_TYPE;
 import static com.crossover.trial.weather.resources.Paths.QUERY;
 import static com.crossover.trial.weather.resources.Paths.RADIUS;
+import static com.crossover.trial.weather.resources.Paths.RESOLUTION;
+import static com.crossover.trial.weather.resources.Paths.TO;
 import static com.crossover.trial.weather.resources.Paths.WEATHER;
 
 /**
@@ -66,18 +91,204 @@ public class WeatherQueryResource {
      * @return an HTTP Response and a list of {@link AtmosphericData} from the requested airport and
      * airports in the given radius
      */
+    public Response weather(String iataCode, String radiusString) {
+        return weather(iataCode, radiusString, null);
+    }
+
+    /**
+     * Retrieve the most up to date atmospheric information from the given airport and other airports in the given
+     * radius, optionally only of stations with fresh data.
+     *
+     * @param iataCode     the three letter airport code
+     * @param radiusString the radius, in km, from which to collect weather data
+     * @param maxAge       only stations updated within this many milliseconds, optional
+     * @return an HTTP Response and a list of {@link AtmosphericData} from the requested airport and
+     * airports in the given radius, or 400 for a negative {@code maxAge}
+     */
     @GET
     @Path(WEATHER + "/{" + IATA_CODE + "}/{" + RADIUS + "}")
     @Produces(MediaType.APPLICATION_JSON)
     public Response weather(@PathParam(IATA_CODE) String iataCode,
-                            @PathParam(RADIUS) String radiusString) {
-        log.debug("weather({}, {})", iataCode, radiusString);
+                            @PathParam(RADIUS) String radiusString,
+                            @QueryParam(MAX_AGE) Long maxAge) {
+        log.debug("weather({}, {}, {})", iataCode, radiusString, maxAge);
+
+        if (maxAge != null && maxAge < 0) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
 
         final boolean radiusStringUnset = radiusString == null || radiusString.trim().isEmpty();
         double radius = radiusStringUnset ? 0 : Double.valueOf(radiusString);
 
-        final List<AtmosphericData> weather = handler.weather(iataCode, radius);
+        final StreamingOutput weather = handler.weather(iataCode, radius, maxAge);
+
+        return Response.status(Response.Status.OK).entity(weather).build();
+    }
+
+    /**
+     * Retrieve the most up to date atmospheric information from the airports within the given radius of an arbitrary
+     * position.
+     *
+     * @param latitudeString  the latitude of the center in degrees
+     * @param longitudeString the longitude of the center in degrees
+     * @param radiusString    the radius, in km, from which to collect weather data
+     * @return an HTTP Response with a streamed json list of {@link AtmosphericData}, or 400 for a position or
+     * radius out of range
+     */
+    @GET
+    @Path(WEATHER + POINT + "/{" + LATITUDE + "}/{" + LONGITUDE + "}/{" + RADIUS + "}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response weatherAround(@PathParam(LATITUDE) String latitudeString,
+                                  @PathParam(LONGITUDE) String longitudeString,
+                                  @PathParam(RADIUS) String radiusString) {
+        log.debug("weatherAround({}, {}, {})", latitudeString, longitudeString, radiusString);
+
+        final StreamingOutput weather;
+        try {
+            weather = handler.weatherAround(Double.valueOf(latitudeString), Double.valueOf(longitudeString),
+                    Double.valueOf(radiusString));
+        } catch (IllegalArgumentException e) {
+            log.debug("weatherAround({}, {}, {}) rejected: {}", latitudeString, longitudeString, radiusString,
+                    e.getMessage());
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+
+        return Response.status(Response.Status.OK).entity(weather).build();
+    }
+
+    /**
+     * Retrieve the most up to date atmospheric information from the airports inside the given box, edges included.
+     * A box whose minimum longitude is greater than its maximum longitude crosses the antimeridian.
+     *
+     * @param minLatitudeString  the southern edge in degrees
+     * @param minLongitudeString the western edge in degrees
+     * @param maxLatitudeString  the northern edge in degrees
+     * @param maxLongitudeString the eastern edge in degrees
+     * @return an HTTP Response with a streamed json list of {@link AtmosphericData}, or 400 for edges out of range
+     */
+    @GET
+    @Path(WEATHER + BBOX + "/{" + MIN_LATITUDE + "}/{" + MIN_LONGITUDE + "}/{" + MAX_LATITUDE + "}/{" + MAX_LONGITUDE + "}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response weatherIn(@PathParam(MIN_LATITUDE) String minLatitudeString,
+                              @PathParam(MIN_LONGITUDE) String minLongitudeString,
+                              @PathParam(MAX_LATITUDE) String maxLatitudeString,
+                              @PathParam(MAX_LONGITUDE) String maxLongitudeString) {
+        log.debug("weatherIn({}, {}, {}, {})", minLatitudeString, minLongitudeString, maxLatitudeString, maxLongitudeString);
+
+        final StreamingOutput weather;
+        try {
+            weather = handler.weatherIn(Double.valueOf(minLatitudeString), Double.valueOf(minLongitudeString),
+                    Double.valueOf(maxLatitudeString), Double.valueOf(maxLongitudeString));
+        } catch (IllegalArgumentException e) {
+            log.debug("weatherIn({}, {}, {}, {}) rejected: {}", minLatitudeString, minLongitudeString,
+                    maxLatitudeString, maxLongitudeString, e.getMessage());
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+
+        return Response.status(Response.Status.OK).entity(weather).build();
+    }
+
+    /**
+     * Retrieve the most up to date atmospheric information of the stations nearest to the given airport.
+     *
+     * @param iataCode  the three letter airport code
+     * @param count     the number of stations, the airport itself included
+     * @param pointType only stations with data of this point type, optional
+     * @param maxAge    only stations updated within this many milliseconds, optional
+     * @return an HTTP Response with a json list of at most {@code count} stations, nearest first, each with its
+     * {@code iata} code, its {@code distance} in km and its {@code weather}; 400 for a count below 1, a negative
+     * {@code maxAge} or an unknown point type and 404 for an unknown airport
+     */
+    @GET
+    @Path(WEATHER + "/{" + IATA_CODE + "}" + NEAREST + "/{" + COUNT + "}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response nearest(@PathParam(IATA_CODE) String iataCode,
+                            @PathParam(COUNT) int count,
+                            @QueryParam(POINT_TYPE) String pointType,
+                            @QueryParam(MAX_AGE) Long maxAge) {
+        log.debug("nearest({}, {}, {}, {})", iataCode, count, pointType, maxAge);
+
+        final DataPointType dataType;
+        try {
+            dataType = pointType == null ? null : DataPointType.fromName(pointType);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        if (count < 1 || maxAge != null && maxAge < 0) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+
+        return handler.nearest(iataCode, count, dataType, maxAge)
+                .map(stations -> Response.status(Response.Status.OK).entity(toJson(stations)).build())
+                .getOrElse(() -> Response.status(Response.Status.NOT_FOUND).build());
+    }
+
+    /**
+     * Retrieve the retained history of one point type of the given airport.
+     *
+     * @param iataCode   the three letter airport code
+     * @param pointType  the point type, {@link DataPointType} for a complete list
+     * @param from       the earliest timestamp in milliseconds, inclusive, optional
+     * @param to         the latest timestamp in milliseconds, inclusive, optional
+     * @param resolution the resolution in milliseconds, optional; minute, hour or day aggregates are returned
+     *                   for resolutions of at least one minute, hour or day
+     * @return an HTTP Response with a streamed json list of the timestamped data points, oldest first, or 400 for
+     * unknown point types
+     */
+    @GET
+    @Path(WEATHER + "/{" + IATA_CODE + "}" + HISTORY + "/{" + POINT_TYPE + "}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response history(@PathParam(IATA_CODE) String iataCode,
+                            @PathParam(POINT_TYPE) String pointType,
+                            @QueryParam(FROM) Long from,
+                            @QueryParam(TO) Long to,
+                            @QueryParam(RESOLUTION) Long resolution) {
+        log.debug("history({}, {}, {}, {}, {})", iataCode, pointType, from, to, resolution);
+
+        final DataPointType dataType;
+        try {
+            dataType = DataPointType.fromName(pointType);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+
+        final TimeSeries history = handler.history(iataCode, dataType, from, to, resolution);
+
+        return Response.status(Response.Status.OK).entity(toJson(history)).build();
+    }
+
+    private static StreamingOutput toJson(Seq<Tuple3<String, Double, StationSnapshot>> stations) {
+        return output -> {
+            final JsonWriter writer = new JsonWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            writer.beginArray();
+            for (Tuple3<String, Double, StationSnapshot> station : stations) {
+                writer.beginObject()
+                        .name("iata").value(station._1())
+                        .name("distance").value(station._2())
+                        .name("weather").jsonValue(new String(station._3().json(), StandardCharsets.UTF_8))
+                        .endObject();
+            }
+            writer.endArray();
+            writer.flush();
+        };
+    }
 
-        return Response.status(Response.Status.OK).entity(weather.toJavaList()).build();
+    private static StreamingOutput toJson(TimeSeries series) {
+        return output -> {
+            final JsonWriter writer = new JsonWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            writer.beginArray();
+            for (int i = 0; i < series.size(); i++) {
+                writer.beginObject()
+                        .name("timestamp").value(series.timestamp(i))
+                        .name("mean").value(series.mean(i))
+                        .name("first").value(series.first(i))
+                        .name("median").value(series.median(i))
+                        .name("last").value(series.last(i))
+                        .name("count").value(series.count(i))
+                        .endObject();
+            }
+            writer.endArray();
+            writer.flush();
+        };
     }
 }
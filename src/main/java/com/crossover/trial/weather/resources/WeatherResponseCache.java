@@ -0,0 +1,218 @@
+package com.crossover.trial.weather.resources;
+
+import com.crossover.trial.weather.domain.Airport;
+import com.crossover.trial.weather.lib.SegmentedLruCache;
+import com.crossover.trial.weather.repositories.AirportListener;
+import com.crossover.trial.weather.repositories.AirportRepository;
+import com.crossover.trial.weather.repositories.StationSnapshot;
+import com.crossover.trial.weather.repositories.WeatherDataRepository;
+import javaslang.Tuple;
+import javaslang.Tuple2;
+import javaslang.collection.List;
+import javaslang.collection.Seq;
+import javaslang.control.Option;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import javax.ws.rs.core.StreamingOutput;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Weather responses by airport and radius, kept with their json in a {@link SegmentedLruCache} of
+ * {@code weather.response-cache.capacity} entries; a capacity below 2 disables the cache.
+ * <p>
+ * A response remembers the stations it covers, including airports without data yet, with the version of each (see
+ * {@link WeatherDataRepository#versionOf}) and the airport generation it was built in. It is only served while all
+ * of them are unchanged, so a response never misses a write which completed before the request. Adding or removing
+ * an airport starts a new generation and drops all responses. The versions are only compared once one of the shards
+ * of the stations was {@link WeatherDataRepository#modificationsOf modified} since they were last found unchanged,
+ * so a hit takes at most one read per shard while the stations are not updated.
+ * <p>
+ * Responses are keyed by the radius rounded to whole kilometers and only served for the exact radius they were
+ * built for, so requests with many slightly different radii replace each other instead of flushing the cache.
+ * <p>
+ * Responses covering more than {@code weather.response-cache.max-stations} airports are neither cached nor
+ * collected, they are {@link StreamedWeather streamed} instead.
+ */
+@Component
+class WeatherResponseCache implements AirportListener {
+
+    @Inject
+    private AirportRepository airportRepository;
+
+    @Inject
+    private WeatherDataRepository weatherDataRepository;
+
+    @Value("${weather.response-cache.capacity:4096}")
+    private int capacity = 4096;
+
+    @Value("${weather.response-cache.max-stations:1000}")
+    private int maxStations = 1000;
+
+    private SegmentedLruCache<Tuple2<String, Long>, CachedResponse> responses;
+
+    private final AtomicLong airportGeneration = new AtomicLong();
+
+    private static class CachedResponse {
+        private final double radius;
+        private final long airportGeneration;
+        private final String[] stationIds;
+        private final long[] versions;
+        private final int[] shards;
+        private final SnapshotList weather;
+
+        /**
+         * of each of {@link #shards}, taken before the versions were last found unchanged
+         */
+        private volatile long[] modifications;
+
+        private CachedResponse(double radius, long airportGeneration, String[] stationIds, long[] versions,
+                               int[] shards, long[] modifications, SnapshotList weather) {
+            this.radius = radius;
+            this.airportGeneration = airportGeneration;
+            this.stationIds = stationIds;
+            this.versions = versions;
+            this.shards = shards;
+            this.modifications = modifications;
+            this.weather = weather;
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        if (capacity >= 2) {
+            responses = new SegmentedLruCache<>(capacity);
+        }
+        airportRepository.addListener(this);
+    }
+
+    /**
+     * @param iataCode the three letter airport code
+     * @param radius   the radius in km, only the airport itself for 0
+     * @return the weather of the airport and of the airports within the radius as json array, see
+     * {@link WeatherQueryHandler#weather}
+     */
+    StreamingOutput weather(String iataCode, double radius) {
+        final long generation = airportGeneration.get();
+        final Tuple2<String, Long> key = Tuple.of(iataCode, Math.round(radius));
+        if (responses != null) {
+            final CachedResponse cached = responses.get(key, response -> isCurrent(response, radius, generation));
+            if (cached != null) {
+                return cached.weather;
+            }
+        }
+
+        if (radius != 0) {
+            final Option<Airport> center = airportRepository.getAirport(iataCode);
+            if (center.isDefined() && airportRepository.countAirportsWithin(center.get(), radius) > maxStations) {
+                return new StreamedWeather(weatherDataRepository,
+                        action -> airportRepository.forEachAirportWithin(center.get(), radius, action));
+            }
+        }
+
+        final CachedResponse built = build(iataCode, radius, generation);
+        if (responses != null) {
+            responses.put(key, built);
+        }
+        return built.weather;
+    }
+
+    /**
+     * @return {@code size}, {@code hits}, {@code misses} and {@code evictions}, empty if the cache is disabled
+     */
+    Map<String, Long> statistics() {
+        final Map<String, Long> statistics = new LinkedHashMap<>();
+        if (responses != null) {
+            statistics.put("size", (long) responses.size());
+            statistics.put("hits", responses.hitCount());
+            statistics.put("misses", responses.missCount());
+            statistics.put("evictions", responses.evictionCount());
+        }
+        return statistics;
+    }
+
+    @Override
+    public void airportAdded(Airport airport) {
+        invalidateAll();
+    }
+
+    @Override
+    public void airportRemoved(String iataCode) {
+        invalidateAll();
+    }
+
+    private void invalidateAll() {
+        airportGeneration.incrementAndGet();
+        if (responses != null) {
+            responses.clear();
+        }
+    }
+
+    private boolean isCurrent(CachedResponse response, double radius, long generation) {
+        if (response.radius != radius || response.airportGeneration != generation) {
+            return false;
+        }
+
+        final long[] modifications = modificationsOf(response.shards);
+        if (Arrays.equals(modifications, response.modifications)) {
+            return true;
+        }
+        for (int i = 0; i < response.stationIds.length; i++) {
+            if (weatherDataRepository.versionOf(response.stationIds[i]) != response.versions[i]) {
+                return false;
+            }
+        }
+        response.modifications = modifications;
+        return true;
+    }
+
+    /**
+     * @return the distinct shards of the stations, ascending
+     */
+    private int[] shardsOf(String[] stationIds) {
+        final boolean[] covered = new boolean[weatherDataRepository.shardCount()];
+        for (String stationId : stationIds) {
+            covered[weatherDataRepository.shardIndexOf(stationId)] = true;
+        }
+        return IntStream.range(0, covered.length).filter(shard -> covered[shard]).toArray();
+    }
+
+    private long[] modificationsOf(int[] shards) {
+        final long[] modifications = new long[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            modifications[i] = weatherDataRepository.modificationsOf(shards[i]);
+        }
+        return modifications;
+    }
+
+    private CachedResponse build(String iataCode, double radius, long generation) {
+        final Seq<String> stationIds = radius == 0
+                ? List.of(iataCode)
+                : airportRepository
+                .getAirport(iataCode)
+                .toList()
+                .flatMap(centerAirport -> airportRepository
+                        .getAirportsWithin(centerAirport, radius)
+                        .map(Airport::iataCode));
+
+        final String[] ids = stationIds.toJavaArray(String.class);
+        final int[] shards = shardsOf(ids);
+        // before the versions, so a modification made meanwhile is detected by the next request
+        final long[] modifications = modificationsOf(shards);
+        final long[] versions = new long[ids.length];
+        List<StationSnapshot> snapshots = List.empty();
+        for (int i = ids.length - 1; i >= 0; i--) {
+            final Option<StationSnapshot> snapshot = weatherDataRepository.getSnapshotFor(ids[i]);
+            versions[i] = snapshot.map(StationSnapshot::version).getOrElse(WeatherDataRepository.NO_STATION);
+            snapshots = snapshot.isDefined() ? snapshots.prepend(snapshot.get()) : snapshots;
+        }
+
+        return new CachedResponse(radius, generation, ids, versions, shards, modifications, new SnapshotList(snapshots));
+    }
+}
@@ -0,0 +1,102 @@
+package com.crossover.trial.weather.benchmarks;
+
+import com.crossover.trial.weather.domain.Airport;
+import com.crossover.trial.weather.lib.GeoCalculations;
+import com.crossover.trial.weather.repositories.AirportRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Radius query latency of the indexed {@link AirportRepository#getAirportsWithin} against a linear scan over
+ * {@link AirportRepository#getAirports()}. Sample time mode reports the p99 per airport count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AirportRadiusQueryBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int airportCount;
+
+    @Param({"50", "500"})
+    private double radius;
+
+    private final GeoCalculations geoCalculations = new GeoCalculations();
+
+    private AirportRepository repository;
+
+    private Airport[] centers;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        repository = new AirportRepository();
+        ReflectionTestUtils.setField(repository, "geoCalculations", geoCalculations);
+
+        final Random random = new Random(42);
+        for (int i = 0; i < airportCount; i++) {
+            repository.addAirport(iataCode(i), random.nextDouble() * 180.0 - 90.0, random.nextDouble() * 360.0 - 180.0);
+        }
+
+        centers = new Airport[1024];
+        for (int i = 0; i < centers.length; i++) {
+            centers[i] = repository.getAirport(iataCode(random.nextInt(airportCount))).get();
+        }
+    }
+
+    @Benchmark
+    public int indexed() {
+        return repository.getAirportsWithin(nextCenter(), radius).size();
+    }
+
+    @Benchmark
+    public int linearScan() {
+        final Airport center = nextCenter();
+        return repository.getAirports()
+                .filter(airport -> geoCalculations.calculateDistance(airport, center) <= radius)
+                .size();
+    }
+
+    /**
+     * four letter codes, enough for 26^4 airports
+     */
+    static String iataCode(int index) {
+        final char[] code = new char[4];
+        int remainder = index;
+        for (int i = code.length - 1; i >= 0; i--) {
+            code[i] = (char) ('A' + remainder % 26);
+            remainder /= 26;
+        }
+        return new String(code);
+    }
+
+    private Airport nextCenter() {
+        return centers[next++ & (centers.length - 1)];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(AirportRadiusQueryBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
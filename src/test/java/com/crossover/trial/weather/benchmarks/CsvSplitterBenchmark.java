@@ -0,0 +1,84 @@
+package com.crossover.trial.weather.benchmarks;
+
+import com.crossover.trial.weather.lib.CsvSplitter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Cost per line of {@code airports.dat} for the former look ahead regex, for {@link CsvSplitter#split(String)} and
+ * for tokenizing while only materializing the columns the airport loader reads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CsvSplitterBenchmark {
+
+    private static final Pattern REGEX = Pattern.compile(",(?=([^\"]*\"[^\"]*\")*[^\"]*$)");
+
+    private final CsvSplitter csvSplitter = new CsvSplitter();
+
+    private String[] lines;
+
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                CsvSplitterBenchmark.class.getResourceAsStream("/airports.dat"), StandardCharsets.UTF_8))) {
+            lines = reader.lines().toArray(String[]::new);
+        }
+    }
+
+    @Benchmark
+    public String regex() {
+        final String[] columns = REGEX.split(nextLine(), -1);
+        return columns[4].replace("\"", "");
+    }
+
+    @Benchmark
+    public String split() {
+        final String[] columns = csvSplitter.split(nextLine());
+        return columns[4].replace("\"", "");
+    }
+
+    @Benchmark
+    public String tokenize() {
+        csvSplitter.tokenize(nextLine());
+        return csvSplitter.column(4);
+    }
+
+    private String nextLine() {
+        final int line = next++;
+        if (next == lines.length) {
+            next = 0;
+        }
+        return lines[line];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CsvSplitterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,81 @@
+package com.crossover.trial.weather.benchmarks;
+
+import com.crossover.trial.weather.lib.EventCounter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link EventCounter} under the load of the query endpoint: many threads counting requests for a few hot airports
+ * among many, and the ping endpoint reading the fraction of every airport.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EventCounterBenchmark {
+
+    private static final int HOT_EVENT_COUNT = 4;
+
+    @Param({"10000"})
+    private int eventCount;
+
+    private EventCounter<String> eventCounter;
+
+    private String[] events;
+
+    @Setup
+    public void setUp() {
+        eventCounter = new EventCounter<>();
+        events = new String[eventCount];
+        for (int i = 0; i < eventCount; i++) {
+            events[i] = AirportRadiusQueryBenchmark.iataCode(i);
+            eventCounter.increment(events[i]);
+        }
+    }
+
+    /**
+     * nine out of ten increments hit one of the hot events
+     */
+    @Benchmark
+    @Threads(16)
+    public void increment() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int event = random.nextInt(10) != 0 ? random.nextInt(HOT_EVENT_COUNT) : random.nextInt(eventCount);
+        eventCounter.increment(events[event]);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public double fractions() {
+        final EventCounter.Snapshot<String> snapshot = eventCounter.snapshot();
+        double sum = 0.0;
+        for (String event : events) {
+            sum += snapshot.fractionOf(event);
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(EventCounterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
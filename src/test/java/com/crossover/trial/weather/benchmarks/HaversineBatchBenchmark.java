@@ -0,0 +1,87 @@
+package com.crossover.trial.weather.benchmarks;
+
+import com.crossover.trial.weather.lib.GeoCalculations;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filtering positions by radius with {@link GeoCalculations#selectWithinRadius} against one
+ * {@link GeoCalculations#calculateDistance} per position. The positions are spread over North America like the
+ * rows of a wide radius scan, so most of them are outside the radius.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HaversineBatchBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int pointCount;
+
+    @Param({"50", "500"})
+    private double radius;
+
+    private final GeoCalculations geoCalculations = new GeoCalculations();
+
+    private double[] latitudes;
+
+    private double[] longitudes;
+
+    private double[] cosLatitudes;
+
+    private int[] selected;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        latitudes = new double[pointCount];
+        longitudes = new double[pointCount];
+        cosLatitudes = new double[pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            latitudes[i] = 30.0 + random.nextDouble() * 20.0;
+            longitudes[i] = -100.0 + random.nextDouble() * 30.0;
+            cosLatitudes[i] = GeoCalculations.cosLatitude(latitudes[i]);
+        }
+        selected = new int[pointCount];
+    }
+
+    @Benchmark
+    public int batch() {
+        return geoCalculations.selectWithinRadius(40.0, -85.0, radius,
+                latitudes, longitudes, cosLatitudes, 0, pointCount, selected);
+    }
+
+    @Benchmark
+    public int scalar() {
+        int count = 0;
+        for (int i = 0; i < pointCount; i++) {
+            if (geoCalculations.calculateDistance(latitudes[i], longitudes[i], 40.0, -85.0) <= radius) {
+                selected[count++] = i;
+            }
+        }
+        return count;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(HaversineBatchBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,196 @@
+package com.crossover.trial.weather.benchmarks;
+
+import com.crossover.trial.weather.domain.Airport;
+import com.crossover.trial.weather.domain.ImmutableAirport;
+import com.crossover.trial.weather.domain.measurement.DataPointType;
+import com.crossover.trial.weather.repositories.AirportRepository;
+import com.crossover.trial.weather.repositories.WeatherDataRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of persistence: ingest latency with and without the write ahead log, and the time to recover 10k airports
+ * and 1M data points from the log alone or from a snapshot.
+ */
+@Fork(1)
+public class PersistenceBenchmark {
+
+    private static final int AIRPORT_COUNT = 10000;
+
+    private static final int DATA_POINT_COUNT = 1000000;
+
+    @State(Scope.Benchmark)
+    public static class Ingest {
+        @Param({"false", "true"})
+        private boolean persistent;
+
+        private Path directory;
+
+        private AnnotationConfigApplicationContext context;
+
+        private WeatherDataRepository weatherDataRepository;
+
+        private String[] stations;
+
+        private int next;
+
+        @Setup
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("weather-ingest");
+            context = context(persistent ? directory : null);
+            weatherDataRepository = context.getBean(WeatherDataRepository.class);
+
+            stations = new String[1024];
+            for (int i = 0; i < stations.length; i++) {
+                stations[i] = AirportRadiusQueryBenchmark.iataCode(i);
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            context.close();
+            FileSystemUtils.deleteRecursively(directory.toFile());
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Recovery {
+        @Param({"log", "snapshot"})
+        private String source;
+
+        private Path persisted;
+
+        private Path directory;
+
+        private AnnotationConfigApplicationContext context;
+
+        @Setup(Level.Trial)
+        public void persist() throws IOException {
+            persisted = Files.createTempDirectory("weather-recovery");
+            final AnnotationConfigApplicationContext writer = context(persisted);
+
+            final List<Airport> airports = new ArrayList<>(AIRPORT_COUNT);
+            for (int i = 0; i < AIRPORT_COUNT; i++) {
+                airports.add(ImmutableAirport.builder()
+                        .iataCode(AirportRadiusQueryBenchmark.iataCode(i))
+                        .latitude(i % 180 - 90.0)
+                        .longitude(i % 360 - 180.0)
+                        .build());
+            }
+            writer.getBean(AirportRepository.class).addAirports(airports);
+
+            final WeatherDataRepository weatherDataRepository = writer.getBean(WeatherDataRepository.class);
+            for (int i = 0; i < DATA_POINT_COUNT; i++) {
+                weatherDataRepository.update(airports.get(i % AIRPORT_COUNT).iataCode(), DataPointType.WIND,
+                        i % 50, i, i, i, 1);
+            }
+            writer.close();
+
+            if (source.equals("snapshot")) {
+                // recovering once compacts the log into a snapshot
+                context(persisted).close();
+            }
+        }
+
+        @Setup(Level.Invocation)
+        public void copy() throws IOException {
+            directory = Files.createTempDirectory("weather-recovery-copy");
+            FileSystemUtils.copyRecursively(persisted.toFile(), directory.toFile());
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() {
+            context.close();
+            FileSystemUtils.deleteRecursively(directory.toFile());
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() {
+            FileSystemUtils.deleteRecursively(persisted.toFile());
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    public boolean ingest(Ingest state) {
+        final int i = state.next++;
+        return state.weatherDataRepository.update(state.stations[i & (state.stations.length - 1)],
+                DataPointType.WIND, i & 31, i, i, i, 1);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 5)
+    public int recover(Recovery state) {
+        state.context = context(state.directory);
+        return state.context.getBean(AirportRepository.class).getAirportCount();
+    }
+
+    /**
+     * The repositories and, if {@code directory} is not {@code null}, their persistence, without the web layer.
+     */
+    private static AnnotationConfigApplicationContext context(Path directory) {
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put("weather.persistence.directory", directory == null ? "" : directory.toString());
+        properties.put("weather.persistence.snapshot-interval", "1000");
+
+        final AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", properties));
+        context.register(RepositoryConfiguration.class);
+        context.refresh();
+        return context;
+    }
+
+    @Configuration
+    @ComponentScan(basePackages = {
+            "com.crossover.trial.weather.lib",
+            "com.crossover.trial.weather.repositories",
+            "com.crossover.trial.weather.persistence"})
+    static class RepositoryConfiguration {
+        @Bean
+        static PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer() {
+            return new PropertySourcesPlaceholderConfigurer();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PersistenceBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
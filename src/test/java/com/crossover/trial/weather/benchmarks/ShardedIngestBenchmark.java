@@ -0,0 +1,112 @@
+package com.crossover.trial.weather.benchmarks;
+
+import com.crossover.trial.weather.domain.measurement.DataPointType;
+import com.crossover.trial.weather.repositories.WeatherDataRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.core.env.MapPropertySource;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent ingest into {@link WeatherDataRepository}: one map updated directly, the former design
+ * ({@code shards} 1, {@code combining} false), against one shard per processor with and without combining the
+ * updates of each shard. Collectors either all report the same hot station or spread over 1024 stations. Throughput
+ * and the latency distribution are measured for 1, 2, 4, ... threads up to the number of processors.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ShardedIngestBenchmark {
+
+    @Param({"1", "0"})
+    private String shards;
+
+    @Param({"false", "true"})
+    private String combining;
+
+    @Param({"1", "1024"})
+    private int stationCount;
+
+    private AnnotationConfigApplicationContext context;
+
+    private WeatherDataRepository weatherDataRepository;
+
+    private String[] stations;
+
+    @Setup
+    public void setUp() {
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put("weather.ingest.shards", shards);
+        properties.put("weather.ingest.combining", combining);
+        properties.put("weather.persistence.directory", "");
+
+        context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", properties));
+        context.register(RepositoryConfiguration.class);
+        context.refresh();
+        weatherDataRepository = context.getBean(WeatherDataRepository.class);
+
+        stations = new String[stationCount];
+        for (int i = 0; i < stationCount; i++) {
+            stations[i] = AirportRadiusQueryBenchmark.iataCode(i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean ingest() {
+        final int i = ThreadLocalRandom.current().nextInt();
+        return weatherDataRepository.update(stations[(i & Integer.MAX_VALUE) % stations.length],
+                DataPointType.WIND, i & 31, i, i, i, 1);
+    }
+
+    @Configuration
+    @ComponentScan(basePackages = {
+            "com.crossover.trial.weather.lib",
+            "com.crossover.trial.weather.repositories"})
+    static class RepositoryConfiguration {
+        @Bean
+        static PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer() {
+            return new PropertySourcesPlaceholderConfigurer();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads < 2 * processors; threads *= 2) {
+            new Runner(new OptionsBuilder()
+                    .include(ShardedIngestBenchmark.class.getSimpleName())
+                    .threads(Math.min(threads, processors))
+                    .build()).run();
+        }
+    }
+}
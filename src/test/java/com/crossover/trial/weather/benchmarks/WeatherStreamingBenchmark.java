@@ -0,0 +1,169 @@
+package com.crossover.trial.weather.benchmarks;
+
+import com.crossover.trial.weather.WeatherServerConfiguration;
+import com.crossover.trial.weather.domain.measurement.DataPointType;
+import com.crossover.trial.weather.repositories.AirportRepository;
+import com.crossover.trial.weather.repositories.WeatherDataRepository;
+import com.crossover.trial.weather.resources.WeatherQueryResource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.core.env.MapPropertySource;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing a large radius query: the time to the first 8 KiB of the body, the amount Jersey buffers before it
+ * commits a response, and the time to write the whole body. Responses are either collected before they are written
+ * ({@code maxStations} above the airport count) or streamed while the index is scanned ({@code maxStations} 0).
+ * Run with {@code -prof gc} to compare the allocation per response. The response cache is disabled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WeatherStreamingBenchmark {
+
+    private static final int FIRST_BYTES = 8192;
+
+    private static final IOException firstBytesWritten = new IOException("first bytes written");
+
+    @Param({"1000", "10000"})
+    private int airportCount;
+
+    @Param({"1000000", "0"})
+    private String maxStations;
+
+    private AnnotationConfigApplicationContext context;
+
+    private WeatherQueryResource query;
+
+    @Setup
+    public void setUp() {
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put("weather.response-cache.capacity", "0");
+        properties.put("weather.response-cache.max-stations", maxStations);
+        properties.put("weather.persistence.directory", "");
+
+        context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", properties));
+        context.register(QueryConfiguration.class);
+        context.refresh();
+
+        final AirportRepository airportRepository = context.getBean(AirportRepository.class);
+        final WeatherDataRepository weatherDataRepository = context.getBean(WeatherDataRepository.class);
+        final Random random = new Random(42);
+        for (int i = 0; i < airportCount; i++) {
+            final String iataCode = AirportRadiusQueryBenchmark.iataCode(i);
+            airportRepository.addAirport(iataCode, 30.0 + random.nextDouble() * 20.0, -100.0 + random.nextDouble() * 30.0);
+            weatherDataRepository.update(iataCode, DataPointType.WIND, i % 50, i, i, i, 1);
+            weatherDataRepository.update(iataCode, DataPointType.TEMPERATURE, i % 50, i, i, i, 1);
+        }
+
+        query = context.getBean(WeatherQueryResource.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public long timeToFirstBytes() throws IOException {
+        final CountingOutputStream output = new CountingOutputStream(FIRST_BYTES);
+        try {
+            write(output);
+        } catch (IOException e) {
+            if (e != firstBytesWritten) {
+                throw e;
+            }
+        }
+        return output.count;
+    }
+
+    @Benchmark
+    public long timeToLastByte() throws IOException {
+        final CountingOutputStream output = new CountingOutputStream(Long.MAX_VALUE);
+        write(output);
+        return output.count;
+    }
+
+    private void write(OutputStream output) throws IOException {
+        ((StreamingOutput) query.weather(AirportRadiusQueryBenchmark.iataCode(0), "5000").getEntity()).write(output);
+    }
+
+    /**
+     * Discards what is written, failing with {@link #firstBytesWritten} once {@code limit} bytes were written.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private final long limit;
+        private long count;
+
+        private CountingOutputStream(long limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            count(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            count(len);
+        }
+
+        private void count(int length) throws IOException {
+            count += length;
+            if (count >= limit) {
+                throw firstBytesWritten;
+            }
+        }
+    }
+
+    /**
+     * The repositories and the query resources, without Jersey and persistence.
+     */
+    @Configuration
+    @ComponentScan(basePackages = {
+            "com.crossover.trial.weather.lib",
+            "com.crossover.trial.weather.repositories",
+            "com.crossover.trial.weather.resources"})
+    static class QueryConfiguration extends WeatherServerConfiguration {
+        @Bean
+        static PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer() {
+            return new PropertySourcesPlaceholderConfigurer();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(WeatherStreamingBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,85 @@
+package com.crossover.trial.weather.lib;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AimdLimiterTest {
+
+    private static final long TARGET = 1000;
+
+    private AimdLimiter limiter = new AimdLimiter(2, 10, TARGET, 0.5);
+
+    @Test
+    public void callsOverTheLimitShouldBeRejected() {
+        for (int i = 0; i < 10; i++) {
+            assertThat(limiter.tryAcquire()).isTrue();
+        }
+
+        assertThat(limiter.tryAcquire()).isFalse();
+        assertThat(limiter.inFlight()).isEqualTo(10);
+        assertThat(limiter.rejectedCount()).isEqualTo(1);
+
+        limiter.release(0, TARGET);
+        assertThat(limiter.tryAcquire()).isTrue();
+    }
+
+    @Test
+    public void slowCallsShouldCutTheLimitDownToTheMinimum() {
+        call(0, TARGET + 1);
+        assertThat(limiter.limit()).isEqualTo(5);
+
+        call(TARGET + 2, 2 * TARGET + 3);
+        call(2 * TARGET + 4, 3 * TARGET + 5);
+        assertThat(limiter.limit()).isEqualTo(2);
+    }
+
+    @Test
+    public void slowCallsInFlightTogetherShouldCutTheLimitOnce() {
+        for (int i = 0; i < 8; i++) {
+            assertThat(limiter.tryAcquire()).isTrue();
+        }
+        for (int i = 0; i < 8; i++) {
+            limiter.release(i, TARGET + 10 + i);
+        }
+        assertThat(limiter.limit()).isEqualTo(5);
+
+        call(TARGET + 9, 2 * TARGET + 10);
+        assertThat(limiter.limit()).isEqualTo(5);
+
+        call(TARGET + 11, 2 * TARGET + 12);
+        assertThat(limiter.limit()).isEqualTo(2);
+    }
+
+    @Test
+    public void fastCallsShouldRaiseTheLimitOnlyWhileHalfOfItIsInUse() {
+        call(0, TARGET + 1);
+        call(0, TARGET);
+        assertThat(limiter.limit()).isEqualTo(5);
+
+        for (int i = 0; i < 3; i++) {
+            limiter.tryAcquire();
+        }
+        limiter.release(0, TARGET);
+        assertThat(limiter.limit()).isEqualTo(6);
+
+        for (int i = 0; i < 3; i++) {
+            limiter.tryAcquire();
+        }
+        for (int i = 0; i < 10; i++) {
+            limiter.tryAcquire();
+            limiter.release(0, TARGET);
+        }
+        assertThat(limiter.limit()).isEqualTo(10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void limitsShouldBeOrdered() {
+        new AimdLimiter(10, 2, TARGET, 0.5);
+    }
+
+    private void call(long start, long end) {
+        assertThat(limiter.tryAcquire()).isTrue();
+        limiter.release(start, end);
+    }
+}
@@ -17,4 +17,42 @@ public class CsvSplitterTest {
     public void splitterShouldIgnoreCommaInsideQuote() {
         assertThat(splitter.split("\"foo,bar\",baz")).containsExactly("\"foo,bar\"", "baz");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void splitterShouldKeepEmptyColumns() {
+        assertThat(splitter.split(",foo,,")).containsExactly("", "foo", "", "");
+        assertThat(splitter.split("")).containsExactly("");
+    }
+
+    @Test
+    public void splitterShouldIgnoreEscapedQuoteInsideQuote() {
+        assertThat(splitter.split("\"say \"\"hi\"\", bob\",baz")).containsExactly("\"say \"\"hi\"\", bob\"", "baz");
+    }
+
+    @Test
+    public void tokenizerShouldReportColumnBounds() {
+        assertThat(splitter.tokenize("1,\"Boston\",42.36")).isEqualTo(3);
+
+        assertThat(splitter.columnCount()).isEqualTo(3);
+        assertThat(splitter.start(1)).isEqualTo(2);
+        assertThat(splitter.end(1)).isEqualTo(10);
+        assertThat(splitter.start(2)).isEqualTo(11);
+        assertThat(splitter.end(2)).isEqualTo(16);
+    }
+
+    @Test
+    public void tokenizerShouldUnquoteColumns() {
+        splitter.tokenize("\"BOS\",\"say \"\"hi\"\", bob\",\"\",42.36");
+
+        assertThat(splitter.column(0)).isEqualTo("BOS");
+        assertThat(splitter.column(1)).isEqualTo("say \"hi\", bob");
+        assertThat(splitter.column(2)).isEmpty();
+        assertThat(splitter.column(3)).isEqualTo("42.36");
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void tokenizerShouldRejectMissingColumns() {
+        splitter.tokenize("foo,bar");
+        splitter.column(2);
+    }
+}
@@ -0,0 +1,68 @@
+package com.crossover.trial.weather.lib;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DataPointJsonReaderTest {
+
+    private DataPointJsonReader reader = new DataPointJsonReader();
+
+    @Test
+    public void readerShouldReadAllFields() {
+        assertThat(reader.read("{\"mean\":22.5,\"first\":10,\"median\":20,\"last\":30,\"count\":10}")).isTrue();
+
+        assertThat(reader.mean()).isEqualTo(22.5);
+        assertThat(reader.first()).isEqualTo(10);
+        assertThat(reader.median()).isEqualTo(20);
+        assertThat(reader.last()).isEqualTo(30);
+        assertThat(reader.count()).isEqualTo(10);
+    }
+
+    @Test
+    public void readerShouldAcceptAnyOrderWhitespaceAndUnknownKeys() {
+        assertThat(reader.read(" { \"count\" : 4, \"station\": {\"name\": \"a}\", \"tags\": [1, 2]},\n" +
+                "\"last\": 100, \"median\": 60, \"first\": 10, \"mean\": -5e-1, \"valid\": true } ")).isTrue();
+
+        assertThat(reader.mean()).isEqualTo(-0.5);
+        assertThat(reader.count()).isEqualTo(4);
+        assertThat(reader.last()).isEqualTo(100);
+    }
+
+    @Test
+    public void readerShouldParseDecimalsLikeTheJdk() {
+        for (String mean : new String[]{"0.1", "22.123456789", "-273.15", "1.7976931348623157E308", "4.9E-324", "123456789012345678901"}) {
+            assertThat(reader.read("{\"mean\":" + mean + ",\"first\":0,\"median\":0,\"last\":0,\"count\":0}")).isTrue();
+            assertThat(reader.mean()).isEqualTo(Double.parseDouble(mean));
+        }
+    }
+
+    @Test
+    public void readerShouldAcceptIntegralFieldsWrittenAsDecimals() {
+        assertThat(reader.read("{\"mean\":1,\"first\":10.0,\"median\":2e1,\"last\":30,\"count\":\"10\"}")).isTrue();
+
+        assertThat(reader.first()).isEqualTo(10);
+        assertThat(reader.median()).isEqualTo(20);
+        assertThat(reader.count()).isEqualTo(10);
+    }
+
+    @Test
+    public void readerShouldRejectMissingFields() {
+        assertThat(reader.read("{\"mean\":22.5,\"first\":10,\"median\":20,\"last\":30}")).isFalse();
+    }
+
+    @Test
+    public void readerShouldRejectFractionalIntegerFields() {
+        assertThat(reader.read("{\"mean\":22.5,\"first\":10.5,\"median\":20,\"last\":30,\"count\":10}")).isFalse();
+    }
+
+    @Test
+    public void readerShouldRejectMalformedJson() {
+        assertThat(reader.read("")).isFalse();
+        assertThat(reader.read("[]")).isFalse();
+        assertThat(reader.read("{\"mean\":22.5,\"first\":10,\"median\":20,\"last\":30,\"count\":10")).isFalse();
+        assertThat(reader.read("{\"mean\":22.5,\"first\":10,\"median\":20,\"last\":30,\"count\":10} {}")).isFalse();
+        assertThat(reader.read("{\"mean\":null,\"first\":10,\"median\":20,\"last\":30,\"count\":10}")).isFalse();
+        assertThat(reader.read("{\"mean\":1e999,\"first\":10,\"median\":20,\"last\":30,\"count\":10}")).isFalse();
+    }
+}
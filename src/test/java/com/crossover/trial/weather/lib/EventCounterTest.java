@@ -64,4 +64,39 @@ public class EventCounterTest {
         eventCounter.increment("foo");
         assertThat(eventCounter.countOf("foo")).isEqualTo(2);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void snapshotShouldContainAllCountsAndTheirTotal() {
+        eventCounter.increment("foo");
+        eventCounter.increment("bar");
+        eventCounter.increment("foo");
+
+        final EventCounter.Snapshot<String> snapshot = eventCounter.snapshot();
+        eventCounter.increment("foo");
+
+        assertThat(snapshot.countOf("foo")).isEqualTo(2);
+        assertThat(snapshot.countOf("baz")).isEqualTo(0);
+        assertThat(snapshot.totalCount()).isEqualTo(3);
+        assertThat(snapshot.fractionOf("bar")).isEqualTo(1.0 / 3);
+        assertThat(snapshot.counts().keySet()).containsOnly("foo", "bar");
+    }
+
+    @Test
+    public void concurrentIncrementsShouldAllBeCounted() throws Exception {
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    eventCounter.increment(j % 2 == 0 ? "foo" : "bar");
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(eventCounter.countOf("foo")).isEqualTo(20000);
+        assertThat(eventCounter.totalCount()).isEqualTo(40000);
+    }
+}
@@ -1,8 +1,13 @@
 package com.crossover.trial.weather.lib;
 
+import com.crossover.trial.weather.domain.gis.BoundingBox;
 import org.assertj.core.data.Offset;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 
@@ -28,6 +33,77 @@ public class GeoCalculationsTest {
         assertThat(geoCalculations.calculateDistance(point2, point1)).isEqualTo(2613.819, Offset.offset(1e-3));
     }
 
+    @Test
+    public void selectWithinRadiusShouldAgreeWithCalculateDistance() {
+        Random random = new Random(42);
+        int size = 10000;
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        double[] cosLatitudes = new double[size];
+        for (int i = 0; i < size; i++) {
+            latitudes[i] = i % 100 == 0 ? 90.0 : random.nextDouble() * 180.0 - 90.0;
+            longitudes[i] = i % 10 == 0 ? random.nextDouble() * 1080.0 - 540.0 : random.nextDouble() * 360.0 - 180.0;
+            cosLatitudes[i] = GeoCalculations.cosLatitude(latitudes[i]);
+        }
+        int[] selected = new int[size];
+
+        for (int query = 0; query < 100; query++) {
+            double latitude = random.nextDouble() * 180.0 - 90.0;
+            double longitude = random.nextDouble() * 360.0 - 180.0;
+            double radius = query % 2 == 0
+                    ? geoCalculations.calculateDistance(latitudes[query], longitudes[query], latitude, longitude)
+                    : random.nextDouble() * 5000.0;
+
+            int count = geoCalculations.selectWithinRadius(latitude, longitude, radius,
+                    latitudes, longitudes, cosLatitudes, 0, size, selected);
+
+            java.util.List<Integer> expected = new ArrayList<>();
+            for (int row = 0; row < size; row++) {
+                if (geoCalculations.calculateDistance(latitudes[row], longitudes[row], latitude, longitude) <= radius) {
+                    expected.add(row);
+                }
+            }
+            assertThat(Arrays.copyOf(selected, count)).containsExactly(expected.stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+
+    @Test
+    public void boundingBoxShouldContainTheWholeRadius() {
+        BoundingBox box = geoCalculations.boundingBox(new Point(0, 11), 2613.819);
+
+        assertThat(box.minLatitude()).isEqualTo(-23.5, Offset.offset(1e-4));
+        assertThat(box.maxLatitude()).isEqualTo(23.5, Offset.offset(1e-4));
+        assertThat(box.minLongitude()).isEqualTo(-12.5, Offset.offset(1e-4));
+        assertThat(box.maxLongitude()).isEqualTo(34.5, Offset.offset(1e-4));
+        assertThat(box.crossesAntimeridian()).isFalse();
+    }
+
+    @Test
+    public void boundingBoxShouldWrapAroundTheAntimeridian() {
+        BoundingBox box = geoCalculations.boundingBox(new Point(0, 179), 500);
+
+        assertThat(box.crossesAntimeridian()).isTrue();
+        assertThat(box.minLongitude()).isLessThan(179);
+        assertThat(box.maxLongitude()).isGreaterThan(-180).isLessThan(0);
+    }
+
+    @Test
+    public void boundingBoxShouldSpanAllLongitudesIfItContainsAPole() {
+        BoundingBox box = geoCalculations.boundingBox(new Point(89, 0), 500);
+
+        assertThat(box.maxLatitude()).isEqualTo(90.0);
+        assertThat(box.minLongitude()).isEqualTo(-180.0);
+        assertThat(box.maxLongitude()).isEqualTo(180.0);
+    }
+
+    @Test
+    public void normalizeLongitudeShouldMapIntoTheHalfOpenRange() {
+        assertThat(GeoCalculations.normalizeLongitude(180.0)).isEqualTo(-180.0);
+        assertThat(GeoCalculations.normalizeLongitude(190.0)).isEqualTo(-170.0, Offset.offset(1e-9));
+        assertThat(GeoCalculations.normalizeLongitude(-190.0)).isEqualTo(170.0, Offset.offset(1e-9));
+        assertThat(GeoCalculations.normalizeLongitude(42.0)).isEqualTo(42.0);
+    }
+
     static class Point implements com.crossover.trial.weather.domain.gis.Point {
         private final double latitude;
         private final double longitude;
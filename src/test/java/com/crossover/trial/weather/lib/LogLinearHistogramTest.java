@@ -0,0 +1,80 @@
+package com.crossover.trial.weather.lib;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LogLinearHistogramTest {
+
+    private LogLinearHistogram histogram = new LogLinearHistogram(4, 65535);
+
+    @Test
+    public void bucketsShouldCoverAllValuesWithoutGaps() {
+        for (int bucket = 1; bucket < histogram.bucketCount(); bucket++) {
+            assertThat(histogram.lowestValueAt(bucket))
+                    .isEqualTo(histogram.lowestValueAt(bucket - 1) + histogram.widthAt(bucket - 1));
+        }
+        for (long value = 0; value <= 65535; value++) {
+            final int bucket = histogram.bucketOf(value);
+            assertThat(value).isBetween(histogram.lowestValueAt(bucket),
+                    histogram.lowestValueAt(bucket) + histogram.widthAt(bucket) - 1);
+        }
+    }
+
+    @Test
+    public void bucketsShouldBeNarrowerThanTheGivenPrecision() {
+        for (int bucket = 16; bucket < histogram.bucketCount(); bucket++) {
+            assertThat((double) histogram.widthAt(bucket) / histogram.lowestValueAt(bucket)).isLessThanOrEqualTo(1.0 / 16);
+        }
+    }
+
+    @Test
+    public void memoryShouldNotDependOnRecordedValues() {
+        final int bucketCount = histogram.bucketCount();
+
+        histogram.record(1e9);
+        histogram.record(Double.POSITIVE_INFINITY);
+        histogram.record(-5);
+        histogram.record(Double.NaN);
+
+        assertThat(histogram.bucketCount()).isEqualTo(bucketCount).isEqualTo(208);
+        final LogLinearHistogram.Snapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.totalCount()).isEqualTo(3);
+        assertThat(snapshot.countAt(0)).isEqualTo(1);
+        assertThat(snapshot.countAt(bucketCount - 1)).isEqualTo(2);
+        assertThat(snapshot.valueAtPercentile(100)).isEqualTo(65535);
+    }
+
+    @Test
+    public void percentilesShouldBeExactForSmallValues() {
+        for (int radius = 1; radius <= 10; radius++) {
+            histogram.record(radius);
+        }
+
+        final LogLinearHistogram.Snapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.valueAtPercentile(50)).isEqualTo(5);
+        assertThat(snapshot.valueAtPercentile(90)).isEqualTo(9);
+        assertThat(snapshot.valueAtPercentile(100)).isEqualTo(10);
+    }
+
+    @Test
+    public void percentilesShouldBeWithinPrecisionForLargeValues() {
+        for (int radius = 1; radius <= 10000; radius++) {
+            histogram.record(radius);
+        }
+
+        final LogLinearHistogram.Snapshot snapshot = histogram.snapshot();
+        assertThat((double) snapshot.valueAtPercentile(50)).isBetween(5000.0, 5000.0 * 17 / 16);
+        assertThat((double) snapshot.valueAtPercentile(99)).isBetween(9900.0, 9900.0 * 17 / 16);
+    }
+
+    @Test
+    public void emptyHistogramShouldReportZero() {
+        assertThat(histogram.snapshot().valueAtPercentile(50)).isEqualTo(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void precisionShouldBeLimited() {
+        new LogLinearHistogram(17, 1000);
+    }
+}
@@ -0,0 +1,98 @@
+package com.crossover.trial.weather.lib;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SegmentedLruCacheTest {
+
+    private SegmentedLruCache<String, Integer> cache = new SegmentedLruCache<>(5);
+
+    @Test
+    public void getShouldCountHitsAndMisses() {
+        cache.put("a", 1);
+
+        assertThat(cache.get("a")).isEqualTo(1);
+        assertThat(cache.get("b")).isNull();
+
+        assertThat(cache.hitCount()).isEqualTo(1);
+        assertThat(cache.missCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void keysReadOnceShouldOnlyEvictFromProbation() {
+        cache.put("hot", 1);
+        cache.get("hot");
+
+        for (int i = 0; i < 10; i++) {
+            cache.put("cold" + i, i);
+        }
+
+        assertThat(cache.get("hot")).isEqualTo(1);
+        assertThat(cache.get("cold8")).isNull();
+        assertThat(cache.get("cold9")).isEqualTo(9);
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.evictionCount()).isEqualTo(9);
+    }
+
+    @Test
+    public void entriesDemotedFromProtectedShouldGetASecondChance() {
+        for (int i = 0; i < 5; i++) {
+            cache.put("key" + i, i);
+            cache.get("key" + i);
+        }
+
+        assertThat(cache.size()).isEqualTo(5);
+        assertThat(cache.evictionCount()).isEqualTo(0);
+        assertThat(cache.get("key0")).isEqualTo(0);
+
+        cache.put("new", 5);
+
+        assertThat(cache.size()).isEqualTo(5);
+        assertThat(cache.evictionCount()).isEqualTo(1);
+        assertThat(cache.get("new")).isEqualTo(5);
+    }
+
+    @Test
+    public void invalidValuesShouldBeRemovedAndCountedAsMisses() {
+        cache.put("a", 1);
+
+        assertThat(cache.get("a", value -> value > 1)).isNull();
+
+        assertThat(cache.size()).isEqualTo(0);
+        assertThat(cache.hitCount()).isEqualTo(0);
+        assertThat(cache.missCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void concurrentReadersAndWritersShouldStayWithinTheCapacity() throws Exception {
+        final SegmentedLruCache<Integer, Integer> shared = new SegmentedLruCache<>(50);
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    final int key = (i * 31 + seed) % 200;
+                    final Integer value = shared.get(key);
+                    if (value == null) {
+                        shared.put(key, key);
+                    } else {
+                        assertThat(value).isEqualTo(key);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(shared.size()).isEqualTo(50);
+        assertThat(shared.hitCount() + shared.missCount()).isEqualTo(400000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityBelowTwoShouldBeRejected() {
+        new SegmentedLruCache<String, Integer>(1);
+    }
+}
@@ -0,0 +1,59 @@
+package com.crossover.trial.weather.lib;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SlidingWindowTest {
+
+    private SlidingWindow<LongAdder> window = new SlidingWindow<>(60000, 12, LongAdder::new);
+
+    @Test
+    public void bucketsOfOnePeriodShouldBeShared() {
+        assertThat(window.current(10000)).isSameAs(window.current(14999));
+        assertThat(window.current(10000)).isNotSameAs(window.current(15000));
+    }
+
+    @Test
+    public void windowShouldOnlyContainBucketsOfTheLastWindow() {
+        window.current(0).add(1);
+        window.current(30000).add(2);
+        window.current(59999).add(4);
+
+        assertThat(sum(59999)).isEqualTo(7);
+        assertThat(sum(60000)).isEqualTo(6);
+        assertThat(sum(89999)).isEqualTo(6);
+        assertThat(sum(90000)).isEqualTo(4);
+        assertThat(sum(200000)).isEqualTo(0);
+    }
+
+    @Test
+    public void expiredBucketsShouldBeReplaced() {
+        window.current(0).add(1);
+
+        window.current(60000).add(8);
+
+        assertThat(sum(60000)).isEqualTo(8);
+    }
+
+    @Test
+    public void updatesForAnEarlierPeriodShouldNotReviveAnExpiredBucket() {
+        window.current(60000).add(8);
+
+        window.current(0).add(1);
+
+        assertThat(sum(0)).isEqualTo(0);
+        assertThat(sum(60000)).isEqualTo(9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void windowShouldHaveAtLeastOneMillisecondPerBucket() {
+        new SlidingWindow<>(10, 12, LongAdder::new);
+    }
+
+    private long sum(long now) {
+        return window.fold(now, 0L, (sum, bucket) -> sum + bucket.sum());
+    }
+}
@@ -0,0 +1,59 @@
+package com.crossover.trial.weather.lib;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TimerWheelTest {
+
+    private TimerWheel<String> wheel = new TimerWheel<>(10, 4, 0);
+
+    @Test
+    public void itemsShouldBePassedOnOnceTheirTickPassed() {
+        wheel.schedule("a", 25);
+        wheel.schedule("b", 35);
+
+        assertThat(advance(19)).isEmpty();
+        assertThat(advance(29)).containsExactly("a");
+        assertThat(advance(100)).containsExactly("b");
+        assertThat(wheel.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void itemsDueInALaterRevolutionShouldWaitForIt() {
+        wheel.schedule("a", 55);
+        wheel.schedule("b", 15);
+
+        assertThat(advance(15)).containsExactly("b");
+        assertThat(advance(49)).isEmpty();
+        assertThat(advance(55)).containsExactly("a");
+    }
+
+    @Test
+    public void overdueItemsShouldBePassedOnByTheNextAdvance() {
+        advance(50);
+
+        wheel.schedule("a", 10);
+
+        assertThat(advance(50)).containsExactly("a");
+    }
+
+    @Test
+    public void passedOnItemsMayBeScheduledAgain() {
+        wheel.schedule("a", 5);
+
+        assertThat(wheel.advance(10, item -> wheel.schedule(item, 30))).isEqualTo(1);
+
+        assertThat(wheel.size()).isEqualTo(1);
+        assertThat(advance(30)).containsExactly("a");
+    }
+
+    private List<String> advance(long now) {
+        final List<String> expired = new ArrayList<>();
+        wheel.advance(now, expired::add);
+        return expired;
+    }
+}
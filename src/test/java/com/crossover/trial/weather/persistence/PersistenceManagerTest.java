@@ -0,0 +1,235 @@
+package com.crossover.trial.weather.persistence;
+
+import com.crossover.trial.weather.domain.Airport;
+import com.crossover.trial.weather.domain.measurement.DataPointType;
+import com.crossover.trial.weather.repositories.AirportListener;
+import com.crossover.trial.weather.repositories.AirportRepository;
+import com.crossover.trial.weather.repositories.WeatherDataRepository;
+import com.crossover.trial.weather.repositories.WeatherListener;
+import javaslang.collection.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PersistenceManagerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void firstStartShouldKeepTheAirportsAndWriteASnapshot() throws Exception {
+        final AirportRepository airportRepository = airportRepositoryWith("BOS");
+        final PersistenceManager manager = manager(airportRepository, weatherDataRepository());
+
+        manager.start();
+        manager.stop();
+
+        assertThat(airportRepository.getIataCodes()).containsExactly("BOS");
+        assertThat(folder.getRoot().list()).containsOnly("snapshot-0000000000000000.bin", "wal-0000000000000000.log");
+    }
+
+    @Test
+    public void restartShouldRecoverAddedAndRemovedAirports() throws Exception {
+        final AirportRepository airportRepository = airportRepositoryWith("BOS");
+        final PersistenceManager manager = manager(airportRepository, weatherDataRepository());
+        manager.start();
+        airportRepository.addAirport("JFK", 40.64, -73.78);
+        airportRepository.removeAirport("BOS");
+        manager.stop();
+
+        final AirportRepository recovered = airportRepositoryWith("BOS");
+        manager(recovered, weatherDataRepository()).start();
+
+        assertThat(recovered.getIataCodes()).containsExactly("JFK");
+        assertThat(recovered.getAirport("JFK").get().latitude()).isEqualTo(40.64);
+    }
+
+    @Test
+    public void replayedAirportsShouldBeAddedInBatches() throws Exception {
+        final AirportRepository airportRepository = airportRepositoryWith("BOS");
+        final PersistenceManager manager = manager(airportRepository, weatherDataRepository());
+        manager.start();
+        airportRepository.addAirport("JFK", 40.64, -73.78);
+        airportRepository.addAirport("LGA", 40.78, -73.87);
+        airportRepository.removeAirport("JFK");
+        airportRepository.addAirport("EWR", 40.69, -74.17);
+        manager.stop();
+
+        final AirportRepository recovered = spy(airportRepositoryWith("BOS"));
+        manager(recovered, weatherDataRepository()).start();
+
+        assertThat(recovered.getIataCodes()).containsOnly("BOS", "LGA", "EWR");
+        verify(recovered, never()).addAirport(any(Airport.class));
+        verify(recovered, times(2)).addAirports(anyCollectionOf(Airport.class));
+    }
+
+    @Test
+    public void restartShouldReplayLoggedWeatherUpdates() throws Exception {
+        final WeatherDataRepository weatherDataRepository = weatherDataRepository();
+        final PersistenceManager manager = manager(airportRepositoryWith("BOS"), weatherDataRepository);
+        manager.start();
+        final ArgumentCaptor<WeatherListener> log = ArgumentCaptor.forClass(WeatherListener.class);
+        verify(weatherDataRepository).addListener(log.capture());
+        log.getValue().weatherUpdated("BOS", DataPointType.WIND, 3L, 1000L, 22.5, 1, 2, 3, 4);
+        manager.stop();
+
+        final WeatherDataRepository recovered = weatherDataRepository();
+        manager(airportRepositoryWith("BOS"), recovered).start();
+
+        verify(recovered).apply("BOS", DataPointType.WIND, 3L, 1000L, 22.5, 1, 2, 3, 4);
+    }
+
+    @Test
+    public void snapshotFailingHalfWayShouldNotLeaveItsWeatherDataBehind() throws Exception {
+        writeSnapshotWithAnUnknownRecord(0);
+        final AirportRepository airportRepository = airportRepositoryWith("BOS");
+        final WeatherDataRepository recovered = weatherDataRepository();
+
+        manager(airportRepository, recovered).start();
+
+        final InOrder order = inOrder(recovered);
+        order.verify(recovered).apply("BOS", DataPointType.WIND, 3L, 1000L, 22.5, 1, 2, 3, 4);
+        order.verify(recovered).removeAllStations();
+        assertThat(airportRepository.getIataCodes()).containsExactly("BOS");
+    }
+
+    @Test
+    public void airportFileShouldOnlyBeLoadedWithoutPersistedState() throws Exception {
+        try (AnnotationConfigApplicationContext first = context()) {
+            final AirportRepository airportRepository = first.getBean(AirportRepository.class);
+            assertThat(airportRepository.getAirportCount()).isEqualTo(10);
+            airportRepository.removeAirport("LHR");
+        }
+
+        try (AnnotationConfigApplicationContext second = context()) {
+            final AirportRepository airportRepository = second.getBean(AirportRepository.class);
+            assertThat(airportRepository.getAirportCount()).isEqualTo(9);
+            assertThat(airportRepository.hasAirport("LHR")).isFalse();
+        }
+
+        int records = 0;
+        for (File file : folder.getRoot().listFiles()) {
+            if (WriteAheadLog.segmentNumberOf(file.toPath()) >= 0) {
+                records += WriteAheadLog.replay(file.toPath(), mock(AirportListener.class), mock(WeatherListener.class));
+            }
+        }
+        assertThat(records).isEqualTo(0);
+    }
+
+    @Test
+    public void emptyDirectoryShouldDisablePersistence() throws Exception {
+        final PersistenceManager manager = manager(airportRepositoryWith("BOS"), weatherDataRepository());
+        ReflectionTestUtils.setField(manager, "directory", "");
+
+        manager.start();
+        manager.stop();
+
+        assertThat(folder.getRoot().list()).isEmpty();
+    }
+
+    private PersistenceManager manager(AirportRepository airportRepository, WeatherDataRepository weatherDataRepository) {
+        final PersistenceManager manager = new PersistenceManager();
+        ReflectionTestUtils.setField(manager, "directory", folder.getRoot().getPath());
+        ReflectionTestUtils.setField(manager, "segmentSize", 4096);
+        ReflectionTestUtils.setField(manager, "syncInterval", 10L);
+        ReflectionTestUtils.setField(manager, "snapshotInterval", 60000L);
+        ReflectionTestUtils.setField(manager, "airportRepository", airportRepository);
+        ReflectionTestUtils.setField(manager, "weatherDataRepository", weatherDataRepository);
+        return manager;
+    }
+
+    /**
+     * The repositories with their persistence in the temporary folder and the airports of {@code airports.dat}.
+     */
+    private AnnotationConfigApplicationContext context() throws Exception {
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put("weather.persistence.directory", folder.getRoot().getPath());
+        properties.put("weather.persistence.segment-size", "65536");
+        properties.put("weather.airports.file", Paths.get(getClass().getResource("/airports.dat").toURI()).toString());
+
+        final AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("test", properties));
+        context.register(RepositoryConfiguration.class);
+        context.refresh();
+        return context;
+    }
+
+    @Configuration
+    @ComponentScan(basePackages = {
+            "com.crossover.trial.weather.lib",
+            "com.crossover.trial.weather.repositories",
+            "com.crossover.trial.weather.persistence"})
+    static class RepositoryConfiguration {
+        @Bean
+        static PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer() {
+            return new PropertySourcesPlaceholderConfigurer();
+        }
+    }
+
+    /**
+     * Writes a snapshot with a matching checksum holding a weather record followed by a record of an unknown type.
+     */
+    private void writeSnapshotWithAnUnknownRecord(long segmentNumber) throws IOException {
+        final CRC32 checksum = new CRC32();
+        try (DataOutputStream output = new DataOutputStream(new CheckedOutputStream(
+                Files.newOutputStream(SnapshotStore.snapshotPath(folder.getRoot().toPath(), segmentNumber)), checksum))) {
+            output.writeInt(0x57534e50);
+            output.writeInt(1);
+            output.writeByte(2);
+            output.writeUTF("BOS");
+            output.writeByte(DataPointType.WIND.ordinal());
+            output.writeLong(3L);
+            output.writeLong(1000L);
+            output.writeDouble(22.5);
+            output.writeInt(1);
+            output.writeInt(2);
+            output.writeInt(3);
+            output.writeInt(4);
+            output.writeByte(9);
+            output.writeByte(0);
+            output.writeLong(checksum.getValue());
+        }
+    }
+
+    private static AirportRepository airportRepositoryWith(String iataCode) {
+        final AirportRepository airportRepository = new AirportRepository();
+        airportRepository.addAirport(iataCode, 42.36, -71.0);
+        return airportRepository;
+    }
+
+    private static WeatherDataRepository weatherDataRepository() {
+        final WeatherDataRepository weatherDataRepository = mock(WeatherDataRepository.class);
+        when(weatherDataRepository.getWeatherData()).thenReturn(List.empty());
+        return weatherDataRepository;
+    }
+}
@@ -0,0 +1,119 @@
+package com.crossover.trial.weather.persistence;
+
+import com.crossover.trial.weather.domain.ImmutableAirport;
+import com.crossover.trial.weather.domain.measurement.DataPointType;
+import com.crossover.trial.weather.repositories.AirportRepository;
+import com.crossover.trial.weather.repositories.Resolution;
+import com.crossover.trial.weather.repositories.RollupListener;
+import com.crossover.trial.weather.repositories.WeatherDataRepository;
+import com.crossover.trial.weather.repositories.WeatherListener;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SnapshotStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private WeatherDataRepository weatherDataRepository;
+
+    private final AirportRepository airportRepository = new AirportRepository();
+
+    private Path directory;
+
+    private SnapshotStore store;
+
+    @Before
+    public void setUp() {
+        directory = folder.getRoot().toPath();
+        store = new SnapshotStore(directory);
+
+        airportRepository.addAirport("BOS", 42.36, -71.0);
+        airportRepository.addAirport("JFK", 40.64, -73.78);
+        doAnswer(invocation -> {
+            final WeatherListener target = (WeatherListener) invocation.getArguments()[0];
+            target.weatherUpdated("BOS", DataPointType.WIND, 4L, 1000L, 22.5, 1, 2, 3, 4);
+            target.weatherUpdated("BOS", DataPointType.WIND, 5L, 2000L, 23.5, 5, 6, 7, 8);
+            return null;
+        }).when(weatherDataRepository).export(any(WeatherListener.class));
+        doAnswer(invocation -> {
+            final RollupListener target = (RollupListener) invocation.getArguments()[0];
+            target.rolledUp("BOS", DataPointType.WIND, Resolution.HOUR, 7200000L, 0L, 20.5, 1, 4, 9, 60);
+            target.rolledUp("BOS", DataPointType.WIND, Resolution.DAY, 0L, 0L, 21.5, 1, 4, 9, 60);
+            return null;
+        }).when(weatherDataRepository).exportRollups(any(RollupListener.class));
+    }
+
+    @Test
+    public void readShouldRestoreWhatWasWritten() throws Exception {
+        store.write(7, airportRepository, weatherDataRepository);
+
+        final AirportRepository restored = new AirportRepository();
+        restored.addAirport("MMU", 40.8, -74.4);
+        assertThat(store.read(SnapshotStore.snapshotPath(directory, 7), restored, weatherDataRepository)).isTrue();
+
+        assertThat(restored.getIataCodes()).containsOnly("BOS", "JFK");
+        assertThat(restored.getAirport("BOS").get())
+                .isEqualTo(ImmutableAirport.builder().iataCode("BOS").latitude(42.36).longitude(-71.0).build());
+        verify(weatherDataRepository).apply("BOS", DataPointType.WIND, 4L, 1000L, 22.5, 1, 2, 3, 4);
+        verify(weatherDataRepository).apply("BOS", DataPointType.WIND, 5L, 2000L, 23.5, 5, 6, 7, 8);
+        verify(weatherDataRepository).restoreRollup("BOS", DataPointType.WIND, Resolution.HOUR, 7200000L, 0L, 20.5, 1, 4, 9, 60);
+        verify(weatherDataRepository).restoreRollup("BOS", DataPointType.WIND, Resolution.DAY, 0L, 0L, 21.5, 1, 4, 9, 60);
+    }
+
+    @Test
+    public void readShouldRejectACorruptSnapshotWithoutModifyingTheRepositories() throws Exception {
+        store.write(7, airportRepository, weatherDataRepository);
+        try (RandomAccessFile file = new RandomAccessFile(SnapshotStore.snapshotPath(directory, 7).toFile(), "rw")) {
+            file.seek(12);
+            final byte original = file.readByte();
+            file.seek(12);
+            file.writeByte(original ^ 0x55);
+        }
+
+        final AirportRepository restored = new AirportRepository();
+        restored.addAirport("MMU", 40.8, -74.4);
+        assertThat(store.read(SnapshotStore.snapshotPath(directory, 7), restored, weatherDataRepository)).isFalse();
+
+        assertThat(restored.getIataCodes()).containsExactly("MMU");
+        verify(weatherDataRepository, never()).apply(anyString(), any(DataPointType.class), anyLong(), anyLong(),
+                anyDouble(), anyInt(), anyInt(), anyInt(), anyInt());
+    }
+
+    @Test
+    public void readShouldRejectATruncatedSnapshot() throws Exception {
+        store.write(7, airportRepository, weatherDataRepository);
+        try (RandomAccessFile file = new RandomAccessFile(SnapshotStore.snapshotPath(directory, 7).toFile(), "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        assertThat(store.read(SnapshotStore.snapshotPath(directory, 7), new AirportRepository(), weatherDataRepository)).isFalse();
+    }
+
+    @Test
+    public void writeShouldNotLeaveTemporaryFiles() throws Exception {
+        store.write(7, airportRepository, weatherDataRepository);
+
+        assertThat(folder.getRoot().list()).containsExactly("snapshot-0000000000000007.bin");
+    }
+}
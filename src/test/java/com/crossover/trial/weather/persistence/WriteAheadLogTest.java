@@ -0,0 +1,209 @@
+package com.crossover.trial.weather.persistence;
+
+import com.crossover.trial.weather.domain.ImmutableAirport;
+import com.crossover.trial.weather.domain.measurement.DataPointType;
+import com.crossover.trial.weather.repositories.AirportListener;
+import com.crossover.trial.weather.repositories.WeatherListener;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class WriteAheadLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private AirportListener airportListener;
+
+    @Mock
+    private WeatherListener weatherListener;
+
+    @Test
+    public void replayShouldReturnAllRecordsInOrder() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final WriteAheadLog log = new WriteAheadLog(directory, 4096, 0);
+        log.airportAdded(ImmutableAirport.builder().iataCode("BOS").latitude(42.36).longitude(-71.0).build());
+        log.weatherUpdated("BOS", DataPointType.WIND, 7L, 1000L, 22.5, 1, 2, 3, 4);
+        log.stationRemoved("BOS");
+        log.airportRemoved("BOS");
+        log.close();
+
+        assertThat(WriteAheadLog.replay(WriteAheadLog.segmentPath(directory, 0), airportListener, weatherListener)).isEqualTo(4);
+
+        final InOrder order = inOrder(airportListener, weatherListener);
+        order.verify(airportListener).airportAdded(ImmutableAirport.builder().iataCode("BOS").latitude(42.36).longitude(-71.0).build());
+        order.verify(weatherListener).weatherUpdated("BOS", DataPointType.WIND, 7L, 1000L, 22.5, 1, 2, 3, 4);
+        order.verify(weatherListener).stationRemoved("BOS");
+        order.verify(airportListener).airportRemoved("BOS");
+    }
+
+    @Test
+    public void replayShouldStopAtATornRecord() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final WriteAheadLog log = new WriteAheadLog(directory, 4096, 0);
+        log.weatherUpdated("BOS", DataPointType.WIND, 1L, 1000L, 22.5, 1, 2, 3, 4);
+        log.weatherUpdated("BOS", DataPointType.WIND, 2L, 2000L, 23.5, 1, 2, 3, 4);
+        log.close();
+
+        try (RandomAccessFile file = new RandomAccessFile(WriteAheadLog.segmentPath(directory, 0).toFile(), "rw")) {
+            final int firstLength = file.readInt();
+            file.seek(8 + firstLength + 8 + 20);
+            file.writeByte(0x55);
+        }
+
+        assertThat(WriteAheadLog.replay(WriteAheadLog.segmentPath(directory, 0), airportListener, weatherListener)).isEqualTo(1);
+        verify(weatherListener).weatherUpdated("BOS", DataPointType.WIND, 1L, 1000L, 22.5, 1, 2, 3, 4);
+        verify(weatherListener, never()).weatherUpdated(anyString(), any(DataPointType.class), eq(2L), anyLong(),
+                anyDouble(), anyInt(), anyInt(), anyInt(), anyInt());
+    }
+
+    @Test
+    public void fullSegmentShouldRollOverToTheNextOne() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final WriteAheadLog log = new WriteAheadLog(directory, 512, 3);
+        for (int i = 0; i < 10; i++) {
+            log.weatherUpdated("BOS", DataPointType.WIND, i, i, i, i, i, i, i);
+        }
+        log.close();
+
+        final int firstSegment = WriteAheadLog.replay(WriteAheadLog.segmentPath(directory, 3), airportListener, weatherListener);
+        final int secondSegment = WriteAheadLog.replay(WriteAheadLog.segmentPath(directory, 4), airportListener, weatherListener);
+
+        assertThat(firstSegment).isGreaterThan(0);
+        assertThat(firstSegment + secondSegment).isEqualTo(10);
+    }
+
+    @Test
+    public void rollOverShouldReturnTheNewSegmentNumber() throws Exception {
+        final WriteAheadLog log = new WriteAheadLog(folder.getRoot().toPath(), 256, 3);
+
+        assertThat(log.rollOver()).isEqualTo(4L);
+        assertThat(WriteAheadLog.segmentPath(folder.getRoot().toPath(), 4).toFile()).exists();
+    }
+
+    @Test
+    public void fullSegmentShouldContinueInThePreparedSegment() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final WriteAheadLog log = new WriteAheadLog(directory, 512, 3);
+        log.prepareSegment();
+        assertThat(WriteAheadLog.segmentPath(directory, 4).toFile()).exists();
+
+        for (int i = 0; i < 10; i++) {
+            log.weatherUpdated("BOS", DataPointType.WIND, i, i, i, i, i, i, i);
+        }
+        log.force();
+        log.close();
+
+        final int firstSegment = WriteAheadLog.replay(WriteAheadLog.segmentPath(directory, 3), airportListener, weatherListener);
+        final int secondSegment = WriteAheadLog.replay(WriteAheadLog.segmentPath(directory, 4), airportListener, weatherListener);
+        assertThat(firstSegment + secondSegment).isEqualTo(10);
+        assertThat(WriteAheadLog.segmentPath(directory, 5).toFile()).doesNotExist();
+    }
+
+    @Test
+    public void closeShouldDeleteAnUnusedPreparedSegment() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final WriteAheadLog log = new WriteAheadLog(directory, 512, 3);
+        log.prepareSegment();
+        log.prepareSegment();
+
+        log.close();
+
+        assertThat(folder.getRoot().list()).containsExactly("wal-0000000000000003.log");
+    }
+
+    @Test
+    public void recordsWhichCanNotBeAppendedShouldBeDroppedAndCounted() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final WriteAheadLog log = new WriteAheadLog(directory, 256, 3);
+        Files.createFile(WriteAheadLog.segmentPath(directory, 4));
+
+        for (int i = 0; i < 5; i++) {
+            log.weatherUpdated("BOS", DataPointType.WIND, i, i, i, i, i, i, i);
+        }
+        assertThat(log.failedAppendCount()).isEqualTo(1);
+
+        Files.delete(WriteAheadLog.segmentPath(directory, 4));
+        log.weatherUpdated("BOS", DataPointType.WIND, 5, 5, 5, 5, 5, 5, 5);
+        log.close();
+
+        assertThat(log.failedAppendCount()).isEqualTo(1);
+        assertThat(WriteAheadLog.replay(WriteAheadLog.segmentPath(directory, 3), airportListener, weatherListener)).isEqualTo(4);
+        assertThat(WriteAheadLog.replay(WriteAheadLog.segmentPath(directory, 4), airportListener, weatherListener)).isEqualTo(1);
+    }
+
+    @Test
+    public void recordsAppendedConcurrentlyWithRollOversShouldAllBeReplayed() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        final WriteAheadLog log = new WriteAheadLog(directory, 4096, 0);
+        final Thread[] writers = new Thread[4];
+        for (int w = 0; w < writers.length; w++) {
+            final String stationId = "S" + w;
+            writers[w] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    log.weatherUpdated(stationId, DataPointType.WIND, i, i, i, i, i, i, i);
+                }
+            });
+            writers[w].start();
+        }
+        for (Thread writer : writers) {
+            while (writer.isAlive()) {
+                log.prepareSegment();
+                log.rollOver();
+                Thread.sleep(1);
+            }
+            writer.join();
+        }
+        log.close();
+
+        final Set<String> replayed = new HashSet<>();
+        final WeatherListener collector = new WeatherListener() {
+            @Override
+            public void weatherUpdated(String stationId, DataPointType dataType, long sequence, long timestamp,
+                                       double mean, int first, int median, int last, int count) {
+                replayed.add(stationId + sequence);
+            }
+
+            @Override
+            public void stationRemoved(String stationId) {
+            }
+        };
+        for (File file : folder.getRoot().listFiles()) {
+            WriteAheadLog.replay(file.toPath(), airportListener, collector);
+        }
+        assertThat(replayed).hasSize(40000);
+        assertThat(log.failedAppendCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void segmentNumberOfShouldOnlyAcceptSegmentNames() {
+        final Path directory = folder.getRoot().toPath();
+
+        assertThat(WriteAheadLog.segmentNumberOf(WriteAheadLog.segmentPath(directory, 42))).isEqualTo(42L);
+        assertThat(WriteAheadLog.segmentNumberOf(directory.resolve("snapshot-0000000000000042.bin"))).isEqualTo(-1L);
+    }
+}
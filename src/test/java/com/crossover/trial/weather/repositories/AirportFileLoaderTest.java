@@ -0,0 +1,123 @@
+package com.crossover.trial.weather.repositories;
+
+import com.crossover.trial.weather.domain.Airport;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AirportFileLoaderTest {
+
+    /**
+     * budget for loading 10k airports, far above the expected time to catch regressions by orders of magnitude only
+     */
+    private static final long LOAD_BUDGET_MILLIS = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void loadShouldParseAirportsDat() throws Exception {
+        final List<Airport> airports = AirportFileLoader.load(Paths.get(getClass().getResource("/airports.dat").toURI()));
+
+        assertThat(airports).hasSize(10);
+        final Airport boston = airports.stream().filter(airport -> airport.iataCode().equals("BOS")).findFirst().get();
+        assertThat(boston.latitude()).isEqualTo(42.364347);
+        assertThat(boston.longitude()).isEqualTo(-71.005181);
+    }
+
+    @Test
+    public void loadShouldSkipInvalidRows() throws Exception {
+        final File file = write(
+                "1,\"Logan, Intl\",\"Boston\",\"United States\",\"BOS\",\"KBOS\",42.364347,-71.005181,19,-5,\"A\"\r\n" +
+                "2,\"Short\",\"Row\"\n" +
+                "\n" +
+                "3,\"Bad\",\"Coordinates\",\"United States\",\"BAD\",\"KBAD\",north,-71.0,19,-5,\"A\"\n" +
+                "4,\"Too long\",\"Code\",\"United States\",\"TOOLONG\",\"KTOO\",42.0,-71.0,19,-5,\"A\"\n" +
+                "5,\"Z\u00fcrich\",\"Z\u00fcrich\",\"Switzerland\",\"ZRH\",\"LSZH\",47.464722,8.549167,1416,1,\"E\"");
+
+        final List<Airport> airports = AirportFileLoader.load(file.toPath());
+
+        assertThat(airports).extracting(Airport::iataCode).containsExactly("BOS", "ZRH");
+        assertThat(airports.get(1).longitude()).isEqualTo(8.549167);
+    }
+
+    @Test
+    public void chunksShouldStartAtLineBeginnings() {
+        final ByteBuffer buffer = ByteBuffer.wrap("aaaa\nbb\ncccccc\nd\n".getBytes(StandardCharsets.US_ASCII));
+
+        assertThat(AirportFileLoader.chunkStarts(buffer, 3)).containsExactly(0, 5, 15, 17);
+        assertThat(AirportFileLoader.chunkStarts(buffer, 1)).containsExactly(0, 17);
+    }
+
+    @Test
+    public void startShouldAddTenThousandAirportsWithinBudget() throws Exception {
+        final StringBuilder rows = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            final String iataCode = "" + (char) ('A' + i / 676 % 26) + (char) ('A' + i / 26 % 26) + (char) ('A' + i % 26)
+                    + (char) ('A' + i / 17576);
+            rows.append(i).append(",\"Airport ").append(i).append("\",\"City\",\"Country\",\"").append(iataCode)
+                    .append("\",\"ICAO\",").append(i % 180 - 90).append(".5,").append(i % 360 - 180).append(".5,0,0,\"U\"\n");
+        }
+        final AirportFileLoader loader = loader(write(rows.toString()).getPath());
+
+        final long start = System.nanoTime();
+        loader.start();
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        final ArgumentCaptor<Collection> airports = ArgumentCaptor.forClass(Collection.class);
+        verify((AirportRepository) ReflectionTestUtils.getField(loader, "airportRepository")).addAirports(airports.capture());
+        assertThat(airports.getValue()).hasSize(10000);
+        assertThat(elapsed).isLessThan(LOAD_BUDGET_MILLIS);
+    }
+
+    @Test
+    public void startShouldDoNothingWithoutFile() {
+        final AirportFileLoader loader = loader("");
+
+        loader.start();
+
+        verify((AirportRepository) ReflectionTestUtils.getField(loader, "airportRepository"), never()).addAirports(any());
+    }
+
+    @Test
+    public void startShouldNotLoadOverRecoveredAirports() throws Exception {
+        final AirportFileLoader loader = loader(Paths.get(getClass().getResource("/airports.dat").toURI()).toString());
+        final AirportRepository airportRepository = (AirportRepository) ReflectionTestUtils.getField(loader, "airportRepository");
+        when(airportRepository.wereReplaced()).thenReturn(true);
+
+        loader.start();
+
+        verify(airportRepository, never()).addAirports(any());
+    }
+
+    private AirportFileLoader loader(String file) {
+        final AirportFileLoader loader = new AirportFileLoader();
+        ReflectionTestUtils.setField(loader, "file", file);
+        ReflectionTestUtils.setField(loader, "airportRepository", mock(AirportRepository.class));
+        return loader;
+    }
+
+    private File write(String content) throws Exception {
+        final File file = folder.newFile();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -1,17 +1,33 @@
 package com.crossover.trial.weather.repositories;
 
 import com.crossover.trial.weather.domain.Airport;
+import com.crossover.trial.weather.domain.ImmutableAirport;
+import com.crossover.trial.weather.domain.gis.BoundingBox;
+import com.crossover.trial.weather.domain.gis.ImmutableBoundingBox;
+import com.crossover.trial.weather.lib.GeoCalculations;
+import javaslang.Tuple2;
+import javaslang.collection.List;
 import org.assertj.core.api.Condition;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
+import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import java.util.ArrayList;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 
 @RunWith(MockitoJUnitRunner.class)
 public class AirportRepositoryTest {
 
+    @Spy
+    private GeoCalculations geoCalculations = new GeoCalculations();
+
     @InjectMocks
     private AirportRepository repository;
 
@@ -55,4 +71,211 @@ public class AirportRepositoryTest {
         assertThat(repository.getAirport("foo")).isEmpty();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void getAirportsWithinShouldOnlyReturnAirportsInsideTheRadius() {
+        repository.addAirport("JFK", 40.639751, -73.778925);
+        repository.addAirport("LGA", 40.777245, -73.872608);
+        repository.addAirport("BOS", 42.364347, -71.005181);
+
+        assertThat(repository.getAirportsWithin(center(40.639751, -73.778925), 50.0).map(Airport::iataCode))
+                .containsOnly("JFK", "LGA");
+    }
+
+    @Test
+    public void getAirportsWithinShouldFindAirportsAcrossTheAntimeridian() {
+        repository.addAirport("EAS", 0.0, 179.9);
+        repository.addAirport("WES", 0.0, -179.9);
+        repository.addAirport("FAR", 0.0, 170.0);
+
+        assertThat(repository.getAirportsWithin(center(0.0, 179.9), 100.0).map(Airport::iataCode))
+                .containsOnly("EAS", "WES");
+    }
+
+    @Test
+    public void getAirportsWithinShouldFindAirportsAcrossThePole() {
+        repository.addAirport("NOR", 89.5, 0.0);
+        repository.addAirport("SOU", 89.5, 180.0);
+        repository.addAirport("FAR", 80.0, 0.0);
+
+        assertThat(repository.getAirportsWithin(center(89.5, 0.0), 200.0).map(Airport::iataCode))
+                .containsOnly("NOR", "SOU");
+    }
+
+    @Test
+    public void getAirportsWithinShouldNotReturnRemovedAirports() {
+        repository.addAirport("JFK", 40.639751, -73.778925);
+        repository.addAirport("LGA", 40.777245, -73.872608);
+
+        repository.removeAirport("LGA");
+
+        assertThat(repository.getAirportsWithin(center(40.639751, -73.778925), 50.0).map(Airport::iataCode))
+                .containsOnly("JFK");
+    }
+
+    @Test
+    public void countAndForEachShouldVisitTheAirportsWithinTheRadius() {
+        repository.addAirport("EAS", 0.0, 179.9);
+        repository.addAirport("WES", 0.0, -179.9);
+        repository.addAirport("FAR", 0.0, 170.0);
+        final java.util.List<String> visited = new ArrayList<>();
+
+        repository.forEachAirportWithin(center(0.0, 179.9), 100.0, visited::add);
+
+        assertThat(visited).containsOnly("EAS", "WES");
+        assertThat(repository.countAirportsWithin(center(0.0, 179.9), 100.0)).isEqualTo(2);
+    }
+
+    @Test
+    public void forEachAirportInShouldVisitTheAirportsInsideTheBox() {
+        repository.addAirport("INS", 10.5, 20.0);
+        repository.addAirport("LAT", 11.5, 20.0);
+        repository.addAirport("EAS", 0.0, 179.5);
+        repository.addAirport("WES", 0.0, -179.5);
+        repository.addAirport("NOR", 89.9, 45.0);
+
+        assertThat(airportsIn(box(10.0, 19.0, 11.2, 21.0))).containsOnly("INS");
+        assertThat(airportsIn(box(-1.0, 179.0, 1.0, -179.0))).containsOnly("EAS", "WES");
+        assertThat(airportsIn(box(89.0, -180.0, 90.0, 180.0))).containsOnly("NOR");
+    }
+
+    @Test
+    public void getNearestAirportsShouldReturnTheAcceptedAirportsNearestFirst() {
+        repository.addAirport("JFK", 40.639751, -73.778925);
+        repository.addAirport("LGA", 40.777245, -73.872608);
+        repository.addAirport("EWR", 40.6925, -74.168667);
+        repository.addAirport("BOS", 42.364347, -71.005181);
+        repository.addAirport("SYD", -33.946111, 151.177222);
+
+        assertThat(repository.getNearestAirports(center(40.639751, -73.778925), 3, iataCode -> true).map(Tuple2::_1))
+                .containsExactly("JFK", "LGA", "EWR");
+        assertThat(repository.getNearestAirports(center(40.639751, -73.778925), 2, iataCode -> !iataCode.equals("LGA"))
+                .map(Tuple2::_1))
+                .containsExactly("JFK", "EWR");
+        assertThat(repository.getNearestAirports(center(40.639751, -73.778925), Integer.MAX_VALUE, iataCode -> true))
+                .hasSize(repository.getAirportCount());
+        assertThat(repository.getNearestAirports(center(40.639751, -73.778925), 10, iataCode -> true).last()._1())
+                .isEqualTo("SYD");
+    }
+
+    @Test
+    public void getNearestAirportsShouldSearchAcrossTheAntimeridianAndThePole() {
+        repository.addAirport("EAS", 0.0, 179.9);
+        repository.addAirport("WES", 0.0, -179.0);
+        repository.addAirport("FAR", 0.0, 170.0);
+        repository.addAirport("NOR", 89.5, 0.0);
+        repository.addAirport("SOU", 89.0, 180.0);
+
+        assertThat(repository.getNearestAirports(center(0.0, 179.9), 3, iataCode -> true).map(Tuple2::_1))
+                .containsExactly("EAS", "WES", "FAR");
+        assertThat(repository.getNearestAirports(center(89.5, 0.0), 2, iataCode -> true).map(Tuple2::_1))
+                .containsExactly("NOR", "SOU");
+    }
+
+    @Test
+    public void movedAirportShouldOnlyBeFoundAtItsNewLocation() {
+        repository.addAirport("foo", 49.0, 11.0);
+
+        repository.addAirport("foo", -33.0, 151.0);
+
+        assertThat(repository.getAirports().toList()).hasSize(1);
+        assertThat(repository.getAirportsWithin(center(49.0, 11.0), 100.0)).isEmpty();
+        assertThat(repository.getAirportsWithin(center(-33.0, 151.0), 100.0).map(Airport::iataCode)).containsOnly("foo");
+    }
+
+    @Test
+    public void airportsMovedWithinTheirBandShouldNotDisplaceOthers() {
+        repository.addAirport("aaa", 10.5, 10.0);
+        repository.addAirport("bbb", 10.5, 20.0);
+        repository.addAirport("ccc", 10.5, 30.0);
+
+        repository.addAirport("aaa", 10.5, 40.0);
+        repository.addAirport("ccc", 10.5, 5.0);
+
+        assertThat(repository.getAirportsWithin(center(10.5, 5.0), 100.0).map(Airport::iataCode)).containsExactly("ccc");
+        assertThat(repository.getAirportsWithin(center(10.5, 10.0), 100.0)).isEmpty();
+        assertThat(repository.getAirportsWithin(center(10.5, 20.0), 100.0).map(Airport::iataCode)).containsExactly("bbb");
+        assertThat(repository.getAirportsWithin(center(10.5, 30.0), 100.0)).isEmpty();
+        assertThat(repository.getAirportsWithin(center(10.5, 40.0), 100.0).map(Airport::iataCode)).containsExactly("aaa");
+    }
+
+    @Test
+    public void hasAirportShouldReflectAddAndRemove() {
+        assertThat(repository.hasAirport("foo")).isFalse();
+
+        repository.addAirport("foo", 49.0, 11.0);
+        assertThat(repository.hasAirport("foo")).isTrue();
+
+        repository.removeAirport("foo");
+        assertThat(repository.hasAirport("foo")).isFalse();
+    }
+
+    @Test
+    public void addAirportsShouldAddAllAirportsAndReplaceExistingOnes() {
+        repository.addAirport("foo", 49.0, 11.0);
+
+        repository.addAirports(List.of(
+                airport("foo", -33.0, 151.0),
+                airport("bar", 40.0, -74.0)));
+
+        assertThat(repository.getIataCodes()).containsOnly("foo", "bar");
+        assertThat(repository.getAirport("foo").get().latitude()).isEqualTo(-33.0);
+        assertThat(repository.getAirportsWithin(center(40.0, -74.0), 10.0).map(Airport::iataCode)).containsOnly("bar");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addingAnAirportWithAnInvalidCodeShouldFail() {
+        repository.addAirport("TOOLONG", 49.0, 11.0);
+    }
+
+    @Test
+    public void lookingUpAnInvalidCodeShouldReturnEmptyResult() {
+        assertThat(repository.getAirport("TOOLONG")).isEmpty();
+    }
+
+    @Test
+    public void modificationsShouldBeReportedToListeners() {
+        final AirportListener listener = mock(AirportListener.class);
+        repository.addListener(listener);
+        final Airport airport = airport("BOS", 42.36, -71.0);
+
+        repository.addAirport(airport);
+        repository.removeAirport("BOS");
+        repository.removeAirport("BOS");
+
+        verify(listener).airportAdded(airport);
+        verify(listener, times(1)).airportRemoved("BOS");
+    }
+
+    @Test
+    public void replaceAirportsShouldNotNotifyListeners() {
+        final AirportListener listener = mock(AirportListener.class);
+        repository.addAirport("foo", 49.0, 11.0);
+        repository.addListener(listener);
+
+        repository.replaceAirports(List.of(airport("BOS", 42.36, -71.0)));
+
+        assertThat(repository.getIataCodes()).containsExactly("BOS");
+        verifyZeroInteractions(listener);
+    }
+
+    private java.util.List<String> airportsIn(BoundingBox box) {
+        final java.util.List<String> visited = new ArrayList<>();
+        repository.forEachAirportIn(box, visited::add);
+        return visited;
+    }
+
+    private static BoundingBox box(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+        return ImmutableBoundingBox.builder()
+                .minLatitude(minLatitude).minLongitude(minLongitude)
+                .maxLatitude(maxLatitude).maxLongitude(maxLongitude)
+                .build();
+    }
+
+    private static Airport center(double latitude, double longitude) {
+        return airport("center", latitude, longitude);
+    }
+
+    private static Airport airport(String iataCode, double latitude, double longitude) {
+        return ImmutableAirport.builder().iataCode(iataCode).latitude(latitude).longitude(longitude).build();
+    }
+}
@@ -0,0 +1,118 @@
+package com.crossover.trial.weather.repositories;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HistoryRollupTest {
+
+    private static final long MINUTE = 60000L;
+    private static final long HOUR = 3600000L;
+
+    private final SampleHistory raw = new SampleHistory(256);
+
+    private final HistoryRollup rollup = new HistoryRollup(64);
+
+    @Test
+    public void foldShouldMergeDataPointsPerBucket() {
+        final TimeSeries samples = new TimeSeries(4);
+        samples.add(0L, 10.0, 5, 10, 20, 1);
+        samples.add(30000L, 20.0, 1, 20, 40, 3);
+        samples.add(MINUTE, 50.0, 50, 50, 50, 2);
+
+        final TimeSeries buckets = new TimeSeries(2);
+        HistoryRollup.fold(samples, MINUTE, buckets);
+
+        assertThat(buckets.size()).isEqualTo(2);
+        assertThat(buckets.timestamp(0)).isEqualTo(0L);
+        assertThat(buckets.mean(0)).isEqualTo(17.5);
+        assertThat(buckets.first(0)).isEqualTo(1);
+        assertThat(buckets.median(0)).isEqualTo(18);
+        assertThat(buckets.last(0)).isEqualTo(40);
+        assertThat(buckets.count(0)).isEqualTo(4);
+        assertThat(buckets.timestamp(1)).isEqualTo(MINUTE);
+        assertThat(buckets.mean(1)).isEqualTo(50.0);
+    }
+
+    @Test
+    public void foldShouldWeighDataPointsWithoutCountEqually() {
+        final TimeSeries samples = new TimeSeries(2);
+        samples.add(0L, 10.0, 0, 10, 0, 0);
+        samples.add(1L, 20.0, 0, 20, 0, 0);
+
+        final TimeSeries buckets = new TimeSeries(1);
+        HistoryRollup.fold(samples, MINUTE, buckets);
+
+        assertThat(buckets.mean(0)).isEqualTo(15.0);
+        assertThat(buckets.median(0)).isEqualTo(15);
+    }
+
+    @Test
+    public void rollUpShouldOnlyFoldCompletedMinutes() {
+        raw.append(1000L, 10.0, 1, 1, 1, 1);
+        raw.append(MINUTE + 1000L, 20.0, 1, 1, 1, 1);
+
+        rollup.rollUp(raw, MINUTE + 2000L);
+
+        final TimeSeries minutes = rollup.query(raw, Resolution.MINUTE, 0L, MINUTE - 1, Long.MIN_VALUE);
+        assertThat(minutes.size()).isEqualTo(1);
+        assertThat(minutes.mean(0)).isEqualTo(10.0);
+    }
+
+    @Test
+    public void queryShouldFoldDataWhichIsNotRolledUpYet() {
+        raw.append(1000L, 10.0, 1, 1, 1, 1);
+        raw.append(MINUTE + 1000L, 20.0, 1, 1, 1, 1);
+        raw.append(2 * MINUTE + 1000L, 30.0, 1, 1, 1, 1);
+        rollup.rollUp(raw, 2 * MINUTE + 2000L);
+
+        final TimeSeries minutes = rollup.query(raw, Resolution.MINUTE, 0L, Long.MAX_VALUE, Long.MIN_VALUE);
+        assertThat(minutes.size()).isEqualTo(3);
+        assertThat(minutes.timestamp(2)).isEqualTo(2 * MINUTE);
+        assertThat(minutes.mean(2)).isEqualTo(30.0);
+
+        final TimeSeries hours = rollup.query(raw, Resolution.HOUR, 0L, Long.MAX_VALUE, Long.MIN_VALUE);
+        assertThat(hours.size()).isEqualTo(1);
+        assertThat(hours.mean(0)).isEqualTo(20.0);
+        assertThat(hours.count(0)).isEqualTo(3);
+    }
+
+    @Test
+    public void hoursShouldBeRolledUpFromMinutesAcrossRollUps() {
+        for (int minute = 0; minute < 90; minute++) {
+            raw.append(minute * MINUTE, minute, minute, minute, minute, 1);
+            rollup.rollUp(raw, minute * MINUTE + 2000L);
+        }
+        rollup.rollUp(raw, 2 * HOUR);
+
+        final TimeSeries hours = rollup.query(raw, Resolution.HOUR, 0L, Long.MAX_VALUE, 2 * HOUR);
+        assertThat(hours.size()).isEqualTo(2);
+        assertThat(hours.timestamp(0)).isEqualTo(0L);
+        assertThat(hours.count(0)).isEqualTo(60);
+        assertThat(hours.mean(0)).isEqualTo(29.5);
+        assertThat(hours.first(0)).isEqualTo(0);
+        assertThat(hours.last(0)).isEqualTo(59);
+        assertThat(hours.timestamp(1)).isEqualTo(HOUR);
+        assertThat(hours.count(1)).isEqualTo(30);
+    }
+
+    @Test
+    public void rawQueryShouldRespectTheRetention() {
+        raw.append(1000L, 10.0, 1, 1, 1, 1);
+        raw.append(5000L, 20.0, 1, 1, 1, 1);
+
+        final TimeSeries samples = rollup.query(raw, Resolution.RAW, 0L, Long.MAX_VALUE, 2000L);
+
+        assertThat(samples.size()).isEqualTo(1);
+        assertThat(samples.mean(0)).isEqualTo(20.0);
+    }
+
+    @Test
+    public void coarsestWithinShouldPickTheLargestTierNotExceedingTheResolution() {
+        assertThat(Resolution.coarsestWithin(0L)).isEqualTo(Resolution.RAW);
+        assertThat(Resolution.coarsestWithin(59999L)).isEqualTo(Resolution.RAW);
+        assertThat(Resolution.coarsestWithin(MINUTE)).isEqualTo(Resolution.MINUTE);
+        assertThat(Resolution.coarsestWithin(2 * HOUR)).isEqualTo(Resolution.HOUR);
+        assertThat(Resolution.coarsestWithin(Long.MAX_VALUE)).isEqualTo(Resolution.DAY);
+    }
+}
@@ -0,0 +1,39 @@
+package com.crossover.trial.weather.repositories;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IataCodesTest {
+
+    @Test
+    public void packedCodeShouldUnpackToTheOriginal() {
+        assertThat(IataCodes.unpack(IataCodes.pack("BOS"))).isEqualTo("BOS");
+        assertThat(IataCodes.unpack(IataCodes.pack("foo"))).isEqualTo("foo");
+        assertThat(IataCodes.unpack(IataCodes.pack("KBOS"))).isEqualTo("KBOS");
+        assertThat(IataCodes.unpack(IataCodes.pack("X"))).isEqualTo("X");
+    }
+
+    @Test
+    public void threeLetterCodesShouldFitInto21Bits() {
+        assertThat(IataCodes.pack("ZZZ") >>> 21).isEqualTo(0);
+    }
+
+    @Test
+    public void packedCodesShouldKeepTheOrderOfTheStrings() {
+        assertThat(IataCodes.pack("BOS")).isLessThan(IataCodes.pack("EWR"));
+        assertThat(IataCodes.pack("AB")).isLessThan(IataCodes.pack("ABC"));
+    }
+
+    @Test
+    public void invalidCodesShouldNotBePackable() {
+        assertThat(IataCodes.tryPack("")).isEqualTo(IataCodes.NOT_PACKABLE);
+        assertThat(IataCodes.tryPack("TOOLONG")).isEqualTo(IataCodes.NOT_PACKABLE);
+        assertThat(IataCodes.tryPack("M\u00dcC")).isEqualTo(IataCodes.NOT_PACKABLE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void packingAnInvalidCodeShouldFail() {
+        IataCodes.pack("TOOLONG");
+    }
+}
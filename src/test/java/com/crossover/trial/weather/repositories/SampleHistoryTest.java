@@ -0,0 +1,128 @@
+package com.crossover.trial.weather.repositories;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SampleHistoryTest {
+
+    @Test
+    public void capacityShouldBeRoundedUpToAPowerOfTwo() {
+        assertThat(new SampleHistory(5).capacity()).isEqualTo(8);
+        assertThat(new SampleHistory(8).capacity()).isEqualTo(8);
+    }
+
+    @Test
+    public void copyShouldReturnSamplesOldestFirst() {
+        final SampleHistory history = new SampleHistory(8);
+        history.append(100L, 1.0, 1, 2, 3, 4);
+        history.append(200L, 2.0, 5, 6, 7, 8);
+
+        final TimeSeries series = new TimeSeries(8);
+        history.copy(Long.MIN_VALUE, Long.MAX_VALUE, series);
+
+        assertThat(series.size()).isEqualTo(2);
+        assertThat(series.timestamp(0)).isEqualTo(100L);
+        assertThat(series.mean(0)).isEqualTo(1.0);
+        assertThat(series.first(1)).isEqualTo(5);
+        assertThat(series.median(1)).isEqualTo(6);
+        assertThat(series.last(1)).isEqualTo(7);
+        assertThat(series.count(1)).isEqualTo(8);
+    }
+
+    @Test
+    public void copyShouldOnlyReturnSamplesInTheTimeRange() {
+        final SampleHistory history = new SampleHistory(8);
+        for (int i = 0; i < 5; i++) {
+            history.append(i * 100L, i, i, i, i, i);
+        }
+
+        final TimeSeries series = new TimeSeries(8);
+        history.copy(100L, 300L, series);
+
+        assertThat(series.size()).isEqualTo(3);
+        assertThat(series.timestamp(0)).isEqualTo(100L);
+        assertThat(series.timestamp(2)).isEqualTo(300L);
+    }
+
+    @Test
+    public void fullHistoryShouldDropTheOldestSamples() {
+        final SampleHistory history = new SampleHistory(8);
+        for (int i = 0; i < 20; i++) {
+            history.append(i, i, i, i, i, i);
+        }
+
+        final TimeSeries series = new TimeSeries(8);
+        history.copy(Long.MIN_VALUE, Long.MAX_VALUE, series);
+
+        assertThat(series.size()).isEqualTo(7);
+        assertThat(series.timestamp(0)).isEqualTo(13L);
+        assertThat(series.timestamp(6)).isEqualTo(19L);
+    }
+
+    @Test
+    public void concurrentAppendsShouldNeverProduceTornOrOverwrittenSamples() throws Exception {
+        final SampleHistory history = new SampleHistory(64);
+        final Thread writer = new Thread(() -> {
+            for (int i = 1; i < 1000000; i++) {
+                history.append(i, i, i, i, i, i);
+            }
+        });
+        writer.start();
+
+        final TimeSeries series = new TimeSeries(64);
+        while (writer.isAlive()) {
+            history.copy(Long.MIN_VALUE, Long.MAX_VALUE, series);
+            for (int i = 0; i < series.size(); i++) {
+                assertThat(series.mean(i)).isEqualTo(series.timestamp(i));
+                assertThat(series.count(i)).isEqualTo(series.timestamp(i));
+                if (i > 0) {
+                    assertThat(series.timestamp(i)).isEqualTo(series.timestamp(i - 1) + 1);
+                }
+            }
+        }
+        writer.join();
+    }
+
+    @Test
+    public void concurrentReadersShouldOnlySeeIntactSamples() throws Exception {
+        final SampleHistory history = new SampleHistory(16);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicReference<String> tornSample = new AtomicReference<>();
+
+        final List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            readers.add(new Thread(() -> {
+                final TimeSeries series = new TimeSeries(16);
+                while (writing.get() && tornSample.get() == null) {
+                    history.copy(Long.MIN_VALUE, Long.MAX_VALUE, series);
+                    for (int i = 0; i < series.size(); i++) {
+                        final long timestamp = series.timestamp(i);
+                        if (series.mean(i) != timestamp || series.first(i) != (int) timestamp
+                                || series.median(i) != (int) -timestamp || series.last(i) != (int) timestamp
+                                || series.count(i) != (int) -timestamp
+                                || i > 0 && timestamp != series.timestamp(i - 1) + 1) {
+                            tornSample.set("sample " + i + " of " + timestamp);
+                        }
+                    }
+                }
+            }));
+        }
+        readers.forEach(Thread::start);
+
+        for (int i = 1; i < 2000000; i++) {
+            history.append(i, i, i, -i, i, -i);
+        }
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertThat(tornSample.get()).isNull();
+    }
+}
@@ -9,8 +9,17 @@ import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
 public class StationDataRepositoryTest {
@@ -65,6 +74,275 @@ public class StationDataRepositoryTest {
         assertThat(repository.toData().temperature()).isNull();
     }
 
+    @Test
+    public void acceptedUpdateShouldBeReportedAndStored() {
+        assertThat(repository.update(DataPointType.PRESSURE, 700.0, 1, 2, 3, 4)).isTrue();
+
+        assertThat(repository.get(DataPointType.PRESSURE)).isEqualTo(
+                ImmutableDataPoint.builder().mean(700.0).first(1).median(2).last(3).count(4).build());
+    }
+
+    @Test
+    public void rejectedUpdateShouldBeReportedAndKeepThePreviousData() {
+        repository.update(DataPointType.PRESSURE, 700.0, 1, 2, 3, 4);
+
+        assertThat(repository.update(DataPointType.PRESSURE, 800.0, 5, 6, 7, 8)).isFalse();
+
+        assertThat(repository.get(DataPointType.PRESSURE).mean()).isEqualTo(700.0);
+    }
+
+    @Test
+    public void negativeQuartilesShouldSurviveThePrimitiveSlots() {
+        repository.update(DataPointType.TEMPERATURE, -20.0, -30, -20, -10, Integer.MAX_VALUE);
+
+        assertThat(repository.get(DataPointType.TEMPERATURE)).isEqualTo(
+                ImmutableDataPoint.builder().mean(-20.0).first(-30).median(-20).last(-10).count(Integer.MAX_VALUE).build());
+    }
+
+    @Test
+    public void concurrentUpdatesShouldNeverProduceTornDataPoints() throws Exception {
+        final Thread writer = new Thread(() -> {
+            for (int i = 0; i < 100000; i++) {
+                repository.update(DataPointType.HUMIDITY, i % 100, i, i, i, i);
+            }
+        });
+        writer.start();
+
+        while (writer.isAlive()) {
+            final DataPoint data = repository.get(DataPointType.HUMIDITY);
+            if (data != null) {
+                assertThat(data.first()).isEqualTo(data.median()).isEqualTo(data.last()).isEqualTo(data.count());
+                assertThat(data.mean()).isEqualTo(data.count() % 100);
+            }
+        }
+        writer.join();
+    }
+
+    @Test
+    public void historyShouldContainAcceptedDataPointsWithTheirTimestamps() {
+        when(timestampFactory.getCurrentTimestamp()).thenReturn(1000L, 2000L, 3000L, 4000L);
+        repository.update(DataPointType.PRESSURE, 700.0, 1, 2, 3, 4);
+        repository.update(DataPointType.PRESSURE, 900.0, 1, 2, 3, 4);
+        repository.update(DataPointType.PRESSURE, 710.0, 5, 6, 7, 8);
+
+        final TimeSeries history = repository.history(DataPointType.PRESSURE, 0L, Long.MAX_VALUE);
+
+        assertThat(history.size()).isEqualTo(2);
+        assertThat(history.timestamp(0)).isEqualTo(1000L);
+        assertThat(history.mean(0)).isEqualTo(700.0);
+        assertThat(history.timestamp(1)).isEqualTo(2000L);
+        assertThat(history.dataPoint(1)).isEqualTo(
+                ImmutableDataPoint.builder().mean(710.0).first(5).median(6).last(7).count(8).build());
+    }
+
+    @Test
+    public void historyShouldBeEmptyForTypesWithoutData() {
+        assertThat(repository.history(DataPointType.WIND, 0L, Long.MAX_VALUE).isEmpty()).isTrue();
+    }
+
+    @Test
+    public void historyShouldNotReturnDataPointsOlderThanTheRetention() {
+        when(timestampFactory.getCurrentTimestamp()).thenReturn(0L, 86400000L, 86400001L);
+        repository.update(DataPointType.WIND, 1.0, 1, 2, 3, 4);
+        repository.update(DataPointType.WIND, 2.0, 1, 2, 3, 4);
+
+        final TimeSeries history = repository.history(DataPointType.WIND, 0L, Long.MAX_VALUE);
+
+        assertThat(history.size()).isEqualTo(1);
+        assertThat(history.mean(0)).isEqualTo(2.0);
+    }
+
+    @Test
+    public void rolledUpHistoryShouldAggregateCompletedMinutes() {
+        when(timestampFactory.getCurrentTimestamp()).thenReturn(1000L, 2000L, 61000L, 62000L);
+        repository.update(DataPointType.WIND, 10.0, 1, 2, 3, 1);
+        repository.update(DataPointType.WIND, 20.0, 4, 5, 6, 3);
+
+        repository.rollUp();
+
+        final TimeSeries history = repository.history(DataPointType.WIND, 0L, Long.MAX_VALUE, Resolution.MINUTE);
+        assertThat(history.size()).isEqualTo(1);
+        assertThat(history.timestamp(0)).isEqualTo(0L);
+        assertThat(history.dataPoint(0)).isEqualTo(
+                ImmutableDataPoint.builder().mean(17.5).first(1).median(4).last(6).count(4).build());
+    }
+
+    @Test
+    public void restoredRollupsShouldBeQueriedAndNotRolledUpAgain() {
+        when(timestampFactory.getCurrentTimestamp()).thenReturn(1000L, 2000L, 61000L, 62000L);
+        repository.update(DataPointType.WIND, 10.0, 1, 2, 3, 1);
+        repository.update(DataPointType.WIND, 20.0, 4, 5, 6, 3);
+        repository.rollUp();
+
+        final StationDataRepository restored = new StationDataRepository();
+        ReflectionTestUtils.setField(restored, "timestampFactory", timestampFactory);
+        repository.exportRollups((stationId, dataType, resolution, rolledUpTo, timestamp, mean, first, median, last, count) ->
+                restored.restoreRollup(dataType, resolution, rolledUpTo, timestamp, mean, first, median, last, count));
+        restored.rollUp();
+
+        final TimeSeries history = restored.history(DataPointType.WIND, 0L, Long.MAX_VALUE, Resolution.MINUTE);
+        assertThat(history.size()).isEqualTo(1);
+        assertThat(history.dataPoint(0)).isEqualTo(
+                ImmutableDataPoint.builder().mean(17.5).first(1).median(4).last(6).count(4).build());
+    }
+
+    @Test
+    public void acceptedUpdatesShouldBeReportedToTheBoundListenerWithTheirSequence() {
+        final WeatherListener listener = mock(WeatherListener.class);
+        repository.bind("BOS", 0L, listener, new UpdateTimeIndex());
+        when(timestampFactory.getCurrentTimestamp()).thenReturn(1000L, 2000L);
+
+        repository.update(DataPointType.PRESSURE, 700.0, 1, 2, 3, 4);
+        repository.update(DataPointType.PRESSURE, 900.0, 1, 2, 3, 4);
+        repository.update(DataPointType.PRESSURE, 710.0, 5, 6, 7, 8);
+
+        verify(listener).weatherUpdated("BOS", DataPointType.PRESSURE, 1L, 1000L, 700.0, 1, 2, 3, 4);
+        verify(listener).weatherUpdated("BOS", DataPointType.PRESSURE, 2L, 2000L, 710.0, 5, 6, 7, 8);
+        verifyNoMoreInteractions(listener);
+    }
+
+    @Test
+    public void listenerShouldBeNotifiedOnceReadersCanSeeTheUpdate() {
+        final List<DataPoint> seen = new ArrayList<>();
+        repository.bind("BOS", 0L, new WeatherListener() {
+            @Override
+            public void weatherUpdated(String stationId, DataPointType dataType, long sequence, long timestamp,
+                                       double mean, int first, int median, int last, int count) {
+                seen.add(repository.get(dataType));
+            }
+
+            @Override
+            public void stationRemoved(String stationId) {
+            }
+        }, new UpdateTimeIndex());
+
+        repository.update(DataPointType.WIND, createData(1.0));
+
+        assertThat(seen).containsExactly(createData(1.0));
+    }
+
+    @Test
+    public void lastUpdateTimeShouldBeKeptPerType() {
+        when(timestampFactory.getCurrentTimestamp()).thenReturn(1000L, 2000L);
+        repository.update(DataPointType.PRESSURE, createData(700.0));
+        repository.update(DataPointType.WIND, createData(1.0));
+
+        assertThat(repository.lastUpdateTime(DataPointType.PRESSURE)).isEqualTo(1000L);
+        assertThat(repository.lastUpdateTime(DataPointType.WIND)).isEqualTo(2000L);
+        assertThat(repository.lastUpdateTime(DataPointType.HUMIDITY)).isEqualTo(0L);
+        assertThat(repository.lastUpdateTime()).isEqualTo(2000L);
+        assertThat(repository.toData().lastUpdateTime()).isEqualTo(2000L);
+    }
+
+    @Test
+    public void applyShouldIgnoreDataPointsWithAnOldSequence() {
+        assertThat(repository.apply(DataPointType.WIND, 5L, 1000L, 1.0, 1, 2, 3, 4)).isTrue();
+        assertThat(repository.apply(DataPointType.WIND, 5L, 1000L, 2.0, 1, 2, 3, 4)).isFalse();
+        assertThat(repository.apply(DataPointType.WIND, 4L, 1000L, 3.0, 1, 2, 3, 4)).isFalse();
+
+        assertThat(repository.get(DataPointType.WIND).mean()).isEqualTo(1.0);
+        assertThat(repository.toData().lastUpdateTime()).isEqualTo(1000L);
+    }
+
+    @Test
+    public void updatesAfterApplyShouldContinueTheSequence() {
+        final WeatherListener listener = mock(WeatherListener.class);
+        repository.bind("BOS", 0L, listener, new UpdateTimeIndex());
+        repository.apply(DataPointType.WIND, 5L, 1000L, 1.0, 1, 2, 3, 4);
+
+        repository.update(DataPointType.WIND, 2.0, 1, 2, 3, 4);
+
+        verify(listener).weatherUpdated("BOS", DataPointType.WIND, 6L, 0L, 2.0, 1, 2, 3, 4);
+    }
+
+    @Test
+    public void stationUpdatedAfterTheIdleTimeShouldNotBeRetired() {
+        when(timestampFactory.getCurrentTimestamp()).thenReturn(2000L);
+        repository.update(DataPointType.WIND, 1.0, 1, 2, 3, 4);
+
+        assertThat(repository.retireIfIdleSince(1999L)).isFalse();
+        assertThat(repository.isRetired()).isFalse();
+        assertThat(repository.update(DataPointType.WIND, 2.0, 1, 2, 3, 4)).isTrue();
+    }
+
+    @Test
+    public void retiredStationShouldNotStoreOrReportUpdates() {
+        final WeatherListener listener = mock(WeatherListener.class);
+        repository.bind("BOS", 0L, listener, new UpdateTimeIndex());
+        when(timestampFactory.getCurrentTimestamp()).thenReturn(1000L);
+        repository.update(DataPointType.WIND, 1.0, 1, 2, 3, 4);
+
+        assertThat(repository.retireIfIdleSince(1000L)).isTrue();
+        assertThat(repository.retire()).isFalse();
+        assertThat(repository.update(DataPointType.WIND, 2.0, 1, 2, 3, 4)).isFalse();
+
+        assertThat(repository.isRetired()).isTrue();
+        assertThat(repository.get(DataPointType.WIND).mean()).isEqualTo(1.0);
+        assertThat(repository.version()).isEqualTo(1L);
+        verify(listener).weatherUpdated("BOS", DataPointType.WIND, 1L, 1000L, 1.0, 1, 2, 3, 4);
+        verifyNoMoreInteractions(listener);
+    }
+
+    @Test
+    public void exportShouldReportTheHistoryWithConsecutiveSequences() {
+        final WeatherListener listener = mock(WeatherListener.class);
+        repository.bind("BOS", 0L, mock(WeatherListener.class), new UpdateTimeIndex());
+        when(timestampFactory.getCurrentTimestamp()).thenReturn(1000L, 2000L);
+        repository.update(DataPointType.WIND, 1.0, 1, 2, 3, 4);
+        repository.update(DataPointType.WIND, 2.0, 5, 6, 7, 8);
+
+        repository.export(listener);
+
+        verify(listener).weatherUpdated("BOS", DataPointType.WIND, 1L, 1000L, 1.0, 1, 2, 3, 4);
+        verify(listener).weatherUpdated("BOS", DataPointType.WIND, 2L, 2000L, 2.0, 5, 6, 7, 8);
+        verifyNoMoreInteractions(listener);
+    }
+
+    @Test
+    public void versionsShouldStartAtTheBoundFirstVersion() {
+        repository.bind("BOS", 41L, mock(WeatherListener.class), new UpdateTimeIndex());
+
+        assertThat(repository.snapshot().version()).isEqualTo(41L);
+        repository.update(DataPointType.WIND, 1.0, 1, 2, 3, 4);
+
+        assertThat(repository.version()).isEqualTo(42L);
+        assertThat(repository.snapshot().version()).isEqualTo(42L);
+        assertThat(repository.snapshot().data().wind().mean()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void snapshotShouldBeSharedUntilTheNextAcceptedUpdate() {
+        repository.update(DataPointType.WIND, 1.0, 1, 2, 3, 4);
+        final StationSnapshot first = repository.snapshot();
+
+        assertThat(repository.snapshot()).isSameAs(first);
+        assertThat(first.version()).isEqualTo(1L);
+
+        repository.update(DataPointType.WIND, -1.0, 1, 2, 3, 4);
+        assertThat(repository.snapshot()).isSameAs(first);
+
+        repository.update(DataPointType.HUMIDITY, 50.0, 1, 2, 3, 4);
+        final StationSnapshot second = repository.snapshot();
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.version()).isEqualTo(2L);
+        assertThat(second.data().wind().mean()).isEqualTo(1.0);
+        assertThat(second.data().humidity().mean()).isEqualTo(50.0);
+    }
+
+    @Test
+    public void snapshotShouldCacheItsJson() {
+        when(timestampFactory.getCurrentTimestamp()).thenReturn(1000L);
+        repository.update(DataPointType.WIND, 1.5, 1, 2, 3, 4);
+
+        final byte[] json = repository.snapshot().json();
+
+        assertThat(repository.snapshot().json()).isSameAs(json);
+        assertThat(new String(json, StandardCharsets.UTF_8))
+                .contains("\"wind\":{\"mean\":1.5,\"first\":1,\"median\":2,\"last\":3,\"count\":4}")
+                .contains("\"lastUpdateTime\":1000");
+    }
+
     private ImmutableDataPoint createData(double mean) {
         return ImmutableDataPoint.builder().first(0).median(1).last(0).count(1).mean(mean).build();
     }
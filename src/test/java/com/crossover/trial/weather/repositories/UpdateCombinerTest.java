@@ -0,0 +1,112 @@
+package com.crossover.trial.weather.repositories;
+
+import com.crossover.trial.weather.domain.measurement.DataPointType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UpdateCombinerTest {
+
+    @Test
+    public void updatesOfAllThreadsShouldBeAppliedOneAtATime() throws InterruptedException {
+        final AtomicInteger applying = new AtomicInteger();
+        final int[] applied = {0};
+        final UpdateCombiner combiner = new UpdateCombiner((stationId, dataType, data, mean, first, median, last, count) -> {
+            assertThat(applying.incrementAndGet()).isEqualTo(1);
+            applied[0]++;
+            applying.decrementAndGet();
+            return mean >= 0;
+        });
+        final AtomicInteger rejected = new AtomicInteger();
+
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    if (!combiner.update("BOS", DataPointType.WIND, null, i % 2 - 0.5, i, i, i, 1)) {
+                        rejected.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(applied[0]).isEqualTo(40000);
+        assertThat(rejected.get()).isEqualTo(20000);
+    }
+
+    @Test
+    public void threadsWaitingForASlowUpdateShouldPark() throws InterruptedException {
+        final CountDownLatch applying = new CountDownLatch(1);
+        final CountDownLatch slowUpdate = new CountDownLatch(1);
+        final UpdateCombiner combiner = new UpdateCombiner((stationId, dataType, data, mean, first, median, last, count) -> {
+            if (stationId.equals("BOS")) {
+                applying.countDown();
+                try {
+                    slowUpdate.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return true;
+        });
+        final AtomicInteger accepted = new AtomicInteger();
+
+        final Thread slow = new Thread(() -> {
+            if (combiner.update("BOS", DataPointType.WIND, null, 1.0, 1, 2, 3, 4)) {
+                accepted.incrementAndGet();
+            }
+        });
+        slow.start();
+        applying.await();
+        final Thread waiting = new Thread(() -> {
+            if (combiner.update("JFK", DataPointType.WIND, null, 1.0, 1, 2, 3, 4)) {
+                accepted.incrementAndGet();
+            }
+        });
+        waiting.start();
+
+        while (waiting.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        slowUpdate.countDown();
+        slow.join();
+        waiting.join();
+
+        assertThat(accepted.get()).isEqualTo(2);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failuresShouldBeRethrownToTheUpdatingThread() {
+        final UpdateCombiner combiner = new UpdateCombiner((stationId, dataType, data, mean, first, median, last, count) -> {
+            throw new IllegalStateException(stationId);
+        });
+
+        combiner.update("BOS", DataPointType.WIND, null, 1.0, 1, 2, 3, 4);
+    }
+
+    @Test
+    public void updatesMadeWhileApplyingShouldBeAppliedDirectly() {
+        final List<String> applied = new ArrayList<>();
+        final UpdateCombiner[] combiner = new UpdateCombiner[1];
+        combiner[0] = new UpdateCombiner((stationId, dataType, data, mean, first, median, last, count) -> {
+            if (stationId.equals("BOS")) {
+                combiner[0].update("JFK", dataType, data, mean, first, median, last, count);
+            }
+            applied.add(stationId);
+            return true;
+        });
+
+        assertThat(combiner[0].update("BOS", DataPointType.WIND, null, 1.0, 1, 2, 3, 4)).isTrue();
+
+        assertThat(applied).containsExactly("JFK", "BOS");
+    }
+}
@@ -0,0 +1,55 @@
+package com.crossover.trial.weather.repositories;
+
+import org.junit.Test;
+
+import static com.crossover.trial.weather.repositories.UpdateTimeIndex.MINUTES;
+import static com.crossover.trial.weather.repositories.UpdateTimeIndex.MINUTE_MILLIS;
+import static com.crossover.trial.weather.repositories.UpdateTimeIndex.NEVER;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UpdateTimeIndexTest {
+
+    private UpdateTimeIndex index = new UpdateTimeIndex();
+
+    @Test
+    public void emptyIndexShouldCountNothing() {
+        assertThat(index.countSince(0, 1000 * MINUTE_MILLIS)).isEqualTo(0);
+    }
+
+    @Test
+    public void stationsShouldBeCountedInTheMinuteTheyMovedTo() {
+        index.move(NEVER, 10);
+        index.move(NEVER, 10);
+        index.move(NEVER, 12);
+        index.move(10, 13);
+
+        assertThat(index.countSince(0, 20 * MINUTE_MILLIS)).isEqualTo(3);
+        assertThat(index.countSince(11 * MINUTE_MILLIS, 20 * MINUTE_MILLIS)).isEqualTo(2);
+        assertThat(index.countSince(10 * MINUTE_MILLIS + 59999, 20 * MINUTE_MILLIS)).isEqualTo(3);
+        assertThat(index.countSince(0, 12 * MINUTE_MILLIS)).isEqualTo(2);
+    }
+
+    @Test
+    public void removedStationsShouldNotBeCounted() {
+        index.move(NEVER, 10);
+        index.move(NEVER, 10);
+
+        index.remove(10);
+        index.remove(NEVER);
+
+        assertThat(index.countSince(0, 20 * MINUTE_MILLIS)).isEqualTo(1);
+    }
+
+    @Test
+    public void minutesLeavingTheRingShouldBeForgotten() {
+        index.move(NEVER, 10);
+        index.move(NEVER, 10 + MINUTES);
+
+        assertThat(index.countSince(0, (10 + MINUTES) * MINUTE_MILLIS)).isEqualTo(1);
+
+        index.move(10, 11 + MINUTES);
+        index.move(NEVER, 10);
+
+        assertThat(index.countSince(0, (11 + MINUTES) * MINUTE_MILLIS)).isEqualTo(2);
+    }
+}
@@ -3,18 +3,25 @@ package com.crossover.trial.weather.repositories;
 import com.crossover.trial.weather.domain.measurement.AtmosphericData;
 import com.crossover.trial.weather.domain.measurement.DataPoint;
 import com.crossover.trial.weather.domain.measurement.DataPointType;
+import com.crossover.trial.weather.lib.TimestampFactory;
 import javaslang.control.Option;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import javax.inject.Provider;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -80,6 +87,79 @@ public class WeatherDataRepositoryTest {
         assertThat(result).contains(atmosphericData);
     }
 
+    @Test
+    public void getSnapshotForReturnsTheSnapshotOfTheStation() {
+        weatherDataRepository.update("foo", DataPointType.WIND, mock(DataPoint.class));
+        final StationSnapshot snapshot = new StationSnapshot(1L, mock(AtmosphericData.class));
+        when(stationDataRepository.snapshot()).thenReturn(snapshot);
+
+        assertThat(weatherDataRepository.getSnapshotFor("foo")).contains(snapshot);
+        assertThat(weatherDataRepository.getSnapshotFor("bar")).isEmpty();
+    }
+
+    @Test
+    public void getHistoryForReturnsEmptyHistoryIfStationIsUnknown() {
+        assertThat(weatherDataRepository.getHistoryFor("foo", DataPointType.WIND, 0L, Long.MAX_VALUE).isEmpty()).isTrue();
+    }
+
+    @Test
+    public void getHistoryForDelegatesToTheStation() {
+        weatherDataRepository.update("foo", DataPointType.WIND, mock(DataPoint.class));
+        final TimeSeries history = new TimeSeries(0);
+        when(stationDataRepository.history(DataPointType.WIND, 10L, 20L, Resolution.RAW)).thenReturn(history);
+
+        assertThat(weatherDataRepository.getHistoryFor("foo", DataPointType.WIND, 10L, 20L)).isSameAs(history);
+    }
+
+    @Test
+    public void rollUpRollsUpAllStations() {
+        weatherDataRepository.update("foo", DataPointType.WIND, mock(DataPoint.class));
+
+        weatherDataRepository.rollUp();
+
+        verify(stationDataRepository).rollUp();
+    }
+
+    @Test
+    public void newStationsShouldBeBoundToTheRegisteredListeners() {
+        final WeatherListener listener = mock(WeatherListener.class);
+        weatherDataRepository.addListener(listener);
+        final ArgumentCaptor<WeatherListener> dispatcher = ArgumentCaptor.forClass(WeatherListener.class);
+
+        weatherDataRepository.update("foo", DataPointType.WIND, 1.0, 1, 2, 3, 4);
+        verify(stationDataRepository).bind(eq("foo"), eq(0L), dispatcher.capture(), any(UpdateTimeIndex.class));
+        dispatcher.getValue().weatherUpdated("foo", DataPointType.WIND, 1L, 1000L, 1.0, 1, 2, 3, 4);
+
+        verify(listener).weatherUpdated("foo", DataPointType.WIND, 1L, 1000L, 1.0, 1, 2, 3, 4);
+    }
+
+    @Test
+    public void removingAStationShouldBeReportedToListeners() {
+        final WeatherListener listener = mock(WeatherListener.class);
+        weatherDataRepository.addListener(listener);
+        weatherDataRepository.update("foo", DataPointType.WIND, mock(DataPoint.class));
+        when(stationDataRepository.retire()).thenReturn(true);
+
+        weatherDataRepository.removeStation("foo");
+        weatherDataRepository.removeStation("bar");
+
+        verify(listener).stationRemoved("foo");
+        verify(listener, never()).stationRemoved("bar");
+    }
+
+    @Test
+    public void removedListenersShouldNotBeNotified() {
+        final WeatherListener listener = mock(WeatherListener.class);
+        weatherDataRepository.addListener(listener);
+        weatherDataRepository.removeListener(listener);
+        weatherDataRepository.update("foo", DataPointType.WIND, mock(DataPoint.class));
+        when(stationDataRepository.retire()).thenReturn(true);
+
+        weatherDataRepository.removeStation("foo");
+
+        verify(listener, never()).stationRemoved("foo");
+    }
+
     @Test
     public void removeStationIgnoresIfStationDoesNotExist() {
         weatherDataRepository.removeStation("bar");
@@ -91,9 +171,192 @@ public class WeatherDataRepositoryTest {
     public void removeStationRemovesExistingStationRepository() {
         DataPoint dataPoint = mock(DataPoint.class);
         weatherDataRepository.update("foo", DataPointType.WIND, dataPoint);
+        when(stationDataRepository.retire()).thenReturn(true);
 
         weatherDataRepository.removeStation("foo");
 
         assertThat(weatherDataRepository.getWeatherData().toList()).isEmpty();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void countUpdatedSinceShouldFollowTheLatestUpdateOfEachStation() {
+        final long hour = 3600000;
+        final long[] now = {hour};
+        final WeatherDataRepository repository = repositoryWithClock(new TimestampFactory() {
+            @Override
+            public long getCurrentTimestamp() {
+                return now[0];
+            }
+        });
+
+        repository.update("BOS", DataPointType.WIND, 1.0, 1, 2, 3, 4);
+        now[0] = 2 * hour;
+        repository.update("JFK", DataPointType.WIND, 1.0, 1, 2, 3, 4);
+        now[0] = 3 * hour;
+        repository.update("BOS", DataPointType.HUMIDITY, 1.0, 1, 2, 3, 4);
+        repository.update("BOS", DataPointType.WIND, 1.0, 1, 2, 3, 4);
+
+        assertThat(repository.countUpdatedSince(0, now[0])).isEqualTo(2);
+        assertThat(repository.countUpdatedSince(2 * hour + 60000, now[0])).isEqualTo(1);
+        assertThat(repository.countUpdatedSince(0, 2 * hour)).isEqualTo(1);
+
+        now[0] = 2 * hour + 86400000;
+        assertThat(repository.countUpdatedSince(now[0] - 86400000, now[0])).isEqualTo(2);
+        now[0] = 3 * hour + 86400000;
+        assertThat(repository.countUpdatedSince(now[0] - 86400000, now[0])).isEqualTo(1);
+
+        repository.removeStation("BOS");
+        assertThat(repository.countUpdatedSince(0, 3 * hour)).isEqualTo(1);
+    }
+
+    @Test
+    public void stationsIdleForTheirTtlShouldBeEvicted() {
+        final long hour = 3600000;
+        final long[] now = {hour};
+        final WeatherDataRepository repository = repositoryWithClock(new TimestampFactory() {
+            @Override
+            public long getCurrentTimestamp() {
+                return now[0];
+            }
+        });
+        ReflectionTestUtils.setField(repository, "stationTtl", 2 * hour);
+        repository.init();
+        final WeatherListener listener = mock(WeatherListener.class);
+        repository.addListener(listener);
+
+        repository.update("BOS", DataPointType.WIND, 1.0, 1, 2, 3, 4);
+        repository.update("JFK", DataPointType.WIND, 1.0, 1, 2, 3, 4);
+        now[0] = 2 * hour;
+        repository.update("JFK", DataPointType.WIND, 1.0, 1, 2, 3, 4);
+
+        now[0] = 3 * hour;
+        repository.evictIdleStations();
+
+        assertThat(repository.getWeatherDataFor("BOS")).isEmpty();
+        assertThat(repository.getWeatherDataFor("JFK")).isNotEmpty();
+        assertThat(repository.evictedStationCount()).isEqualTo(1);
+        verify(listener).stationRemoved("BOS");
+
+        now[0] = 4 * hour;
+        repository.evictIdleStations();
+
+        assertThat(repository.getWeatherDataFor("JFK")).isEmpty();
+        assertThat(repository.evictedStationCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void updatesRacingWithEvictionShouldNeverBeLost() throws Exception {
+        final AtomicLong now = new AtomicLong();
+        final WeatherDataRepository repository = repositoryWithClock(new TimestampFactory() {
+            @Override
+            public long getCurrentTimestamp() {
+                return now.get();
+            }
+        });
+        ReflectionTestUtils.setField(repository, "stationTtl", 1000L);
+        ReflectionTestUtils.setField(repository, "stationTtlTick", 1000L);
+        repository.init();
+
+        // each station starts one above the last version of the station removed before it
+        final AtomicLong stored = new AtomicLong();
+        final AtomicLong firstVersion = new AtomicLong();
+        repository.addListener(new WeatherListener() {
+            @Override
+            public void weatherUpdated(String stationId, DataPointType dataType, long sequence, long timestamp,
+                                       double mean, int first, int median, int last, int count) {
+            }
+
+            @Override
+            public void stationRemoved(String stationId) {
+                final long lastVersion = repository.versionOf(stationId);
+                stored.addAndGet(lastVersion - firstVersion.getAndSet(lastVersion + 1));
+            }
+        });
+
+        final AtomicLong accepted = new AtomicLong();
+        final Thread writer = new Thread(() -> {
+            for (int i = 0; i < 200000; i++) {
+                if (repository.update("BOS", DataPointType.WIND, 1.0, 1, 2, 3, 4)) {
+                    accepted.incrementAndGet();
+                }
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            now.addAndGet(1000L);
+            repository.evictIdleStations();
+        }
+        writer.join();
+
+        assertThat(repository.evictedStationCount()).isPositive();
+        final long version = repository.versionOf("BOS");
+        if (version != WeatherDataRepository.NO_STATION) {
+            stored.addAndGet(version - firstVersion.get());
+        }
+        assertThat(stored.get()).isEqualTo(accepted.get());
+    }
+
+    @Test
+    public void stationsCreatedAgainShouldContinueAboveTheVersionsOfRemovedStations() {
+        final WeatherDataRepository repository = repositoryWithClock(new TimestampFactory());
+        repository.init();
+        repository.update("BOS", DataPointType.WIND, 1.0, 1, 2, 3, 4);
+        repository.update("BOS", DataPointType.WIND, 2.0, 1, 2, 3, 4);
+        repository.update("JFK", DataPointType.WIND, 1.0, 1, 2, 3, 4);
+        final long removedVersion = repository.versionOf("BOS");
+
+        repository.removeStation("BOS");
+        repository.removeStation("BOS");
+        assertThat(repository.versionOf("BOS")).isEqualTo(WeatherDataRepository.NO_STATION);
+        repository.update("BOS", DataPointType.WIND, 3.0, 1, 2, 3, 4);
+
+        assertThat(repository.versionOf("BOS")).isGreaterThan(removedVersion);
+        assertThat(repository.getSnapshotFor("BOS").get().version()).isEqualTo(repository.versionOf("BOS"));
+        assertThat(repository.getWeatherDataFor("BOS").get().wind().mean()).isEqualTo(3.0);
+    }
+
+    @Test
+    public void modificationsOfAShardShouldAdvanceWhenTheVersionOfOneOfItsStationsChanges() {
+        final WeatherDataRepository repository = repositoryWithClock(new TimestampFactory());
+        repository.init();
+        final int shard = repository.shardIndexOf("BOS");
+
+        repository.update("BOS", DataPointType.WIND, 1.0, 1, 2, 3, 4);
+        final long updated = repository.modificationsOf(shard);
+        repository.update("BOS", DataPointType.WIND, -1.0, 1, 2, 3, 4);
+        final long rejected = repository.modificationsOf(shard);
+        repository.removeStation("BOS");
+
+        assertThat(updated).isGreaterThan(0L);
+        assertThat(rejected).isEqualTo(updated);
+        assertThat(repository.modificationsOf(shard)).isGreaterThan(updated);
+    }
+
+    @Test
+    public void stationsShouldBeSpreadOverAPowerOfTwoOfShards() {
+        final WeatherDataRepository repository = repositoryWithClock(new TimestampFactory());
+        ReflectionTestUtils.setField(repository, "shardCount", 3);
+        repository.init();
+
+        for (String stationId : new String[]{"BOS", "JFK", "LGA", "MMU", "EWR"}) {
+            assertThat(repository.update(stationId, DataPointType.WIND, 1.0, 1, 2, 3, 4)).isTrue();
+        }
+        repository.update("BOS", DataPointType.HUMIDITY, 50.0, 1, 2, 3, 4);
+
+        assertThat(repository.shardCount()).isEqualTo(4);
+        assertThat(repository.getWeatherData().size()).isEqualTo(5);
+        assertThat(repository.versionOf("BOS")).isEqualTo(2);
+        assertThat(repository.versionOf("EWR")).isEqualTo(1);
+    }
+
+    private static WeatherDataRepository repositoryWithClock(TimestampFactory timestampFactory) {
+        final WeatherDataRepository repository = new WeatherDataRepository();
+        ReflectionTestUtils.setField(repository, "timestampFactory", timestampFactory);
+        ReflectionTestUtils.setField(repository, "stationDataRepositoryProvider", (Provider<StationDataRepository>) () -> {
+            final StationDataRepository station = new StationDataRepository();
+            ReflectionTestUtils.setField(station, "timestampFactory", timestampFactory);
+            return station;
+        });
+        return repository;
+    }
+}
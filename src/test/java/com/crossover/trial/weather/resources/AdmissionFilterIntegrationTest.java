@@ -0,0 +1,95 @@
+package com.crossover.trial.weather.resources;
+
+import com.crossover.trial.weather.WeatherServer;
+import com.crossover.trial.weather.lib.AimdLimiter;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.inject.Inject;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(WeatherServer.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class AdmissionFilterIntegrationTest {
+
+    @Inject
+    private AdmissionControl admissionControl;
+
+    private final AdmissionFilter filter = new AdmissionFilter();
+
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(filter, "admissionControl", admissionControl);
+    }
+
+    @Test
+    public void pathsShouldBeClassifiedByTheirApi() {
+        final AimdLimiter query = admissionControl.limiterFor("/query/weather/BOS/0");
+        final AimdLimiter collect = admissionControl.limiterFor("/collect/weather/BOS/wind");
+
+        assertThat(query).isNotNull();
+        assertThat(collect).isNotNull().isNotSameAs(query);
+        assertThat(admissionControl.limiterFor("/query")).isSameAs(query);
+        assertThat(admissionControl.limiterFor("/collect/ping")).isSameAs(collect);
+        assertThat(admissionControl.limiterFor("/collector")).isNull();
+        assertThat(admissionControl.limiterFor("/ping")).isNull();
+    }
+
+    @Test
+    public void requestsOverTheLimitShouldBeAnswered503WithRetryAfter() throws Exception {
+        exhaust(admissionControl.limiterFor(Paths.COLLECT));
+        final MockFilterChain chain = new MockFilterChain();
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(new MockHttpServletRequest("POST", "/collect/weather/BOS/wind"), response, chain);
+
+        assertThat(response.getStatus()).isEqualTo(503);
+        assertThat(response.getHeader("Retry-After")).isEqualTo("1");
+        assertThat(chain.getRequest()).isNull();
+        assertThat(admissionControl.limiterFor(Paths.COLLECT).rejectedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void queriesShouldBeAdmittedWhileCollectorsAreOverTheirLimit() throws Exception {
+        exhaust(admissionControl.limiterFor(Paths.COLLECT));
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/weather/query/weather/BOS/0");
+        request.setContextPath("/weather");
+        final MockFilterChain chain = new MockFilterChain();
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(request, response, chain);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader("Retry-After")).isNull();
+        assertThat(chain.getRequest()).isSameAs(request);
+        assertThat(admissionControl.limiterFor(Paths.QUERY).inFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void requestsOutsideTheApisShouldNotBeLimited() throws Exception {
+        exhaust(admissionControl.limiterFor(Paths.QUERY));
+        exhaust(admissionControl.limiterFor(Paths.COLLECT));
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/ping");
+        final MockFilterChain chain = new MockFilterChain();
+
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+
+        assertThat(chain.getRequest()).isSameAs(request);
+    }
+
+    private static void exhaust(AimdLimiter limiter) {
+        while (limiter.inFlight() < limiter.limit()) {
+            assertThat(limiter.tryAcquire()).isTrue();
+        }
+    }
+}
@@ -63,4 +63,16 @@ public class CollectorAirportResourceIntegrationTest {
         assertThat(response.getStatus()).isEqualTo(404);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void addingAirportWithInvalidCodeReturns400() {
+        Response response = airportResource.addAirport("TOOLONG", "49", "11");
+        assertThat(response.getStatus()).isEqualTo(400);
+    }
+
+    @Test
+    public void addingAirportWithInvalidCoordinatesReturns400() {
+        Response response = airportResource.addAirport("FOO", "north", "11");
+        assertThat(response.getStatus()).isEqualTo(400);
+    }
+
+}
@@ -13,8 +13,11 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import javax.inject.Inject;
 import javax.ws.rs.core.Response;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -35,6 +38,76 @@ public class CollectorResourceIntegrationTest {
         assertThat(response.getStatus()).isEqualTo(406);
     }
 
+    @Test
+    public void addingWeatherOfUnknownTypeReturns400() throws Exception {
+        Response response = collectorResource.updateWeather("BOS", "visibility",
+                "{\"mean\":22.0,\"first\":10,\"median\":20,\"last\":30,\"count\":10}");
+        assertThat(response.getStatus()).isEqualTo(400);
+    }
+
+    @Test
+    public void addingMalformedWeatherReturns400() throws Exception {
+        Response response = collectorResource.updateWeather("BOS", "wind", "{\"mean\":22.0");
+        assertThat(response.getStatus()).isEqualTo(400);
+    }
+
+    @Test
+    public void addingWeatherIgnoresCaseOfTheType() throws Exception {
+        Response response = collectorResource.updateWeather("BOS", "Wind",
+                "{\"mean\":22.0,\"first\":10,\"median\":20,\"last\":30,\"count\":10}");
+        assertThat(response.getStatus()).isEqualTo(200);
+    }
+
+    @Test
+    public void addingWeatherBatchAsArrayReturnsStatusPerRecord() throws Exception {
+        Response response = collectorResource.updateWeatherBatch(body("[" +
+                "{\"iata\":\"BOS\",\"pointType\":\"wind\",\"dataPoint\":{\"mean\":22.0,\"first\":10,\"median\":20,\"last\":30,\"count\":10}}," +
+                "{\"iata\":\"FOO\",\"pointType\":\"wind\",\"dataPoint\":{\"mean\":22.0,\"first\":10,\"median\":20,\"last\":30,\"count\":10}}," +
+                "{\"iata\":\"JFK\",\"pointType\":\"visibility\",\"dataPoint\":{\"mean\":22.0,\"first\":10,\"median\":20,\"last\":30,\"count\":10}}" +
+                "]"));
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        Map<String, Object> entity = (Map<String, Object>) response.getEntity();
+        assertThat(entity).containsEntry("accepted", 1).containsEntry("rejected", 2);
+        assertThat((int[]) entity.get("statuses")).containsExactly(200, 406, 400);
+    }
+
+    @Test
+    public void addingWeatherBatchAsJsonLinesAcceptsAllRecords() throws Exception {
+        Response response = collectorResource.updateWeatherBatch(body(
+                "{\"iata\":\"BOS\",\"pointType\":\"wind\",\"dataPoint\":{\"mean\":22.0,\"first\":10,\"median\":20,\"last\":30,\"count\":10}}\n" +
+                "{\"iata\":\"BOS\",\"pointType\":\"humidity\",\"dataPoint\":{\"mean\":50.0,\"first\":10,\"median\":20,\"last\":30,\"count\":10}}\n"));
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        Map<String, Object> entity = (Map<String, Object>) response.getEntity();
+        assertThat(entity).containsEntry("accepted", 2).containsEntry("rejected", 0);
+    }
+
+    @Test
+    public void addingMalformedWeatherBatchReturns400() throws Exception {
+        Response response = collectorResource.updateWeatherBatch(body("[{\"iata\":"));
+
+        assertThat(response.getStatus()).isEqualTo(400);
+        assertThat((Map<String, Object>) response.getEntity()).containsKey("error");
+    }
+
+    @Test
+    public void addingAirportBatchReturnsStatusPerRecord() throws Exception {
+        Response response = collectorResource.addAirportBatch(body(
+                "{\"iata\":\"FOO\",\"latitude\":49.0,\"longitude\":11.0}\n" +
+                "{\"iata\":\"BOS\",\"latitude\":42.364347,\"longitude\":-71.005181}\n" +
+                "{\"iata\":\"FOO\",\"latitude\":50.0,\"longitude\":12.0}\n" +
+                "{\"iata\":\"BAR\",\"latitude\":50.0,\"longitude\":\"east\"}\n" +
+                "{\"iata\":\"BAZ\",\"latitude\":\"51.5\",\"longitude\":\"-0.1\"}\n"));
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        Map<String, Object> entity = (Map<String, Object>) response.getEntity();
+        assertThat(entity).containsEntry("accepted", 2).containsEntry("rejected", 3);
+        assertThat((int[]) entity.get("statuses")).containsExactly(200, 403, 403, 400, 200);
+        assertThat(((Airport) airportResource.getAirport("FOO").getEntity()).latitude()).isEqualTo(49.0);
+        assertThat(airportResource.getAirport("BAZ").getStatus()).isEqualTo(200);
+    }
+
     @Test
     public void getAirportsShouldReturnListOfAirports() {
         airportResource.addAirport("FOO", "49", "11");
@@ -48,4 +121,7 @@ public class CollectorResourceIntegrationTest {
         assertThat(entity).contains("FOO");
     }
 
-}
\ No newline at end of file
+    private static ByteArrayInputStream body(String records) {
+        return new ByteArrayInputStream(records.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,99 @@
+package com.crossover.trial.weather.resources;
+
+import com.crossover.trial.weather.domain.measurement.DataPointType;
+import com.crossover.trial.weather.repositories.WeatherDataRepository;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class WeatherIngestQueueTest {
+
+    @Mock
+    private WeatherDataRepository weatherDataRepository;
+
+    @InjectMocks
+    private WeatherIngestQueue ingestQueue;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        ingestQueue.stop();
+    }
+
+    @Test
+    public void aQueueWithoutCapacityShouldBeDisabled() {
+        ingestQueue.start();
+
+        assertThat(ingestQueue.isEnabled()).isFalse();
+        assertThat(ingestQueue.statistics()).isEmpty();
+    }
+
+    @Test
+    public void queuedDataPointsShouldBeStoredInOrderPerStation() throws InterruptedException {
+        start(16, 2);
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(ingestQueue.offer("BOS", DataPointType.WIND, i, i, i, i, 1)).isTrue();
+            assertThat(ingestQueue.offer("JFK", DataPointType.WIND, i, i, i, i, 1)).isTrue();
+        }
+        ingestQueue.stop();
+
+        final InOrder inOrder = inOrder(weatherDataRepository);
+        for (int i = 0; i < 5; i++) {
+            inOrder.verify(weatherDataRepository).update("BOS", DataPointType.WIND, i, i, i, i, 1);
+        }
+        assertThat(ingestQueue.statistics())
+                .containsEntry("enqueued", 10L)
+                .containsEntry("stored", 10L)
+                .containsEntry("dropped", 0L);
+    }
+
+    @Test
+    public void dataPointsShouldBeDroppedWhileTheQueueIsFull() throws InterruptedException {
+        final CountDownLatch storing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(weatherDataRepository.update(eq("BOS"), eq(DataPointType.WIND), anyDouble(), anyInt(), anyInt(), anyInt(), anyInt()))
+                .then(invocation -> {
+                    storing.countDown();
+                    release.await();
+                    return true;
+                });
+        start(1, 1);
+
+        assertThat(ingestQueue.offer("BOS", DataPointType.WIND, 1.0, 1, 2, 3, 4)).isTrue();
+        assertThat(storing.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(ingestQueue.offer("BOS", DataPointType.WIND, 1.0, 1, 2, 3, 4)).isTrue();
+        assertThat(ingestQueue.offer("BOS", DataPointType.WIND, 1.0, 1, 2, 3, 4)).isFalse();
+
+        final Map<String, Object> statistics = ingestQueue.statistics();
+        assertThat(statistics)
+                .containsEntry("depth", 1)
+                .containsEntry("enqueued", 2L)
+                .containsEntry("dropped", 1L);
+        assertThat((Map<String, Long>) statistics.get("enqueue_latency_us")).containsKeys("50", "99", "99.9", "100");
+
+        release.countDown();
+    }
+
+    private void start(int capacity, int workerCount) {
+        ReflectionTestUtils.setField(ingestQueue, "capacity", capacity);
+        ReflectionTestUtils.setField(ingestQueue, "workerCount", workerCount);
+        ingestQueue.start();
+    }
+}
@@ -3,9 +3,13 @@ package com.crossover.trial.weather.resources;
 import com.crossover.trial.weather.WeatherServer;
 import com.crossover.trial.weather.domain.measurement.AtmosphericData;
 import com.crossover.trial.weather.domain.measurement.DataPoint;
+import com.crossover.trial.weather.domain.measurement.DataPointType;
 import com.crossover.trial.weather.domain.measurement.ImmutableDataPoint;
+import com.crossover.trial.weather.repositories.WeatherDataRepository;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import org.junit.Before;
 import org.junit.Test;
@@ -15,7 +19,12 @@ import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import javax.inject.Inject;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
@@ -34,6 +43,9 @@ public class WeatherQueryResourceIntegrationTest {
     @Inject
     private Gson _gson;
 
+    @Inject
+    private WeatherDataRepository weatherDataRepository;
+
     private ImmutableDataPoint dataPoint;
 
     @Before
@@ -52,6 +64,36 @@ public class WeatherQueryResourceIntegrationTest {
         assertThat(pingResult.getAsJsonObject().get("iata_freq").getAsJsonObject().entrySet()).hasSize(5);
     }
 
+    @Test
+    public void pingShouldReturnBoundedRadiusBinsAndPercentiles() throws Exception {
+        query.weather("JFK", "200");
+        query.weather("JFK", "1000000000");
+
+        JsonObject pingResult = new JsonParser().parse(query.ping()).getAsJsonObject();
+        JsonArray bins = pingResult.get("radius_freq").getAsJsonArray();
+        assertThat(bins).hasSize(3);
+        assertThat(bins.get(0).getAsJsonObject().get("from").getAsLong()).isEqualTo(0);
+        assertThat(bins.get(1).getAsJsonObject().get("from").getAsLong()).isEqualTo(200);
+        assertThat(bins.get(2).getAsJsonObject().get("count").getAsLong()).isEqualTo(1);
+
+        JsonObject percentiles = pingResult.get("radius_percentiles").getAsJsonObject();
+        assertThat(percentiles.get("50").getAsLong()).isBetween(200L, 212L);
+        assertThat(percentiles.get("100").getAsLong()).isEqualTo(65535);
+    }
+
+    @Test
+    public void pingShouldReturnRecentRequestsPerWindow() throws Exception {
+        query.weather("JFK", "200");
+
+        JsonObject windows = new JsonParser().parse(query.ping()).getAsJsonObject().get("windows").getAsJsonObject();
+        assertThat(windows.entrySet()).extracting(Map.Entry::getKey).containsExactly("1m", "5m", "1h", "24h");
+
+        JsonObject lastMinute = windows.get("1m").getAsJsonObject();
+        assertThat(lastMinute.get("requests").getAsLong()).isEqualTo(2);
+        assertThat(lastMinute.get("iata_freq").getAsJsonObject().get("JFK").getAsDouble()).isEqualTo(0.5);
+        assertThat(lastMinute.get("radius_percentiles").getAsJsonObject().get("100").getAsLong()).isBetween(200L, 212L);
+    }
+
     @Test
     public void weatherQueryShouldReturnPreviouslyUploadedData() throws Exception {
         List<AtmosphericData> ais = (List<AtmosphericData>) query.weather("BOS", "0").getEntity();
@@ -71,6 +113,47 @@ public class WeatherQueryResourceIntegrationTest {
         assertThat(ais).hasSize(3);
     }
 
+    @Test
+    public void weatherResponsesShouldBeCachedUntilAStationInTheRadiusChanges() throws Exception {
+        Object cached = query.weather("JFK", "200").getEntity();
+        assertThat(query.weather("JFK", "200").getEntity()).isSameAs(cached);
+
+        update.updateWeather("EWR", "wind", _gson.toJson(dataPoint));
+
+        List<AtmosphericData> ais = (List<AtmosphericData>) query.weather("JFK", "200").getEntity();
+        assertThat(ais).isNotSameAs(cached).hasSize(1);
+        assertThat(ais.get(0).wind()).isEqualTo(dataPoint);
+
+        JsonObject cache = new JsonParser().parse(query.ping()).getAsJsonObject().get("response_cache").getAsJsonObject();
+        assertThat(cache.get("hits").getAsLong()).isEqualTo(1);
+        assertThat(cache.get("misses").getAsLong()).isEqualTo(3);
+    }
+
+    @Test
+    public void cachedResponsesShouldNotOutliveARemovedStation() throws Exception {
+        assertThat(query.weather("BOS", "0").getEntity()).isSameAs(query.weather("BOS", "0").getEntity());
+
+        weatherDataRepository.removeStation("BOS");
+        update.updateWeather("BOS", "wind", _gson.toJson(dataPoint.withMean(40)));
+
+        List<AtmosphericData> ais = (List<AtmosphericData>) query.weather("BOS", "0").getEntity();
+        assertThat(ais).hasSize(1);
+        assertThat(ais.get(0).wind().mean()).isEqualTo(40.0);
+    }
+
+    @Test
+    public void responsesShouldOnlyBeServedForTheExactRadiusTheyWereBuiltFor() throws Exception {
+        update.updateWeather("JFK", "wind", _gson.toJson(dataPoint));
+        update.updateWeather("EWR", "wind", _gson.toJson(dataPoint));
+
+        assertThat((List<AtmosphericData>) query.weather("JFK", "43.2").getEntity()).hasSize(1);
+        assertThat((List<AtmosphericData>) query.weather("JFK", "43.45").getEntity()).hasSize(2);
+        assertThat((List<AtmosphericData>) query.weather("JFK", "43.2").getEntity()).hasSize(1);
+
+        JsonObject cache = new JsonParser().parse(query.ping()).getAsJsonObject().get("response_cache").getAsJsonObject();
+        assertThat(cache.get("size").getAsLong()).isEqualTo(2);
+    }
+
     @Test
     public void consecutiveWeatherUpdatesOfDifferentTypeShouldBeAccumulated() throws Exception {
 
@@ -92,4 +175,144 @@ public class WeatherQueryResourceIntegrationTest {
         assertThat(ais.get(0).cloudCover()).isEqualTo(cloudCoverDp);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void historyShouldReturnAllUpdatesOfTheTypeOldestFirst() throws Exception {
+        update.updateWeather("BOS", "wind", _gson.toJson(dataPoint.withMean(40)));
+        update.updateWeather("BOS", "humidity", _gson.toJson(dataPoint));
+
+        Response response = query.history("BOS", "wind", null, null, null);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        JsonArray history = new JsonParser().parse(read(response)).getAsJsonArray();
+        assertThat(history).hasSize(2);
+        assertThat(history.get(0).getAsJsonObject().get("mean").getAsDouble()).isEqualTo(22.0);
+        assertThat(history.get(1).getAsJsonObject().get("mean").getAsDouble()).isEqualTo(40.0);
+        assertThat(history.get(1).getAsJsonObject().get("timestamp").getAsLong())
+                .isGreaterThanOrEqualTo(history.get(0).getAsJsonObject().get("timestamp").getAsLong());
+    }
+
+    @Test
+    public void historyShouldBeEmptyOutsideTheRequestedTimeRange() throws Exception {
+        Response response = query.history("BOS", "wind", 0L, 1L, null);
+
+        assertThat(new JsonParser().parse(read(response)).getAsJsonArray()).isEmpty();
+    }
+
+    @Test
+    public void historyWithHourResolutionShouldFoldTheCurrentHour() throws Exception {
+        update.updateWeather("BOS", "wind", _gson.toJson(dataPoint.withMean(40).withCount(30)));
+
+        Response response = query.history("BOS", "wind", null, null, 3600000L);
+
+        JsonArray history = new JsonParser().parse(read(response)).getAsJsonArray();
+        assertThat(history.size()).isBetween(1, 2);
+        int count = 0;
+        for (JsonElement bucket : history) {
+            assertThat(bucket.getAsJsonObject().get("timestamp").getAsLong() % 3600000L).isEqualTo(0L);
+            count += bucket.getAsJsonObject().get("count").getAsInt();
+        }
+        assertThat(count).isEqualTo(40);
+    }
+
+    @Test
+    public void nearestShouldReturnTheNearestStationsWithMatchingData() throws Exception {
+        update.updateWeather("JFK", "wind", _gson.toJson(dataPoint));
+        update.updateWeather("LGA", "humidity", _gson.toJson(dataPoint));
+        update.updateWeather("EWR", "wind", _gson.toJson(dataPoint.withMean(40)));
+
+        JsonArray nearest = new JsonParser().parse(read(query.nearest("JFK", 2, "wind", 60000L))).getAsJsonArray();
+
+        assertThat(nearest).hasSize(2);
+        assertThat(nearest.get(0).getAsJsonObject().get("iata").getAsString()).isEqualTo("JFK");
+        assertThat(nearest.get(0).getAsJsonObject().get("distance").getAsDouble()).isEqualTo(0.0);
+        assertThat(nearest.get(1).getAsJsonObject().get("iata").getAsString()).isEqualTo("EWR");
+        assertThat(nearest.get(1).getAsJsonObject().get("weather").getAsJsonObject().get("wind").getAsJsonObject()
+                .get("mean").getAsDouble()).isEqualTo(40.0);
+    }
+
+    @Test
+    public void nearestShouldFilterOnTheFreshnessOfTheRequestedType() throws Exception {
+        weatherDataRepository.apply("JFK", DataPointType.PRESSURE, 1, 1000L, 700.0, 10, 20, 30, 10);
+        update.updateWeather("JFK", "wind", _gson.toJson(dataPoint));
+        update.updateWeather("EWR", "pressure", _gson.toJson(dataPoint.withMean(700)));
+
+        JsonArray nearest = new JsonParser().parse(read(query.nearest("JFK", 2, "pressure", 60000L))).getAsJsonArray();
+
+        assertThat(nearest).hasSize(1);
+        assertThat(nearest.get(0).getAsJsonObject().get("iata").getAsString()).isEqualTo("EWR");
+    }
+
+    @Test
+    public void nearestOfUnknownAirportReturns404() throws Exception {
+        assertThat(query.nearest("XXX", 2, null, null).getStatus()).isEqualTo(404);
+        assertThat(query.nearest("JFK", 0, null, null).getStatus()).isEqualTo(400);
+    }
+
+    @Test
+    public void nearestWithMoreStationsThanAirportsReturnsAllStations() throws Exception {
+        update.updateWeather("JFK", "wind", _gson.toJson(dataPoint));
+
+        Response more = query.nearest("JFK", 6, null, null);
+        Response most = query.nearest("JFK", Integer.MAX_VALUE, null, null);
+
+        assertThat(more.getStatus()).isEqualTo(200);
+        assertThat(new JsonParser().parse(read(more)).getAsJsonArray()).hasSize(2);
+        assertThat(most.getStatus()).isEqualTo(200);
+        assertThat(new JsonParser().parse(read(most)).getAsJsonArray()).hasSize(2);
+    }
+
+    @Test
+    public void nearestWithNegativeMaxAgeReturns400() throws Exception {
+        assertThat(query.nearest("JFK", 2, null, -1L).getStatus()).isEqualTo(400);
+    }
+
+    @Test
+    public void weatherAroundAPositionAndInABoxShouldReturnTheStationsInside() throws Exception {
+        update.updateWeather("JFK", "wind", _gson.toJson(dataPoint));
+        update.updateWeather("EWR", "wind", _gson.toJson(dataPoint));
+
+        JsonArray around = new JsonParser().parse(read(query.weatherAround("-73.8", "40.6", "200"))).getAsJsonArray();
+        JsonArray inside = new JsonParser().parse(read(query.weatherIn("-74", "40", "-73", "41"))).getAsJsonArray();
+        JsonArray crossing = new JsonParser().parse(read(query.weatherIn("-80", "170", "-60", "50"))).getAsJsonArray();
+
+        assertThat(around).hasSize(2);
+        assertThat(inside).hasSize(1);
+        assertThat(inside.get(0).getAsJsonObject().get("wind").getAsJsonObject().get("mean").getAsDouble())
+                .isEqualTo(22.0);
+        assertThat(crossing).hasSize(3);
+    }
+
+    @Test
+    public void weatherAroundOrInInvalidCoordinatesReturns400() throws Exception {
+        assertThat(query.weatherAround("91", "0", "100").getStatus()).isEqualTo(400);
+        assertThat(query.weatherAround("0", "0", "-1").getStatus()).isEqualTo(400);
+        assertThat(query.weatherIn("10", "0", "0", "10").getStatus()).isEqualTo(400);
+        assertThat(query.weatherIn("0", "0", "10", "north").getStatus()).isEqualTo(400);
+    }
+
+    @Test
+    public void weatherWithMaxAgeShouldSkipStaleStations() throws Exception {
+        update.updateWeather("JFK", "wind", _gson.toJson(dataPoint));
+        weatherDataRepository.apply("EWR", DataPointType.WIND, 1, 1000L, 40.0, 10, 20, 30, 10);
+
+        JsonArray fresh = new JsonParser().parse(read(query.weather("JFK", "200", 60000L))).getAsJsonArray();
+        JsonArray all = new JsonParser().parse(read(query.weather("JFK", "200", null))).getAsJsonArray();
+
+        assertThat(fresh).hasSize(1);
+        assertThat(fresh.get(0).getAsJsonObject().get("wind").getAsJsonObject().get("mean").getAsDouble())
+                .isEqualTo(22.0);
+        assertThat(all).hasSize(2);
+        assertThat(query.weather("JFK", "200", -1L).getStatus()).isEqualTo(400);
+    }
+
+    @Test
+    public void historyOfUnknownTypeReturns400() throws Exception {
+        assertThat(query.history("BOS", "visibility", null, null, null).getStatus()).isEqualTo(400);
+    }
+
+    private static String read(Response response) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(output);
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+}